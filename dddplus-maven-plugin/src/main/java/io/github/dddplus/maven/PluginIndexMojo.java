@@ -0,0 +1,123 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.maven;
+
+import io.github.dddplus.plugin.PluginIndex;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 为插件包生成{@link PluginIndex}，插件加载时就不必扫描整个jar包了.
+ * <p>
+ * <p>在{@code process-classes}阶段执行，索引写入{@code target/classes}，随后被打进jar包.</p>
+ */
+@Mojo(name = "plugin-index", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class PluginIndexMojo extends AbstractMojo {
+    private static final String PARTNER = "io.github.dddplus.annotation.Partner";
+    private static final String PATTERN = "io.github.dddplus.annotation.Pattern";
+    private static final String EXTENSION = "io.github.dddplus.annotation.Extension";
+    private static final String PLUGIN_LISTENER = "io.github.dddplus.plugin.IPluginListener";
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    File outputDirectory;
+
+    @Parameter(defaultValue = "${project.compileClasspathElements}", readonly = true, required = true)
+    List<String> classpathElements;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (!outputDirectory.isDirectory()) {
+            getLog().info("No classes to index: " + outputDirectory);
+            return;
+        }
+
+        try (URLClassLoader classLoader = projectClassLoader()) {
+            Class<?> pluginListener = classLoader.loadClass(PLUGIN_LISTENER);
+
+            PluginIndex index = new PluginIndex();
+            for (String className : classNames()) {
+                // 不初始化，避免执行插件包里的static代码
+                Class<?> clazz = Class.forName(className, false, classLoader);
+                if (hasAnnotation(clazz, PARTNER)) {
+                    index.addPartner(className);
+                }
+                if (hasAnnotation(clazz, PATTERN)) {
+                    index.addPattern(className);
+                }
+                if (hasAnnotation(clazz, EXTENSION)) {
+                    index.addExtension(className);
+                }
+                if (pluginListener.isAssignableFrom(clazz) && !clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers())) {
+                    index.addListener(className);
+                }
+            }
+
+            File indexFile = new File(outputDirectory, PluginIndex.LOCATION);
+            indexFile.getParentFile().mkdirs();
+            try (OutputStream out = new FileOutputStream(indexFile)) {
+                index.write(out);
+            }
+            getLog().info("Plugin index generated: " + index);
+        } catch (IOException | ClassNotFoundException | LinkageError e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    private URLClassLoader projectClassLoader() throws IOException {
+        Set<String> elements = new LinkedHashSet<>(classpathElements);
+        elements.add(outputDirectory.getAbsolutePath());
+        List<URL> urls = new ArrayList<>(elements.size());
+        for (String element : elements) {
+            urls.add(new File(element).toURI().toURL());
+        }
+        // 与maven插件自身的classpath隔离：以项目依赖的dddplus版本为准
+        return new URLClassLoader(urls.toArray(new URL[0]), null);
+    }
+
+    private List<String> classNames() throws IOException {
+        final Path root = outputDirectory.toPath();
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(path -> path.toString().endsWith(".class"))
+                    .map(path -> root.relativize(path).toString())
+                    .filter(name -> !name.startsWith("META-INF") && !name.endsWith("module-info.class") && !name.endsWith("package-info.class"))
+                    .map(name -> name.substring(0, name.length() - ".class".length()).replace(File.separatorChar, '.'))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // Partner/Pattern/Extension都是@Inherited：getAnnotations()包含父类上的注解
+    private static boolean hasAnnotation(Class<?> clazz, String annotationName) {
+        for (Annotation annotation : clazz.getAnnotations()) {
+            if (annotation.annotationType().getName().equals(annotationName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
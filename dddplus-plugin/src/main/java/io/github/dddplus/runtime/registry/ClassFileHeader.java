@@ -0,0 +1,221 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 直接从.class字节码里解析出的类头信息：类名，父类，接口，类上的注解.
+ * <p>
+ * <p>只解析常量池和类级别的RuntimeVisibleAnnotations，不加载类，因此不会占用metaspace.</p>
+ *
+ * @see <a href="https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html">The class File Format</a>
+ */
+final class ClassFileHeader {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    /**
+     * binary name, e,g. org.example.Foo$Bar
+     */
+    @Getter
+    private final String className;
+
+    /**
+     * binary name, null if java.lang.Object
+     */
+    @Getter
+    private final String superClassName;
+
+    @Getter
+    private final List<String> interfaceNames;
+
+    /**
+     * 类上直接标注的注解类名.
+     */
+    @Getter
+    private final Set<String> annotationNames;
+
+    private final int accessFlags;
+
+    private ClassFileHeader(String className, String superClassName, List<String> interfaceNames, Set<String> annotationNames, int accessFlags) {
+        this.className = className;
+        this.superClassName = superClassName;
+        this.interfaceNames = interfaceNames;
+        this.annotationNames = annotationNames;
+        this.accessFlags = accessFlags;
+    }
+
+    boolean isInterface() {
+        return (accessFlags & ACC_INTERFACE) != 0;
+    }
+
+    boolean isAbstract() {
+        return (accessFlags & ACC_ABSTRACT) != 0;
+    }
+
+    static ClassFileHeader parse(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a class file");
+        }
+        in.readUnsignedShort(); // minor_version
+        in.readUnsignedShort(); // major_version
+
+        // constant pool: 我们只关心CONSTANT_Utf8和CONSTANT_Class
+        final int cpCount = in.readUnsignedShort();
+        String[] utf8s = new String[cpCount];
+        int[] classNameIndexes = new int[cpCount];
+        for (int i = 1; i < cpCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8s[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classNameIndexes[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(in, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(in, 3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(in, 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(in, 8);
+                    i++; // 占2个slot
+                    break;
+                default:
+                    throw new IOException("invalid constant pool tag " + tag + " at #" + i);
+            }
+        }
+
+        final int accessFlags = in.readUnsignedShort();
+        final String className = classNameAt(in.readUnsignedShort(), utf8s, classNameIndexes);
+        final int superIndex = in.readUnsignedShort();
+        final String superClassName = superIndex == 0 ? null : classNameAt(superIndex, utf8s, classNameIndexes);
+
+        final int interfacesCount = in.readUnsignedShort();
+        List<String> interfaceNames = new ArrayList<>(interfacesCount);
+        for (int i = 0; i < interfacesCount; i++) {
+            interfaceNames.add(classNameAt(in.readUnsignedShort(), utf8s, classNameIndexes));
+        }
+
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+
+        Set<String> annotationNames = Collections.emptySet();
+        final int attributesCount = in.readUnsignedShort();
+        for (int i = 0; i < attributesCount; i++) {
+            String attributeName = utf8s[in.readUnsignedShort()];
+            int length = in.readInt();
+            if (!RUNTIME_VISIBLE_ANNOTATIONS.equals(attributeName)) {
+                skip(in, length);
+                continue;
+            }
+
+            final int annotationsCount = in.readUnsignedShort();
+            annotationNames = new HashSet<>(annotationsCount);
+            for (int j = 0; j < annotationsCount; j++) {
+                annotationNames.add(descriptorToClassName(utf8s[in.readUnsignedShort()]));
+                skipElementValuePairs(in);
+            }
+        }
+
+        return new ClassFileHeader(className, superClassName,
+                Collections.unmodifiableList(interfaceNames), Collections.unmodifiableSet(annotationNames), accessFlags);
+    }
+
+    private static String classNameAt(int index, String[] utf8s, int[] classNameIndexes) throws IOException {
+        if (index <= 0 || index >= classNameIndexes.length || utf8s[classNameIndexes[index]] == null) {
+            throw new IOException("invalid class reference #" + index);
+        }
+
+        return utf8s[classNameIndexes[index]].replace('/', '.');
+    }
+
+    // Lorg/example/Foo; -> org.example.Foo
+    private static String descriptorToClassName(String descriptor) {
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        final int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            skip(in, 6); // access_flags, name_index, descriptor_index
+            final int attributesCount = in.readUnsignedShort();
+            for (int j = 0; j < attributesCount; j++) {
+                skip(in, 2);
+                skip(in, in.readInt());
+            }
+        }
+    }
+
+    private static void skipElementValuePairs(DataInputStream in) throws IOException {
+        final int pairs = in.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            skip(in, 2); // element_name_index
+            skipElementValue(in);
+        }
+    }
+
+    private static void skipElementValue(DataInputStream in) throws IOException {
+        final int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e': // enum: type_name_index, const_name_index
+                skip(in, 4);
+                break;
+            case '@':
+                skip(in, 2);
+                skipElementValuePairs(in);
+                break;
+            case '[':
+                final int values = in.readUnsignedShort();
+                for (int i = 0; i < values; i++) {
+                    skipElementValue(in);
+                }
+                break;
+            default: // B C D F I J S Z s c
+                skip(in, 2);
+                break;
+        }
+    }
+
+    private static void skip(DataInputStream in, int n) throws IOException {
+        // ByteArrayInputStream不会少跳，除非到达末尾
+        if (in.skipBytes(n) != n) {
+            throw new IOException("truncated class file");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return className;
+    }
+}
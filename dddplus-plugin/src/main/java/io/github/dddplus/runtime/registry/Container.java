@@ -6,18 +6,21 @@
 package io.github.dddplus.runtime.registry;
 
 import io.github.dddplus.annotation.Partner;
+import io.github.dddplus.annotation.Pattern;
 import io.github.dddplus.plugin.IContainerContext;
 import io.github.dddplus.plugin.IPlugin;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationContext;
 
 import java.io.File;
-import java.io.IOException;
+import java.lang.annotation.Annotation;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * 业务容器，用于动态加载个性化业务包：Plugin Jar.
@@ -46,7 +49,49 @@ public final class Container {
     private static final ClassLoader containerClassLoader = Container.class.getClassLoader();
     private static final ApplicationContext containerApplicationContext = DDDBootstrap.applicationContext();
 
-    private static final Map<String, IPlugin> activePlugins = new HashMap<>(); // has no concurrent scenarios: thread safe
+    // 不同Partner的Plugin可以并行加载
+    private static final Map<String, IPlugin> activePlugins = new ConcurrentHashMap<>();
+
+    // 旧版本Plugin等待在途调用完成的最长时间，超时后强制销毁
+    private static final long drainTimeoutInMs = Long.getLong("pluginDrainTimeoutInMs", 30_000);
+    private static final long drainCheckIntervalInMs = 20;
+    // 首次检查在途调用前的等待：刚解析出旧版本扩展点、还没来得及登记在途的调用
+    private static final long drainGraceInMs = Long.getLong("pluginDrainGraceInMs", 100);
+    private static final ScheduledExecutorService drainScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "PluginDrainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 被销毁的Plugin，其类加载器经历了多少次老年代GC仍然可达，就认为泄漏了
+    private static final PluginLeakDetector leakDetector = new PluginLeakDetector(Long.getLong("pluginLeakGcCycles", 3));
+    private static final long leakCheckIntervalInMs = Long.getLong("pluginLeakCheckIntervalInMs", 60_000);
+
+    static {
+        drainScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                leakDetector.check();
+            } catch (Throwable ex) {
+                log.error("fails to check plugin class loader leaks", ex);
+            }
+        }, leakCheckIntervalInMs, leakCheckIntervalInMs, TimeUnit.MILLISECONDS);
+    }
+
+    // 保留上一个版本作为热备的内存预算，0表示不热备
+    private volatile long standbyBudgetInBytes = Long.getLong("pluginStandbyBudgetInBytes", 0);
+
+    // key: Plugin code, value: 上一个版本，按进入热备的先后排序
+    // 预算是全局的，因此对它的操作都需要锁住它
+    private final Map<String, Plugin> standbyPlugins = new LinkedHashMap<>();
+
+    // key: Plugin code, value: 与稳定版本并存的灰度版本
+    private final Map<String, Plugin> canaryPlugins = new ConcurrentHashMap<>();
+
+    // 同一个Plugin code的操作串行，不同code之间并行：耗时的prepare阶段(加载类，Spring refresh)互不阻塞
+    private final Map<String, Object> codeLocks = new ConcurrentHashMap<>();
+
+    // 批量加载的并发度
+    private static final int bulkLoadConcurrency = Integer.getInteger("pluginBulkLoadConcurrency", Runtime.getRuntime().availableProcessors());
 
     private Container() {
     }
@@ -69,8 +114,104 @@ public final class Container {
         return activePlugins;
     }
 
+    /**
+     * 获取所有尚未被GC回收的{@code Plugin}类加载器：活跃的，热备的，灰度的，以及已销毁但尚未回收的.
+     */
+    @NonNull
+    public List<PluginClassLoaderStats> getPluginClassLoaderStats() {
+        return leakDetector.stats();
+    }
+
+    /**
+     * 获取泄漏的{@code Plugin}类加载器：销毁后经历了多次老年代GC仍然可达.
+     * <p>
+     * <p>阈值通过系统属性{@code pluginLeakGcCycles}设置，默认3次. 后台也会定期检查并告警.</p>
+     */
+    @NonNull
+    public List<PluginClassLoaderStats> getLeakedPlugins() {
+        return leakDetector.check();
+    }
+
+    /**
+     * 是否共享插件依赖的三方库.
+     * <p>
+     * <p>插件包{@code lib/}目录下的jar包，坐标和SHA-256都相同的，只加载一次，被所有依赖它的插件共享.</p>
+     * <p>只影响之后加载的插件. 也可以通过系统属性{@code pluginSharedLibraries}设置，默认不共享：此时{@code lib/}被忽略，这些类由容器加载.</p>
+     */
+    public void setSharedLibrariesEnabled(boolean enabled) {
+        SharedLibraries.getInstance().setEnabled(enabled);
+    }
+
+    /**
+     * 获取当前共享的三方库.
+     *
+     * @return key: {groupId:artifactId:version}@{sha256}, value: 依赖它的插件数
+     */
+    @NonNull
+    public Map<String, Integer> getSharedLibraries() {
+        return SharedLibraries.getInstance().snapshot();
+    }
+
+    /**
+     * 获取当前所有热备的{@code Plugin}：每个Plugin code最多保留上一个版本.
+     *
+     * @return key: Plugin code
+     */
+    @NonNull
+    public Map<String, IPlugin> getStandbyPlugins() {
+        synchronized (standbyPlugins) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(standbyPlugins));
+        }
+    }
+
+    /**
+     * 设置热备的内存预算.
+     * <p>
+     * <p>新版本加载后，旧版本的Plugin在预算内则保持prepared状态(类加载器，Spring上下文，PartnerDef)，以便瞬间回滚；超出预算时最早进入热备的先被销毁.</p>
+     * <p>内存占用以jar包大小加上已加载类的metaspace估算，见{@link PluginClassLoaderStats}.</p>
+     *
+     * @param standbyBudgetInBytes 0表示不热备
+     */
+    public void setStandbyBudgetInBytes(long standbyBudgetInBytes) {
+        this.standbyBudgetInBytes = standbyBudgetInBytes;
+    }
+
+    /**
+     * 回滚到热备的上一个版本：只是重新commit，不加载类也不刷新Spring.
+     * <p>
+     * <p>被替换下来的当前版本成为新的热备，因此可以再次回滚(roll forward).</p>
+     *
+     * @param code {@link IPlugin#getCode()}
+     * @return the plugin rolled back to
+     * @throws IllegalStateException 该Plugin没有热备版本
+     * @throws Throwable
+     */
+    public IPlugin rollbackPartnerPlugin(@NonNull String code) throws Throwable {
+        synchronized (lockOf(code)) {
+            Plugin standby;
+            synchronized (standbyPlugins) {
+                standby = standbyPlugins.remove(code);
+            }
+            if (standby == null) {
+                throw new IllegalStateException("No warm standby of partner:" + code);
+            }
+
+            long t0 = System.nanoTime();
+            standby.recommit();
+            Plugin current = (Plugin) activePlugins.put(code, standby);
+            if (current != null) {
+                retire(current);
+            }
+
+            log.warn("Rolled back partner:{} to ver:{}, cost {}μs", code, standby.getVersion(), (System.nanoTime() - t0) / 1000);
+            return standby;
+        }
+    }
+
     /**
      * 加载业务前台jar包.
+     * <p>
+     * <p>jar包只被读取一次到堆内存，不落地为临时文件.</p>
      *
      * @param code      {@link IPlugin#getCode()}
      * @param version   version of the jar
@@ -78,19 +219,16 @@ public final class Container {
      * @param useSpring jar包里是否需要Spring机制
      * @throws Throwable
      */
-    public synchronized void loadPartnerPlugin(@NonNull String code, @NonNull String version, @NonNull URL jarUrl, boolean useSpring) throws Throwable {
-        File localJar = createLocalFile(jarUrl);
-        localJar.deleteOnExit();
-
-        log.info("loadPartnerPlugin {} -> {}", jarUrl, localJar.getCanonicalPath());
-        FileUtils.copyInputStreamToFile(jarUrl.openStream(), localJar);
-        loadPartnerPlugin(code, version, localJar.getAbsolutePath(), useSpring);
+    public void loadPartnerPlugin(@NonNull String code, @NonNull String version, @NonNull URL jarUrl, boolean useSpring) throws Throwable {
+        log.info("loadPartnerPlugin {}", jarUrl);
+        loadPartnerPlugin(code, version, jarUrl.toString(), () -> InMemoryJar.read(jarUrl), useSpring, new ContainerContext(containerApplicationContext));
     }
 
     /**
      * 加载业务前台jar包，支持定制IContainerContext的实现.
      * <p>
      * <p>如果使用本动态加载，就不要maven里静态引入业务前台jar包依赖了.</p>
+     * <p>jar包通过memory-mapped file读取.</p>
      *
      * @param code      {@link IPlugin#getCode()}
      * @param version   version of the jar
@@ -99,33 +237,200 @@ public final class Container {
      * @param containerContext container context instance
      * @throws Throwable
      */
-    public synchronized void loadPartnerPlugin(@NonNull String code, @NonNull String version, @NonNull String jarPath, boolean useSpring, IContainerContext containerContext) throws Throwable {
+    public void loadPartnerPlugin(@NonNull String code, @NonNull String version, @NonNull String jarPath, boolean useSpring, IContainerContext containerContext) throws Throwable {
         if (!jarPath.endsWith(".jar")) {
             throw new IllegalArgumentException("Invalid jarPath: " + jarPath);
         }
 
-        long t0 = System.nanoTime();
-        log.warn("Loading partner:{} useSpring:{}", jarPath, useSpring);
-        try {
+        loadPartnerPlugin(code, version, jarPath, () -> InMemoryJar.map(new File(jarPath)), useSpring, containerContext);
+    }
+
+    private void loadPartnerPlugin(String code, String version, String source, Callable<InMemoryJar> jarLoader, boolean useSpring, IContainerContext containerContext) throws Throwable {
+        synchronized (lockOf(code)) {
+            Plugin current = (Plugin) activePlugins.get(code);
+            if (current != null && current.isPattern()) {
+                throw new IllegalStateException(current + " is a pattern plugin");
+            }
+
             Plugin plugin = new Plugin(code, version, jdkClassLoader, containerClassLoader, containerApplicationContext);
-            plugin.load(jarPath, useSpring, Partner.class, containerContext);
+            // prepare并行，commit到InternalIndexer时串行
+            loadPlugin(plugin, source, jarLoader, Partner.class, useSpring, containerContext);
 
-            Plugin pluginToDestroy = (Plugin) activePlugins.get(code);
+            Plugin pluginToDestroy = (Plugin) activePlugins.put(plugin.getCode(), plugin); // old plugin will be GC'ed eventually: see getLeakedPlugins
             if (pluginToDestroy != null) {
-                log.warn("to destroy partner:{} ver:{}", code, plugin.getVersion());
-                pluginToDestroy.onDestroy();
+                retire(pluginToDestroy);
             }
+        }
+    }
 
-            activePlugins.put(plugin.getCode(), plugin); // old plugin will be GC'ed eventually
+    /**
+     * 加载Pattern jar包：Pattern + Extension，每个Pattern的扩展点的code必须是该Pattern的code.
+     * <p>
+     * <p>新加载的Pattern按优先级合并到运行时索引，整体替换：扩展点调用要么看到旧版本的全部Pattern，要么看到新版本的全部Pattern.</p>
+     * <p>同code的Pattern被新版本替换；上一个版本在途调用完成后销毁，不做热备.</p>
+     *
+     * @param code      {@link IPlugin#getCode()}
+     * @param version   version of the jar
+     * @param jarPath   jar path
+     * @param useSpring jar包里是否需要Spring机制
+     * @throws IllegalStateException 该code已经是一个Partner jar包
+     * @throws Throwable
+     */
+    public void loadPatternPlugin(@NonNull String code, @NonNull String version, @NonNull String jarPath, boolean useSpring) throws Throwable {
+        if (!jarPath.endsWith(".jar")) {
+            throw new IllegalArgumentException("Invalid jarPath: " + jarPath);
+        }
+
+        synchronized (lockOf(code)) {
+            Plugin previous = (Plugin) activePlugins.get(code);
+            if (previous != null && !previous.isPattern()) {
+                throw new IllegalStateException(previous + " is not a pattern plugin");
+            }
+
+            Plugin plugin = new Plugin(code, version, jdkClassLoader, containerClassLoader, containerApplicationContext).replacing(previous);
+            loadPlugin(plugin, jarPath, () -> InMemoryJar.map(new File(jarPath)), Pattern.class, useSpring, new ContainerContext(containerApplicationContext));
+
+            activePlugins.put(code, plugin);
+            if (previous != null) {
+                // 新版本已经committed，旧版本不会再有新的调用
+                destroyWhenDrained(previous, drainTimeoutInMs);
+            }
+        }
+    }
+
+    private Object lockOf(String code) {
+        return codeLocks.computeIfAbsent(code, k -> new Object());
+    }
+
+    private void loadPlugin(Plugin plugin, String source, Callable<InMemoryJar> jarLoader, Class<? extends Annotation> identityResolverAnnotation, boolean useSpring, IContainerContext containerContext) throws Throwable {
+        final String kind = identityResolverAnnotation.getSimpleName().toLowerCase();
+        long t0 = System.nanoTime();
+        log.warn("Loading {}:{} useSpring:{}", kind, source, useSpring);
+        try {
+            InMemoryJar jar = jarLoader.call(); // might throw FileNotFoundException
+            try {
+                plugin.load(jar, useSpring, identityResolverAnnotation, containerContext);
+            } finally {
+                leakDetector.track(plugin);
+            }
 
-            log.warn("Loaded partner:{}, cost {}ms", jarPath, (System.nanoTime() - t0) / 1000_000);
+            log.warn("Loaded {}:{}, cost {}ms", kind, source, (System.nanoTime() - t0) / 1000_000);
         } catch (Throwable ex) {
-            log.error("fails to load partner:{}, cost {}ms", jarPath, (System.nanoTime() - t0) / 1000_000, ex);
+            log.error("fails to load {}:{}, cost {}ms", kind, source, (System.nanoTime() - t0) / 1000_000, ex);
 
+            // 加载失败的Plugin被丢弃，它的类加载器也应该被回收
+            plugin.releaseLibraries();
+            leakDetector.destroyed(plugin, plugin.getPluginClassLoader());
             throw ex;
         }
     }
 
+    /**
+     * 获取当前所有灰度中的{@code Plugin}.
+     *
+     * @return key: Plugin code
+     */
+    @NonNull
+    public Map<String, IPlugin> getCanaryPlugins() {
+        return Collections.unmodifiableMap(new HashMap<>(canaryPlugins));
+    }
+
+    /**
+     * 灰度加载业务前台jar包的新版本：与当前的稳定版本并存，按权重分流.
+     * <p>
+     * <p>每个扩展点调用按版本记录调用次数，异常次数和延迟：{@code RuntimeMetrics}，key为{partnerCode}@{version}，据此决定全量还是放弃.</p>
+     * <p>已有的灰度版本会被替换并销毁.</p>
+     *
+     * @param code             {@link IPlugin#getCode()}，必须已经有稳定版本
+     * @param version          version of the jar
+     * @param jarPath          jar path
+     * @param useSpring        jar包里是否需要Spring机制
+     * @param weightPercent    流向灰度版本的百分比，[0, 100]
+     * @param stickyByIdentity true则按业务身份的hashCode分流，同一个业务身份总是路由到同一个版本；false则随机分流
+     * @throws IllegalStateException 该Plugin没有稳定版本
+     * @throws Throwable
+     */
+    public void loadCanaryPartnerPlugin(@NonNull String code, @NonNull String version, @NonNull String jarPath, boolean useSpring, int weightPercent, boolean stickyByIdentity) throws Throwable {
+        if (!jarPath.endsWith(".jar")) {
+            throw new IllegalArgumentException("Invalid jarPath: " + jarPath);
+        }
+        if (weightPercent < 0 || weightPercent > CanaryPartnerDef.MAX_WEIGHT) {
+            throw new IllegalArgumentException("canary weight must be in [0, 100]: " + weightPercent);
+        }
+
+        synchronized (lockOf(code)) {
+            if (!activePlugins.containsKey(code)) {
+                throw new IllegalStateException("No stable version of partner:" + code);
+            }
+
+            Plugin plugin = new Plugin(code, version, jdkClassLoader, containerClassLoader, containerApplicationContext).asCanary(weightPercent, stickyByIdentity);
+            loadPlugin(plugin, jarPath, () -> InMemoryJar.map(new File(jarPath)), Partner.class, useSpring, new ContainerContext(containerApplicationContext));
+
+            Plugin previousCanary = canaryPlugins.put(code, plugin);
+            if (previousCanary != null) {
+                log.warn("to destroy canary {}", previousCanary);
+                destroyWhenDrained(previousCanary, drainTimeoutInMs);
+            }
+        }
+    }
+
+    /**
+     * 调整灰度版本的流量权重.
+     *
+     * @param code          {@link IPlugin#getCode()}
+     * @param weightPercent 流向灰度版本的百分比，[0, 100]
+     * @throws IllegalStateException 该Plugin没有灰度版本
+     */
+    public void setCanaryWeight(@NonNull String code, int weightPercent) {
+        synchronized (lockOf(code)) {
+            InternalIndexer.setCanaryWeight(code, weightPercent);
+        }
+    }
+
+    /**
+     * 灰度版本全量：成为稳定版本，原稳定版本被替换下来，与普通的版本升级一样热备或销毁.
+     *
+     * @param code {@link IPlugin#getCode()}
+     * @return the promoted plugin
+     * @throws IllegalStateException 该Plugin没有灰度版本
+     */
+    public IPlugin promoteCanaryPlugin(@NonNull String code) {
+        synchronized (lockOf(code)) {
+            Plugin canary = canaryPlugins.remove(code);
+            if (canary == null) {
+                throw new IllegalStateException("No canary of partner:" + code);
+            }
+
+            InternalIndexer.promoteCanaryPartner(code);
+            Plugin stable = (Plugin) activePlugins.put(code, canary);
+            if (stable != null) {
+                retire(stable);
+            }
+
+            log.warn("Promoted canary {}", canary);
+            return canary;
+        }
+    }
+
+    /**
+     * 放弃灰度版本：所有流量回到稳定版本，灰度版本等待在途调用完成后销毁.
+     *
+     * @param code {@link IPlugin#getCode()}
+     * @throws IllegalStateException 该Plugin没有灰度版本
+     */
+    public void abortCanaryPlugin(@NonNull String code) {
+        synchronized (lockOf(code)) {
+            Plugin canary = canaryPlugins.remove(code);
+            if (canary == null) {
+                throw new IllegalStateException("No canary of partner:" + code);
+            }
+
+            InternalIndexer.abortCanaryPartner(code);
+            log.warn("Aborted canary {}", canary);
+            destroyWhenDrained(canary, drainTimeoutInMs);
+        }
+    }
+
         /**
          * 加载业务前台jar包，使用默认的IContainerContext实现.
          * <p>
@@ -137,14 +442,164 @@ public final class Container {
          * @param useSpring jar包里是否需要Spring机制
          * @throws Throwable
          */
-    public synchronized void loadPartnerPlugin(@NonNull String code, @NonNull String version, @NonNull String jarPath, boolean useSpring) throws Throwable {
+    public void loadPartnerPlugin(@NonNull String code, @NonNull String version, @NonNull String jarPath, boolean useSpring) throws Throwable {
         loadPartnerPlugin(code, version, jarPath, useSpring, new ContainerContext(containerApplicationContext));
     }
 
-    File createLocalFile(@NonNull URL jarUrl) throws IOException {
-        String prefix = new SimpleDateFormat("yyyyMMddHHmmssSSS").format(new Date());
-        String suffix = jarUrl.getPath().substring(jarUrl.getPath().lastIndexOf('/') + 1);
-        return File.createTempFile(prefix, "." + suffix);
+    /**
+     * 批量加载业务前台jar包：不同Partner并行加载，总耗时接近最慢的那个jar包.
+     * <p>
+     * <p>并发度通过系统属性{@code pluginBulkLoadConcurrency}设置，默认CPU核数.</p>
+     * <p>某个jar包加载失败不影响其他jar包：全部尝试后抛出第一个异常，其余异常作为suppressed.</p>
+     *
+     * @param jars      the partner jars
+     * @param useSpring jar包里是否需要Spring机制
+     * @throws Throwable
+     */
+    public void loadPartnerPlugins(@NonNull List<PartnerJar> jars, boolean useSpring) throws Throwable {
+        loadPartnerPlugins(jars, useSpring, bulkLoadConcurrency);
+    }
+
+    /**
+     * 以指定的并发度批量加载业务前台jar包：同一个code的jar包仍然串行加载.
+     *
+     * @param jars        the partner jars
+     * @param useSpring   jar包里是否需要Spring机制
+     * @param concurrency 最多同时加载几个jar包
+     * @throws Throwable
+     */
+    public void loadPartnerPlugins(@NonNull List<PartnerJar> jars, boolean useSpring, int concurrency) throws Throwable {
+        if (jars.isEmpty()) {
+            return;
+        }
+
+        long t0 = System.nanoTime();
+        final int poolSize = Math.max(1, Math.min(jars.size(), concurrency));
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread thread = new Thread(r, "PluginLoader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // 每个任务返回自己的异常，null表示成功
+            List<Future<Throwable>> futures = new ArrayList<>(jars.size());
+            for (PartnerJar jar : jars) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        loadPartnerPlugin(jar.getCode(), jar.getVersion(), jar.getJarPath(), useSpring);
+                        return null;
+                    } catch (Throwable ex) {
+                        return ex;
+                    }
+                }));
+            }
+
+            Throwable failure = null;
+            for (Future<Throwable> future : futures) {
+                Throwable ex = future.get();
+                if (ex == null) {
+                    continue;
+                }
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        log.warn("Loaded {} partners with concurrency {}, cost {}ms", jars.size(), poolSize, (System.nanoTime() - t0) / 1000_000);
+    }
+
+    // 被替换下来的版本：在预算内则热备，否则等待在途调用完成再销毁
+    void retire(Plugin plugin) {
+        synchronized (standbyPlugins) {
+            retireWithinBudget(plugin);
+        }
+    }
+
+    private void retireWithinBudget(Plugin plugin) {
+        Plugin previousStandby = standbyPlugins.remove(plugin.getCode());
+        if (previousStandby != null) {
+            log.warn("to destroy standby {}", previousStandby);
+            destroyWhenDrained(previousStandby, drainTimeoutInMs);
+        }
+
+        final long footprint = plugin.getFootprintInBytes();
+        if (footprint > standbyBudgetInBytes) {
+            // 新版本已经committed，旧版本不会再有新的调用
+            log.warn("to destroy partner:{} ver:{}", plugin.getCode(), plugin.getVersion());
+            destroyWhenDrained(plugin, drainTimeoutInMs);
+            return;
+        }
+
+        long used = 0;
+        for (Plugin standby : standbyPlugins.values()) {
+            used += standby.getFootprintInBytes();
+        }
+        for (Iterator<Plugin> it = standbyPlugins.values().iterator(); used + footprint > standbyBudgetInBytes && it.hasNext(); ) {
+            Plugin evicted = it.next();
+            it.remove();
+            used -= evicted.getFootprintInBytes();
+            log.warn("standby budget exceeded, to destroy {}", evicted);
+            destroyWhenDrained(evicted, drainTimeoutInMs);
+        }
+
+        standbyPlugins.put(plugin.getCode(), plugin);
+        log.warn("{} kept as warm standby, footprint {} bytes", plugin, footprint);
+    }
+
+    void destroyWhenDrained(Plugin plugin, long timeoutInMs) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+        drainScheduler.schedule(() -> destroyWhenDrained(plugin, deadline, timeoutInMs), Math.min(drainGraceInMs, timeoutInMs), TimeUnit.MILLISECONDS);
+    }
+
+    private void destroyWhenDrained(Plugin plugin, long deadline, long timeoutInMs) {
+        final long inFlight = plugin.inFlight();
+        if (inFlight > 0 && System.nanoTime() - deadline < 0) {
+            drainScheduler.schedule(() -> destroyWhenDrained(plugin, deadline, timeoutInMs), drainCheckIntervalInMs, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        if (inFlight > 0) {
+            log.error("{} still has {} in-flight calls after {}ms, destroy anyway", plugin, inFlight, timeoutInMs);
+        }
+
+        try {
+            final ClassLoader pluginClassLoader = plugin.getPluginClassLoader();
+            plugin.onDestroy();
+            leakDetector.destroyed(plugin, pluginClassLoader);
+            log.warn("{} destroyed", plugin);
+        } catch (Throwable ex) {
+            log.error("fails to destroy {}", plugin, ex);
+        }
+    }
+
+    /**
+     * 待批量加载的业务前台jar包.
+     */
+    @Getter
+    @ToString
+    public static final class PartnerJar {
+        private final String code;
+        private final String version;
+        private final String jarPath;
+
+        /**
+         * @param code    {@link IPlugin#getCode()}
+         * @param version version of the jar
+         * @param jarPath jar path
+         */
+        public PartnerJar(@NonNull String code, @NonNull String version, @NonNull String jarPath) {
+            this.code = code;
+            this.version = version;
+            this.jarPath = jarPath;
+        }
     }
 
     private static ClassLoader initJDKClassLoader() {
@@ -1,73 +0,0 @@
-/*
- * Copyright DDDplus Authors.
- *
- * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
- */
-package io.github.dddplus.runtime.registry;
-
-import java.io.*;
-
-// copied from apache commons-io
-final class FileUtils {
-
-    static void copyInputStreamToFile(InputStream source, File destination) throws IOException {
-        try {
-            FileOutputStream output = openOutputStream(destination);
-            try {
-                copy(source, output);
-                output.close(); // don't swallow close Exception if copy completes normally
-            } finally {
-                closeQuietly(output);
-            }
-        } finally {
-            closeQuietly(source);
-        }
-    }
-
-    private static FileOutputStream openOutputStream(File file) throws IOException {
-        if (file.exists()) {
-            if (file.isDirectory()) {
-                throw new IOException("File '" + file + "' exists but is a directory");
-            }
-            if (file.canWrite() == false) {
-                throw new IOException("File '" + file + "' cannot be written to");
-            }
-        } else {
-            File parent = file.getParentFile();
-            if (parent != null) {
-                if (!parent.mkdirs() && !parent.isDirectory()) {
-                    throw new IOException("Directory '" + parent + "' could not be created");
-                }
-            }
-        }
-        return new FileOutputStream(file, false);
-    }
-
-    private static int copy(InputStream input, OutputStream output) throws IOException {
-        long count = copyLarge(input, output, new byte[104 * 4]);
-        if (count > Integer.MAX_VALUE) {
-            return -1;
-        }
-        return (int) count;
-    }
-
-    private static long copyLarge(InputStream input, OutputStream output, byte[] buffer)
-            throws IOException {
-        long count = 0;
-        int n;
-        while (-1 != (n = input.read(buffer))) {
-            output.write(buffer, 0, n);
-            count += n;
-        }
-        return count;
-    }
-
-    private static void closeQuietly(Closeable closeable) {
-        try {
-            if (closeable != null) {
-                closeable.close();
-            }
-        } catch (IOException ignored) {
-        }
-    }
-}
@@ -0,0 +1,289 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import lombok.Getter;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 内存里的Plugin Jar：整个jar包只读取一次，到堆内存或memory-mapped file.
+ * <p>
+ * <p>zip目录只解析一次，entry按需解压；类和资源直接从内存里提供，没有临时文件，也不必反复打开{@code JarFile}.</p>
+ * <p>资源通过{@link #PROTOCOL}协议的URL访问. 不支持zip64和加密的jar包.</p>
+ */
+final class InMemoryJar {
+    static final String PROTOCOL = "dddplus-jar";
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /**
+     * jar包来源，e,g. URL or file path
+     */
+    @Getter
+    private final String name;
+
+    // 只读，每次读取都duplicate：多个线程并发加载类
+    private final ByteBuffer buffer;
+
+    // key: entry name, 保持jar包里的顺序
+    private final Map<String, Entry> entries;
+
+    private final URLStreamHandler handler = new Handler();
+
+    private InMemoryJar(String name, ByteBuffer buffer) throws IOException {
+        this.name = name;
+        this.buffer = buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = Collections.unmodifiableMap(readCentralDirectory(this.buffer));
+    }
+
+    /**
+     * 基于堆内存.
+     */
+    static InMemoryJar of(String name, byte[] bytes) throws IOException {
+        return new InMemoryJar(name, ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 从URL读取到堆内存.
+     */
+    static InMemoryJar read(URL url) throws IOException {
+        try (InputStream in = url.openStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 << 10);
+            byte[] chunk = new byte[8 << 10];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                out.write(chunk, 0, n);
+            }
+            return of(url.toString(), out.toByteArray());
+        }
+    }
+
+    /**
+     * 基于memory-mapped file：由OS page cache提供内容.
+     *
+     * @throws FileNotFoundException 文件不存在
+     */
+    static InMemoryJar map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            // 关闭channel后mapping仍然有效
+            return new InMemoryJar(file.getPath(), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * jar包的字节数.
+     */
+    int size() {
+        return buffer.capacity();
+    }
+
+    /**
+     * 所有entry名称，按jar包里的顺序.
+     */
+    Set<String> entryNames() {
+        return entries.keySet();
+    }
+
+    boolean contains(String entryName) {
+        return entries.containsKey(entryName);
+    }
+
+    /**
+     * 读取并解压某个entry.
+     *
+     * @return null if not found
+     */
+    byte[] read(String entryName) throws IOException {
+        Entry entry = entries.get(entryName);
+        if (entry == null) {
+            return null;
+        }
+
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (data.getInt(entry.localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("invalid local header of " + entryName + " in " + name);
+        }
+        // 本地头里的name/extra长度可能与中央目录的不同
+        int dataOffset = entry.localHeaderOffset + 30 + (data.getShort(entry.localHeaderOffset + 26) & 0xFFFF) + (data.getShort(entry.localHeaderOffset + 28) & 0xFFFF);
+        byte[] compressed = new byte[entry.compressedSize];
+        data.position(dataOffset);
+        data.get(compressed);
+
+        if (entry.method == STORED) {
+            return compressed;
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] result = new byte[entry.size];
+            int n = 0;
+            while (n < result.length && !inflater.finished()) {
+                int inflated = inflater.inflate(result, n, result.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != result.length) {
+                throw new IOException("truncated entry " + entryName + " in " + name);
+            }
+            return result;
+        } catch (DataFormatException ex) {
+            throw new IOException("corrupted entry " + entryName + " in " + name, ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 某个entry的URL，可以通过{@link URL#openStream()}读取.
+     *
+     * @return null if not found
+     */
+    URL url(String entryName) {
+        if (!entries.containsKey(entryName)) {
+            return null;
+        }
+
+        try {
+            return new URL(PROTOCOL, null, -1, "/" + name + "!/" + entryName, handler);
+        } catch (MalformedURLException shouldNeverHappen) {
+            throw new IllegalStateException(shouldNeverHappen);
+        }
+    }
+
+    private static Map<String, Entry> readCentralDirectory(ByteBuffer buffer) throws IOException {
+        final int eocd = findEndOfCentralDirectory(buffer);
+        final int totalEntries = buffer.getShort(eocd + 10) & 0xFFFF;
+        final long centralDirectoryOffset = buffer.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (totalEntries == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL) {
+            throw new IOException("zip64 not supported");
+        }
+
+        Map<String, Entry> result = new LinkedHashMap<>(totalEntries * 4 / 3 + 1);
+        int offset = (int) centralDirectoryOffset;
+        for (int i = 0; i < totalEntries; i++) {
+            if (offset + 46 > buffer.limit() || buffer.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("invalid central directory");
+            }
+
+            final int flags = buffer.getShort(offset + 8) & 0xFFFF;
+            final int method = buffer.getShort(offset + 10) & 0xFFFF;
+            final long compressedSize = buffer.getInt(offset + 20) & 0xFFFFFFFFL;
+            final long size = buffer.getInt(offset + 24) & 0xFFFFFFFFL;
+            final int nameLength = buffer.getShort(offset + 28) & 0xFFFF;
+            final int extraLength = buffer.getShort(offset + 30) & 0xFFFF;
+            final int commentLength = buffer.getShort(offset + 32) & 0xFFFF;
+            final long localHeaderOffset = buffer.getInt(offset + 42) & 0xFFFFFFFFL;
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = buffer.duplicate();
+            nameBuffer.position(offset + 46);
+            nameBuffer.get(nameBytes);
+            String entryName = new String(nameBytes, StandardCharsets.UTF_8);
+
+            if ((flags & 1) != 0) {
+                throw new IOException("encrypted entry not supported: " + entryName);
+            }
+            if (method != STORED && method != DEFLATED) {
+                throw new IOException("unsupported compression method " + method + ": " + entryName);
+            }
+            if (compressedSize >= Integer.MAX_VALUE || size >= Integer.MAX_VALUE || localHeaderOffset >= buffer.limit()) {
+                throw new IOException("zip64 not supported");
+            }
+
+            if (!entryName.endsWith("/")) {
+                // 目录不需要
+                result.put(entryName, new Entry(method, (int) compressedSize, (int) size, (int) localHeaderOffset));
+            }
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+
+        return result;
+    }
+
+    // 从尾部往前找：最后可能有注释
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) throws IOException {
+        final int last = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        final int first = Math.max(0, last - MAX_COMMENT_SIZE);
+        for (int offset = last; offset >= first; offset--) {
+            if (buffer.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return offset;
+            }
+        }
+
+        throw new IOException("not a jar file");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static final class Entry {
+        final int method;
+        final int compressedSize;
+        final int size;
+        final int localHeaderOffset;
+
+        Entry(int method, int compressedSize, int size, int localHeaderOffset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    // dddplus-jar:/{name}!/{entryName}
+    private final class Handler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL url) {
+            final String file = url.getFile();
+            final String entryName = file.substring(file.lastIndexOf("!/") + 2);
+            return new URLConnection(url) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    byte[] bytes = read(entryName);
+                    if (bytes == null) {
+                        throw new FileNotFoundException(url.toString());
+                    }
+                    return new ByteArrayInputStream(bytes);
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    Entry entry = entries.get(entryName);
+                    return entry == null ? -1 : entry.size;
+                }
+            };
+        }
+    }
+}
@@ -5,121 +5,143 @@
  */
 package io.github.dddplus.runtime.registry;
 
+import io.github.dddplus.annotation.Extension;
+import io.github.dddplus.annotation.Partner;
+import io.github.dddplus.annotation.Pattern;
+import io.github.dddplus.plugin.IPluginListener;
+import io.github.dddplus.plugin.PluginIndex;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.annotation.Inherited;
 import java.util.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 @Slf4j
 final class JarUtils {
 
     private JarUtils() {}
 
-    static Map<Class<? extends Annotation>, List<Class>> loadClassWithAnnotations(
-            String path, List<Class<? extends Annotation>> annotations, String startWith, ClassLoader classLoader) throws Throwable {
-        Map<Class<? extends Annotation>, List<Class>> result = new HashMap<>();
-        List<String> filteredClassNames = filter(getAllClasses(path), startWith);
-        for (String className : filteredClassNames) {
-            log.debug("loading {} with {}", className, classLoader);
-            // 把.class文件中的二进制数据读入堆里的Class对象
-            Class clazz = classLoader.loadClass(className);
-            // 先load class才能获取其注解
-            for (Class<? extends Annotation> annotation : annotations) {
-                Annotation clazzAnnotation = clazz.getAnnotation(annotation);
-                if (clazzAnnotation == null) {
-                    // 该Class没有该注解
-                    continue;
-                }
-
-                log.debug("{} has class of {}", annotation, className);
-                List<Class> annotationClassList = result.get(annotation);
-                if (annotationClassList == null) {
-                    annotationClassList = new ArrayList<>();
-                    result.put(annotation, annotationClassList);
-                }
-
-                annotationClassList.add(clazz);
-            }
-        }
-
-        return result;
-    }
-
-    static <T> T loadBeanWithType(ClassLoader classLoader, String path, Class<T> beanType) throws Throwable {
-        JarFile jar = new JarFile(new File(path));
-        Enumeration entries = jar.entries();
-        while (entries.hasMoreElements()) {
-            JarEntry entry = (JarEntry) entries.nextElement();
-            String className = getClassName(entry);
-            if (className == null || className.isEmpty()) {
+    /**
+     * 一次遍历jar包，从字节码里解析出所有类的{@link ClassFileHeader}，不加载任何类.
+     *
+     * @return key: class name, 按jar entry顺序
+     */
+    static Map<String, ClassFileHeader> scanClasses(InMemoryJar jar) throws IOException {
+        Map<String, ClassFileHeader> result = new LinkedHashMap<>();
+        for (String entryName : jar.entryNames()) {
+            if (!isClassEntry(entryName)) {
                 // not a class. e,g. META-INF
                 continue;
             }
 
-            Class clazz = classLoader.loadClass(className);
-            if (!beanType.isAssignableFrom(clazz)) {
-                continue;
+            ClassFileHeader header;
+            try {
+                header = ClassFileHeader.parse(jar.read(entryName));
+            } catch (IOException ex) {
+                throw new IOException("invalid class file " + entryName + " in " + jar, ex);
             }
-
-            // 自己创建实例，而不通过Spring BeanFactory创建
-            return (T) clazz.newInstance();
+            result.put(header.getClassName(), header);
         }
 
-        // not found
-        return null;
+        log.debug("scanned {} classes in {}", result.size(), jar);
+        return result;
     }
 
-    private static String getClassName(JarEntry jarEntry) {
-        String jarName = jarEntry.getName();
-        if (!jarName.endsWith(".class")) {
+    /**
+     * 读取构建时生成的插件包索引.
+     *
+     * @return null if the jar has no {@link PluginIndex#LOCATION}
+     */
+    static PluginIndex readPluginIndex(InMemoryJar jar) throws IOException {
+        byte[] bytes = jar.read(PluginIndex.LOCATION);
+        if (bytes == null) {
             return null;
-        } else {
-            if (jarName.charAt(0) == 47) {
-                jarName = jarName.substring(1);
-            }
+        }
+
+        return PluginIndex.read(new ByteArrayInputStream(bytes));
+    }
 
-            jarName = jarName.replace("/", ".");
-            return jarName.substring(0, jarName.length() - 6);
+    /**
+     * 没有构建时索引的插件包，通过字节码扫描生成索引：只加载jar包外的父类/接口.
+     * <p>
+     * <p>与{@link Class#getAnnotation(Class)}语义一致：{@link Inherited}注解会沿着父类查找.</p>
+     */
+    static PluginIndex scanPluginIndex(InMemoryJar jar, ClassLoader classLoader) throws Throwable {
+        Map<String, ClassFileHeader> classes = scanClasses(jar);
+        PluginIndex index = new PluginIndex();
+        for (ClassFileHeader header : classes.values()) {
+            if (hasAnnotation(classes, header, Partner.class, classLoader)) {
+                index.addPartner(header.getClassName());
+            }
+            if (hasAnnotation(classes, header, Pattern.class, classLoader)) {
+                index.addPattern(header.getClassName());
+            }
+            if (hasAnnotation(classes, header, Extension.class, classLoader)) {
+                index.addExtension(header.getClassName());
+            }
+            if (!header.isInterface() && !header.isAbstract()
+                    && isSubtypeOf(classes, header.getClassName(), IPluginListener.class, classLoader, new HashSet<>())) {
+                index.addListener(header.getClassName());
+            }
         }
+
+        return index;
     }
 
-    private static List<String> getAllClasses(String path) throws IOException {
-        ArrayList classNames = new ArrayList();
-        JarFile jar = new JarFile(new File(path)); // might throw FileNotFoundException
+    private static boolean hasAnnotation(Map<String, ClassFileHeader> classes, ClassFileHeader header, Class<? extends Annotation> annotation, ClassLoader classLoader) throws ClassNotFoundException {
+        final boolean inherited = annotation.isAnnotationPresent(Inherited.class);
+        for (ClassFileHeader current = header; ; ) {
+            if (current.getAnnotationNames().contains(annotation.getName())) {
+                return true;
+            }
 
-        Enumeration entries = jar.entries();
-        while (entries.hasMoreElements()) {
-            JarEntry entry = (JarEntry) entries.nextElement();
-            String className = getClassName(entry);
-            if (className != null && className.length() > 0) {
-                classNames.add(className);
+            String superClassName = current.getSuperClassName();
+            if (!inherited || superClassName == null || isJdkClass(superClassName)) {
+                return false;
             }
-        }
 
-        return classNames;
+            current = classes.get(superClassName);
+            if (current == null) {
+                // 父类不在jar包里，e,g. 容器里的类：它们已经被加载了
+                return classLoader.loadClass(superClassName).isAnnotationPresent(annotation);
+            }
+        }
     }
 
-    private static List<String> filter(List<String> names, String startWith) {
-        if (startWith == null || startWith.isEmpty()) {
-            return names;
+    private static boolean isSubtypeOf(Map<String, ClassFileHeader> classes, String className, Class<?> type, ClassLoader classLoader, Set<String> visited) throws ClassNotFoundException {
+        if (type.getName().equals(className)) {
+            return true;
+        }
+        if (isJdkClass(className) || !visited.add(className)) {
+            return false;
         }
 
-        List<String> result = new ArrayList(names.size());
-        for (String name : names) {
-            if (name == null) {
-                continue;
-            }
+        ClassFileHeader header = classes.get(className);
+        if (header == null) {
+            // 不在jar包里
+            return type.isAssignableFrom(classLoader.loadClass(className));
+        }
 
-            if (name.startsWith(startWith)) {
-                result.add(name);
+        if (header.getSuperClassName() != null && isSubtypeOf(classes, header.getSuperClassName(), type, classLoader, visited)) {
+            return true;
+        }
+        for (String interfaceName : header.getInterfaceNames()) {
+            if (isSubtypeOf(classes, interfaceName, type, classLoader, visited)) {
+                return true;
             }
         }
 
-        return result;
+        return false;
+    }
+
+    private static boolean isJdkClass(String className) {
+        return className.startsWith("java.") || className.startsWith("javax.");
+    }
+
+    private static boolean isClassEntry(String entryName) {
+        return entryName.endsWith(".class") && !entryName.startsWith("META-INF/") && !entryName.endsWith("module-info.class");
     }
 
 }
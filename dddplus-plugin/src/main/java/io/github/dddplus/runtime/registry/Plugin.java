@@ -7,19 +7,18 @@ package io.github.dddplus.runtime.registry;
 
 import io.github.dddplus.annotation.Extension;
 import io.github.dddplus.annotation.Partner;
+import io.github.dddplus.annotation.Pattern;
 import io.github.dddplus.plugin.IContainerContext;
 import io.github.dddplus.plugin.IPlugin;
 import io.github.dddplus.plugin.IPluginListener;
+import io.github.dddplus.plugin.PluginIndex;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationContext;
 
-import java.io.File;
 import java.lang.annotation.Annotation;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A Plugin is a dynamic loadable Jar that has a dedicated class loader.
@@ -53,6 +52,31 @@ class Plugin implements IPlugin {
     // each Plugin will have a specific Spring IoC with the same parent: the Container
     private PluginApplicationContext pluginApplicationContext;
 
+    // committed partner, whose extensions' in-flight calls are tracked
+    private PartnerDef partnerDef;
+
+    // committed patterns of a Pattern Jar, whose extensions' in-flight calls are tracked
+    private List<PatternDef> patternDefs = Collections.emptyList();
+    // 被本Plugin替换的旧版本Pattern：commit时从索引里移除
+    private List<PatternDef> retiredPatternDefs = Collections.emptyList();
+
+    // 热备时的内存占用估算：jar包大小，加上已加载类的metaspace
+    private long jarBytes;
+    private PluginClassLoader.Footprint classFootprint;
+
+    private IPluginListener pluginListener;
+    private IContainerContext ctx;
+
+    // 依赖的三方库，销毁时释放
+    private List<SharedLibraries.Library> libraries = Collections.emptyList();
+
+    // 灰度版本：与稳定版本并存，按权重分流；否则替换稳定版本
+    private boolean canary;
+    private int canaryWeight;
+    private boolean canarySticky;
+
+    private final AtomicBoolean destroyed = new AtomicBoolean(false);
+
     Plugin(String code, String version, ClassLoader jdkClassLoader, ClassLoader containerClassLoader, ApplicationContext containerApplicationContext) {
         this.code = code;
         this.version = version;
@@ -66,45 +90,171 @@ class Plugin implements IPlugin {
         this.configLocations = new String[]{"/plugin-" + code + ".xml"};
     }
 
-    void load(String jarPath, boolean useSpring, Class<? extends Annotation> identityResolverAnnotation, IContainerContext ctx) throws Throwable {
+    void load(InMemoryJar jar, boolean useSpring, Class<? extends Annotation> identityResolverAnnotation, IContainerContext ctx) throws Throwable {
         this.useSpring = useSpring;
+        this.jarBytes = jar.size();
+        this.ctx = ctx;
 
         // each Plugin Jar has a specific PluginClassLoader
-        pluginClassLoader = new PluginClassLoader(new URL[]{new File(jarPath).toURI().toURL()}, jdkClassLoader, containerClassLoader);
+        // 类和资源都直接从内存里的jar包读取
+        PluginClassLoader classLoader = new PluginClassLoader(jar, jdkClassLoader, containerClassLoader);
+        // 插件包lib/下的三方库：相同的库可能已经被其他插件加载过
+        libraries = SharedLibraries.getInstance().acquire(jar, jdkClassLoader, containerClassLoader);
+        List<PluginClassLoader> libraryClassLoaders = new ArrayList<>(libraries.size());
+        for (SharedLibraries.Library library : libraries) {
+            libraryClassLoaders.add(library.classLoader);
+        }
+        classLoader.setLibraries(libraryClassLoaders);
+        pluginClassLoader = classLoader;
+        classFootprint = classLoader.getFootprint();
+
+        // 优先使用构建时生成的索引，这样加载耗时与jar包大小无关
+        PluginIndex index = JarUtils.readPluginIndex(jar);
+        if (index == null) {
+            // 一次遍历jar包，从字节码里识别出需要的类
+            index = JarUtils.scanPluginIndex(jar, pluginClassLoader);
+        }
+        log.info("Plugin index {}", index);
 
         // Spring load classes in jar
-        Map<Class<? extends Annotation>, List<Class>> plugableMap = prepareClasses(jarPath, identityResolverAnnotation);
+        Map<Class<? extends Annotation>, List<Class>> plugableMap = prepareClasses(index, identityResolverAnnotation);
         log.info("Classes prepared, plugableMap {}", plugableMap);
 
         // IPluginListener 不通过Spring加载，而是手工加载、创建实例
-        // 如果一个jar里有多个 IPluginListener 实现，只会返回第一个实例
-        IPluginListener pluginListener = JarUtils.loadBeanWithType(pluginClassLoader, jarPath, IPluginListener.class);
+        // 如果一个jar里有多个 IPluginListener 实现，只会使用第一个
+        if (index.getListener() != null) {
+            pluginListener = (IPluginListener) pluginClassLoader.loadClass(index.getListener()).newInstance();
+        }
         if (pluginListener != null) {
             pluginListener.onPrepared(ctx);
         }
 
-        // 现在，新jar里的类已经被新的ClassLoader加载到内存了，也实例化了，但旧jar里的类仍然在工作
-        preparePlugins(identityResolverAnnotation, plugableMap);
-        log.info("Plugins index prepared for {}", identityResolverAnnotation.getSimpleName());
+        try {
+            // 现在，新jar里的类已经被新的ClassLoader加载到内存了，也实例化了，但旧jar里的类仍然在工作
+            preparePlugins(identityResolverAnnotation, plugableMap);
+            log.info("Plugins index prepared for {}", identityResolverAnnotation.getSimpleName());
 
-        // 内存里插件相关索引已准备好，现在切换
-        commit(identityResolverAnnotation);
-        log.info("Committed: {}", identityResolverAnnotation.getSimpleName());
+            // 内存里插件相关索引已准备好，现在切换
+            commit(identityResolverAnnotation);
+            log.info("Committed: {}", identityResolverAnnotation.getSimpleName());
+        } finally {
+            // prepare失败时也不能留在线程上：会拖住插件的类加载器
+            InternalIndexer.clearPrepared();
+        }
 
         if (pluginListener != null) {
             pluginListener.onCommitted(ctx);
         }
     }
 
+    /**
+     * 作为灰度版本加载：commit时不替换稳定版本.
+     *
+     * @param weight 流向灰度版本的百分比
+     * @param sticky 是否按业务身份的hashCode分流
+     */
+    Plugin asCanary(int weight, boolean sticky) {
+        this.canary = true;
+        this.canaryWeight = weight;
+        this.canarySticky = sticky;
+        return this;
+    }
+
+    /**
+     * 作为Pattern Jar加载时，替换的是哪个旧版本.
+     *
+     * @param previous 旧版本，null if none
+     */
+    Plugin replacing(Plugin previous) {
+        if (previous != null) {
+            this.retiredPatternDefs = previous.patternDefs;
+        }
+        return this;
+    }
+
+    /**
+     * 是否Pattern Jar：Partner Jar和Pattern Jar的生命周期管理不同.
+     */
+    boolean isPattern() {
+        return !patternDefs.isEmpty();
+    }
+
+    /**
+     * 重新commit已经prepared的Partner：热备版本回滚时使用，不必重新加载类和刷新Spring.
+     */
+    void recommit() throws Exception {
+        if (destroyed.get()) {
+            throw new IllegalStateException(this + " already destroyed");
+        }
+        if (partnerDef == null) {
+            throw new IllegalStateException(this + " has no committed partner");
+        }
+
+        InternalIndexer.commitPartner(partnerDef);
+        log.info("Recommitted: {}", this);
+
+        if (pluginListener != null) {
+            pluginListener.onCommitted(ctx);
+        }
+    }
+
+    /**
+     * 热备时的内存占用估算：内存里的jar包，加上插件类加载器已加载类的metaspace.
+     * <p>
+     * <p>依赖的三方库可能被多个插件共享，不计入.</p>
+     */
+    public long getFootprintInBytes() {
+        return jarBytes + (classFootprint == null ? 0 : classFootprint.estimatedMetaspaceInBytes());
+    }
+
+    /**
+     * 该Plugin里扩展点的在途调用数.
+     */
+    long inFlight() {
+        long result = partnerDef == null ? 0 : partnerDef.getInFlight().sum();
+        for (PatternDef patternDef : patternDefs) {
+            result += patternDef.getInFlight().sum();
+        }
+        return result;
+    }
+
     void onDestroy() {
+        if (!destroyed.compareAndSet(false, true)) {
+            return;
+        }
+
         // 把该Plugin下的所有类的所有引用处理干净，这样才能GC介入
         if (useSpring) {
             pluginApplicationContext.close();
         }
+        // 即使该Plugin对象仍被引用，也不会拖住类加载器
+        pluginApplicationContext = null;
+        pluginListener = null;
+        partnerDef = null;
+        patternDefs = Collections.emptyList();
+        retiredPatternDefs = Collections.emptyList();
+        pluginClassLoader = null;
+
+        releaseLibraries();
+    }
+
+    /**
+     * 释放依赖的三方库：销毁或者加载失败时.
+     */
+    void releaseLibraries() {
+        SharedLibraries.getInstance().release(libraries);
+        libraries = Collections.emptyList();
+    }
+
+    /**
+     * @return null if not loaded yet or destroyed
+     */
+    ClassLoader getPluginClassLoader() {
+        return pluginClassLoader;
     }
 
     // Spring load all relevant classes in the jar using the new PluginClassLoader
-    private Map<Class<? extends Annotation>, List<Class>> prepareClasses(String jarPath, Class<? extends Annotation> identityResolverAnnotation) throws Throwable {
+    private Map<Class<? extends Annotation>, List<Class>> prepareClasses(PluginIndex index, Class<? extends Annotation> identityResolverAnnotation) throws Throwable {
         if (useSpring) {
             log.debug("Spring loading Plugin with {}, {}, {} ...", jdkClassLoader, containerClassLoader, pluginClassLoader);
             long t0 = System.nanoTime();
@@ -115,11 +265,20 @@ class Plugin implements IPlugin {
             log.info("Spring {} loaded, cost {}ms", configLocations, (System.nanoTime() - t0) / 1000_000);
         }
 
-        // 从Plugin Jar里把 IPlugable 挑出来，以便更新注册表
-        List<Class<? extends Annotation>> annotations = new ArrayList<>(2);
-        annotations.add(identityResolverAnnotation);
-        annotations.add(Extension.class);
-        return JarUtils.loadClassWithAnnotations(jarPath, annotations, null, pluginClassLoader);
+        // 从Plugin Jar里把 IPlugable 挑出来，以便更新注册表：只加载索引里的类
+        Map<Class<? extends Annotation>, List<Class>> result = new HashMap<>();
+        result.put(identityResolverAnnotation, loadClasses(identityResolverAnnotation == Partner.class ? index.getPartners() : index.getPatterns()));
+        result.put(Extension.class, loadClasses(index.getExtensions()));
+        return result;
+    }
+
+    private List<Class> loadClasses(Collection<String> classNames) throws ClassNotFoundException {
+        List<Class> classes = new ArrayList<>(classNames.size());
+        for (String className : classNames) {
+            // 把.class文件中的二进制数据读入堆里的Class对象
+            classes.add(pluginClassLoader.loadClass(className));
+        }
+        return classes;
     }
 
     private void preparePlugins(Class<? extends Annotation> identityResolverAnnotation, Map<Class<? extends Annotation>, List<Class>> plugableMap) throws IllegalAccessException, InstantiationException {
@@ -161,7 +320,21 @@ class Plugin implements IPlugin {
 
     private void commit(Class<? extends Annotation> identityResolverAnnotation) {
         if (identityResolverAnnotation == Partner.class) {
-            InternalIndexer.commitPartner();
+            partnerDef = InternalIndexer.partnerDefPrepared.get();
+            // 按版本统计扩展点指标，灰度时对比新旧版本
+            partnerDef.setVersion(version);
+            if (canary) {
+                InternalIndexer.commitCanaryPartner(canaryWeight, canarySticky);
+            } else {
+                InternalIndexer.commitPartner();
+            }
+        } else if (identityResolverAnnotation == Pattern.class) {
+            for (PatternDef patternDef : InternalIndexer.patternDefsPrepared.get().values()) {
+                patternDef.setVersion(version);
+            }
+            // 一次性替换按优先级排序的Pattern索引：旧版本连同其扩展点一起退出
+            patternDefs = InternalIndexer.commitPatterns(retiredPatternDefs);
+            retiredPatternDefs = Collections.emptyList();
         }
     }
 
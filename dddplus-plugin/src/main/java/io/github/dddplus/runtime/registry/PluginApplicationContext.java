@@ -8,10 +8,20 @@ package io.github.dddplus.runtime.registry;
 import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 // 每个Plugin特有的Spring application context，使用Plugin特有的class loader
 class PluginApplicationContext extends ClassPathXmlApplicationContext {
     private final ClassLoader pluginClassLoader;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
 
     PluginApplicationContext(String[] configLocations, ApplicationContext parent, ClassLoader pluginClassLoader) {
         super(configLocations, false, parent); // will not refresh
@@ -24,4 +34,27 @@ class PluginApplicationContext extends ClassPathXmlApplicationContext {
         reader.setBeanClassLoader(pluginClassLoader);
         setClassLoader(pluginClassLoader); // so that it can find the pluginXml within the jar
     }
+
+    @Override
+    public Resource[] getResources(String locationPattern) throws IOException {
+        Resource[] resources = super.getResources(locationPattern);
+        InMemoryJar jar = pluginClassLoader instanceof PluginClassLoader ? ((PluginClassLoader) pluginClassLoader).getJar() : null;
+        if (jar == null || !locationPattern.startsWith(CLASSPATH_ALL_URL_PREFIX)) {
+            return resources;
+        }
+
+        // 内存里的jar包不在文件系统上，Spring无法遍历其目录, e,g. component-scan：由我们自己匹配
+        String pattern = locationPattern.substring(CLASSPATH_ALL_URL_PREFIX.length());
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+
+        Set<Resource> result = new LinkedHashSet<>(Arrays.asList(resources));
+        for (String entryName : jar.entryNames()) {
+            if (pathMatcher.match(pattern, entryName)) {
+                result.add(new UrlResource(jar.url(entryName)));
+            }
+        }
+        return result.toArray(new Resource[0]);
+    }
 }
@@ -5,10 +5,20 @@
  */
 package io.github.dddplus.runtime.registry;
 
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 /**
  * Plugin类加载器.
@@ -31,9 +41,41 @@ import java.net.URLClassLoader;
 final class PluginClassLoader extends URLClassLoader {
     private static final String dddPackage = "io.github.dddplus";
 
+    // 插件包里也可能有这些包下的类，但JDK的优先
+    private static final String[] jdkPackages = {"java.", "javax.", "jdk.", "sun.", "com.sun.", "org.w3c.", "org.xml.", "org.ietf.", "org.omg."};
+
+    // 负缓存的上限，防止被动态生成的类名撑爆
+    static final int MAX_NEGATIVE_CACHE_SIZE = 10_000;
+
+    static {
+        // 按类名加锁而不是锁住整个类加载器：插件预热时并行加载
+        ClassLoader.registerAsParallelCapable();
+    }
+
     private final ClassLoader jdkClassLoader;
     private final ClassLoader containerClassLoader;
 
+    // 内存里的jar包，null表示从URLs加载
+    @Getter(AccessLevel.PACKAGE)
+    private final InMemoryJar jar;
+
+    // 插件包里的所有包名；null表示classpath里有目录，无法建立索引
+    private volatile Set<String> localPackages = ConcurrentHashMap.newKeySet();
+
+    // JDK加载不了的类：避免每次都抛出再吃掉ClassNotFoundException
+    private final Set<String> jdkMisses = ConcurrentHashMap.newKeySet();
+    // 谁都加载不了的类, e,g. Spring探测可选依赖
+    private final Set<String> misses = ConcurrentHashMap.newKeySet();
+    // 容器加载不了的类：由三方库加载
+    private final Set<String> containerMisses = ConcurrentHashMap.newKeySet();
+
+    // 插件包依赖的三方库，可能被多个插件共享：在插件自己的类和Container的类之后查找
+    private volatile List<PluginClassLoader> libraries = Collections.emptyList();
+
+    // 独立于类加载器本身：类加载器被回收前后都可以读取
+    @Getter(AccessLevel.PACKAGE)
+    private final Footprint footprint = new Footprint();
+
     PluginClassLoader(URL[] urls, ClassLoader jdkClassLoader, ClassLoader containerClassLoader) {
         super(urls);
 
@@ -43,10 +85,30 @@ final class PluginClassLoader extends URLClassLoader {
 
         this.jdkClassLoader = jdkClassLoader;
         this.containerClassLoader = containerClassLoader;
+        this.jar = null;
+    }
+
+    /**
+     * 直接从内存里的jar包加载类和资源.
+     */
+    PluginClassLoader(InMemoryJar jar, ClassLoader jdkClassLoader, ClassLoader containerClassLoader) {
+        super(new URL[0]);
+
+        this.jdkClassLoader = jdkClassLoader;
+        this.containerClassLoader = containerClassLoader;
+        this.jar = jar;
+        for (String entryName : jar.entryNames()) {
+            indexEntry(localPackages, entryName);
+        }
+    }
+
+    void setLibraries(List<PluginClassLoader> libraries) {
+        this.libraries = Collections.unmodifiableList(new ArrayList<>(libraries));
     }
 
     void addUrl(URL url) {
         super.addURL(url);
+        indexPackages(url);
     }
 
     @Override
@@ -57,15 +119,20 @@ final class PluginClassLoader extends URLClassLoader {
             return clazz;
         }
 
-        // 如果这个类是JDK自己的，就用 JDKClassLoader 加载
-        try {
-            clazz = jdkClassLoader.loadClass(className);
+        if (misses.contains(className)) {
+            throw new ClassNotFoundException(className);
+        }
+
+        final boolean local = isLocalClass(className);
+
+        // 如果这个类是JDK自己的，就用 JDKClassLoader 加载：插件包里的类不必再问JDK
+        if (!local || jdkFirstClass(className)) {
+            clazz = loadJdkClass(className);
             if (clazz != null) {
                 // 说明该类是JRE的类
                 log.debug("loaded {} with {}", className, jdkClassLoader);
                 return clazz;
             }
-        } catch (ClassNotFoundException ignored) {
         }
 
         // 不是JDK本身的类
@@ -78,21 +145,52 @@ final class PluginClassLoader extends URLClassLoader {
         }
 
         // Plugin加载器自己加载
-        try {
-            // look for classes in the file system(jar)
-            clazz = this.findClass(className);
+        if (local) {
+            // parallel capable: 同一个类名的定义需要互斥，不同类名可以并行
+            synchronized (getClassLoadingLock(className)) {
+                clazz = this.findLoadedClass(className);
+                if (clazz == null) {
+                    clazz = findLocalClass(className);
+                }
+            }
             if (clazz != null) {
-                log.info("loaded {} with {}", className, this);
                 if (resolve) {
                     resolveClass(clazz);
                 }
                 return clazz;
             }
-        } catch (ClassNotFoundException ignored) {
+        }
+
+        // 插件依赖的三方库：容器能加载的类以容器为准，同一个类型不会有两份, e,g. slf4j, Spring
+        final List<PluginClassLoader> libraries = this.libraries;
+        if (!libraries.isEmpty()) {
+            clazz = loadContainerClass(className);
+            if (clazz != null) {
+                log.debug("loaded {} with {}", className, containerClassLoader);
+                return clazz;
+            }
+
+            for (PluginClassLoader library : libraries) {
+                clazz = library.findOwnClass(className);
+                if (clazz != null) {
+                    if (resolve) {
+                        resolveClass(clazz);
+                    }
+                    return clazz;
+                }
+            }
+
+            remember(misses, className);
+            throw new ClassNotFoundException(className);
         }
 
         // Plugin加载器无法加载，fallback to 中台Container加载器
-        clazz = containerClassLoader.loadClass(className); // might throw ClassNotFoundException
+        try {
+            clazz = containerClassLoader.loadClass(className); // might throw ClassNotFoundException
+        } catch (ClassNotFoundException ex) {
+            remember(misses, className);
+            throw ex;
+        }
         if (clazz != null) {
             log.debug("loaded {} with {}", className, containerClassLoader);
             return clazz;
@@ -102,8 +200,206 @@ final class PluginClassLoader extends URLClassLoader {
         return clazz;
     }
 
+    // 只找自己定义的类，不委派：库之间互相查找时不会递归
+    private Class<?> findOwnClass(String className) {
+        if (!isLocalClass(className)) {
+            return null;
+        }
+
+        synchronized (getClassLoadingLock(className)) {
+            Class<?> clazz = this.findLoadedClass(className);
+            return clazz != null ? clazz : findLocalClass(className);
+        }
+    }
+
+    private Class<?> loadJdkClass(String className) {
+        if (jdkMisses.contains(className)) {
+            return null;
+        }
+
+        try {
+            return jdkClassLoader.loadClass(className);
+        } catch (ClassNotFoundException ignored) {
+            remember(jdkMisses, className);
+            return null;
+        }
+    }
+
+    private Class<?> loadContainerClass(String className) {
+        if (containerMisses.contains(className)) {
+            return null;
+        }
+
+        try {
+            return containerClassLoader.loadClass(className);
+        } catch (ClassNotFoundException ignored) {
+            remember(containerMisses, className);
+            return null;
+        }
+    }
+
+    private Class<?> findLocalClass(String className) {
+        try {
+            // look for classes in the file system(jar)
+            Class<?> clazz = this.findClass(className);
+            footprint.classes.increment();
+            log.info("loaded {} with {}", className, this);
+            return clazz;
+        } catch (ClassNotFoundException ignored) {
+            return null;
+        }
+    }
+
+    private static void remember(Set<String> negativeCache, String className) {
+        if (negativeCache.size() < MAX_NEGATIVE_CACHE_SIZE) {
+            negativeCache.add(className);
+        }
+    }
+
+    // 插件包里可能有该类：没有索引时，总是尝试
+    boolean isLocalClass(String className) {
+        Set<String> packages = localPackages;
+        return packages == null || packages.contains(packageOf(className));
+    }
+
+    private void indexPackages(URL url) {
+        Set<String> packages = localPackages;
+        if (packages == null) {
+            return;
+        }
+
+        if (!"file".equals(url.getProtocol()) || !url.getPath().endsWith(".jar")) {
+            // e,g. 目录
+            localPackages = null;
+            return;
+        }
+
+        try (JarFile jar = new JarFile(new File(url.toURI()))) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                indexEntry(packages, entries.nextElement().getName());
+            }
+        } catch (IOException | URISyntaxException | IllegalArgumentException ex) {
+            // jar包有问题，在findClass时会暴露
+            log.warn("cannot index packages of {}", url, ex);
+            localPackages = null;
+        }
+    }
+
+    private static void indexEntry(Set<String> packages, String entryName) {
+        if (entryName.endsWith(".class")) {
+            packages.add(packageOf(entryName.substring(0, entryName.length() - 6).replace('/', '.')));
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String className) throws ClassNotFoundException {
+        if (jar == null) {
+            return super.findClass(className);
+        }
+
+        final byte[] bytes;
+        try {
+            bytes = jar.read(className.replace('.', '/') + ".class");
+        } catch (IOException ex) {
+            throw new ClassNotFoundException(className, ex);
+        }
+        if (bytes == null) {
+            throw new ClassNotFoundException(className);
+        }
+
+        String packageName = packageOf(className);
+        if (!packageName.isEmpty() && getPackage(packageName) == null) {
+            try {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            } catch (IllegalArgumentException concurrentlyDefined) {
+            }
+        }
+        Class<?> clazz = defineClass(className, bytes, 0, bytes.length);
+        footprint.bytecodeBytes.add(bytes.length);
+        return clazz;
+    }
+
+    @Override
+    public URL findResource(String name) {
+        if (jar == null) {
+            return super.findResource(name);
+        }
+
+        URL url = findOwnResource(name);
+        if (url != null) {
+            return url;
+        }
+
+        // e,g. 三方库里的META-INF/services
+        for (PluginClassLoader library : libraries) {
+            url = library.findOwnResource(name);
+            if (url != null) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        if (jar == null) {
+            return super.findResources(name);
+        }
+
+        List<URL> urls = new ArrayList<>(1);
+        URL url = findOwnResource(name);
+        if (url != null) {
+            urls.add(url);
+        }
+        for (PluginClassLoader library : libraries) {
+            url = library.findOwnResource(name);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    private URL findOwnResource(String name) {
+        return jar == null ? null : jar.url(name.startsWith("/") ? name.substring(1) : name);
+    }
+
+    private static String packageOf(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot < 0 ? "" : className.substring(0, lastDot);
+    }
+
+    // 插件包里也有的JDK包，仍然由JDK优先加载
+    boolean jdkFirstClass(String className) {
+        for (String jdkPackage : jdkPackages) {
+            if (className.startsWith(jdkPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // 中台Container优先加载的类
     boolean containerFirstClass(String className) {
         return className != null && className.startsWith(dddPackage);
     }
+
+    /**
+     * 该类加载器定义的类：数量和字节码大小.
+     * <p>
+     * <p>从URLs加载时不统计字节码大小.</p>
+     */
+    static final class Footprint {
+        // metaspace估算：每个类的固定开销(Klass, 常量池缓存, mirror等)，以及相对字节码大小的倍数
+        static final long METASPACE_PER_CLASS_BYTES = 1024;
+        static final long METASPACE_PER_BYTECODE_BYTE = 2;
+
+        final LongAdder classes = new LongAdder();
+        final LongAdder bytecodeBytes = new LongAdder();
+
+        long estimatedMetaspaceInBytes() {
+            return classes.sum() * METASPACE_PER_CLASS_BYTES + bytecodeBytes.sum() * METASPACE_PER_BYTECODE_BYTE;
+        }
+    }
 }
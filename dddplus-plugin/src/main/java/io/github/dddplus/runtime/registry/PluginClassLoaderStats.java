@@ -0,0 +1,61 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * 某个{@code Plugin}类加载器的快照：加载的类数量，估算的metaspace占用，销毁后是否仍然可达.
+ *
+ * @see Container#getPluginClassLoaderStats()
+ * @see Container#getLeakedPlugins()
+ */
+@Getter
+@ToString
+public final class PluginClassLoaderStats {
+    private final String code;
+    private final String version;
+
+    /**
+     * 该类加载器定义的类数量.
+     */
+    private final long loadedClasses;
+
+    /**
+     * 估算的metaspace占用：每个类的固定开销 + 字节码大小的倍数，只作为趋势参考.
+     */
+    private final long estimatedMetaspaceInBytes;
+
+    /**
+     * Plugin是否已经被销毁.
+     */
+    private final boolean destroyed;
+
+    /**
+     * 销毁后经历的老年代GC次数，未销毁时为0.
+     */
+    private final long gcCyclesSinceDestroy;
+
+    /**
+     * 仍然拖住该类加载器的可疑引用，e,g. 线程的context class loader.
+     * <p>
+     * <p>只检查常见的引用来源，完整的GC Root路径需要heap dump分析.</p>
+     */
+    private final List<String> suspectedGcRoots;
+
+    PluginClassLoaderStats(String code, String version, long loadedClasses, long estimatedMetaspaceInBytes, boolean destroyed, long gcCyclesSinceDestroy, List<String> suspectedGcRoots) {
+        this.code = code;
+        this.version = version;
+        this.loadedClasses = loadedClasses;
+        this.estimatedMetaspaceInBytes = estimatedMetaspaceInBytes;
+        this.destroyed = destroyed;
+        this.gcCyclesSinceDestroy = gcCyclesSinceDestroy;
+        this.suspectedGcRoots = suspectedGcRoots;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 跟踪每个Plugin的类加载器，发现销毁后迟迟不被回收的类加载器：metaspace泄漏.
+ * <p>
+ * <p>通过{@link WeakReference}判断类加载器是否仍然可达，通过{@link PhantomReference}得知它何时真正被回收.</p>
+ * <p>类卸载只发生在老年代GC，因此只数老年代GC的次数.</p>
+ */
+@Slf4j
+final class PluginLeakDetector {
+    // 销毁后经历了多少次老年代GC仍然可达，就认为泄漏了
+    private final long gcCyclesThreshold;
+
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<>();
+
+    // key: phantom reference，必须被强引用，否则不会入队
+    private final Map<Reference<? extends ClassLoader>, Tracked> tracked = new ConcurrentHashMap<>();
+
+    PluginLeakDetector(long gcCyclesThreshold) {
+        this.gcCyclesThreshold = gcCyclesThreshold;
+    }
+
+    /**
+     * Plugin加载后开始跟踪它的类加载器.
+     */
+    void track(Plugin plugin) {
+        ClassLoader classLoader = plugin.getPluginClassLoader();
+        if (classLoader == null) {
+            return;
+        }
+
+        PluginClassLoader.Footprint footprint = classLoader instanceof PluginClassLoader ? ((PluginClassLoader) classLoader).getFootprint() : null;
+        PhantomReference<ClassLoader> phantom = new PhantomReference<>(classLoader, queue);
+        tracked.put(phantom, new Tracked(plugin.getCode(), plugin.getVersion(), new WeakReference<>(classLoader), footprint));
+    }
+
+    /**
+     * Plugin销毁后，它的类加载器应该在随后的GC里被回收.
+     */
+    void destroyed(Plugin plugin, ClassLoader classLoader) {
+        if (classLoader == null) {
+            return;
+        }
+
+        final long gcCycles = gcCycles();
+        for (Tracked t : tracked.values()) {
+            if (t.classLoader.get() == classLoader) {
+                t.gcCyclesAtDestroy = gcCycles;
+                log.info("{} destroyed, expecting its class loader to be unloaded", plugin);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 清理已经回收的，报告泄漏的.
+     *
+     * @return 销毁后经历了足够多次GC仍然可达的类加载器
+     */
+    List<PluginClassLoaderStats> check() {
+        expungeCollected();
+
+        List<PluginClassLoaderStats> leaked = new ArrayList<>();
+        final long gcCycles = gcCycles();
+        for (Tracked t : tracked.values()) {
+            ClassLoader classLoader = t.classLoader.get();
+            if (classLoader == null || !t.isDestroyed() || gcCycles - t.gcCyclesAtDestroy < gcCyclesThreshold) {
+                continue;
+            }
+
+            PluginClassLoaderStats stats = t.stats(classLoader, gcCycles);
+            leaked.add(stats);
+            if (!t.warned) {
+                // 每个类加载器只告警一次
+                t.warned = true;
+                log.warn("Plugin class loader leaked: {}", stats);
+            }
+        }
+
+        return leaked;
+    }
+
+    /**
+     * 所有尚未被回收的类加载器.
+     */
+    List<PluginClassLoaderStats> stats() {
+        expungeCollected();
+
+        List<PluginClassLoaderStats> result = new ArrayList<>(tracked.size());
+        final long gcCycles = gcCycles();
+        for (Tracked t : tracked.values()) {
+            ClassLoader classLoader = t.classLoader.get();
+            if (classLoader != null) {
+                result.add(t.stats(classLoader, gcCycles));
+            }
+        }
+        return result;
+    }
+
+    private void expungeCollected() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = queue.poll()) != null) {
+            Tracked t = tracked.remove(ref);
+            if (t != null) {
+                log.info("Plugin:{}:{} class loader unloaded, {} classes", t.code, t.version, t.loadedClasses());
+            }
+        }
+    }
+
+    // 可疑的引用来源：线程，InternalIndexer里的Partner
+    static List<String> suspectedGcRoots(ClassLoader classLoader) {
+        List<String> roots = new ArrayList<>(1);
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getContextClassLoader() == classLoader) {
+                roots.add("Thread[" + thread.getName() + "].contextClassLoader");
+            }
+            if (thread.getClass().getClassLoader() == classLoader) {
+                roots.add("Thread[" + thread.getName() + "] is " + thread.getClass().getName());
+            }
+        }
+        for (PartnerDef partnerDef : InternalIndexer.partnerDefMap.values()) {
+            if (loadedBy(partnerDef, classLoader)) {
+                roots.add("InternalIndexer.partnerDefMap[" + partnerDef.getCode() + "]");
+            }
+        }
+        for (CanaryPartnerDef canary : InternalIndexer.canaryPartnerDefMap.values()) {
+            if (loadedBy(canary.getPartnerDef(), classLoader)) {
+                roots.add("InternalIndexer.canaryPartnerDefMap[" + canary.getPartnerDef().getCode() + "]");
+            }
+        }
+        return roots;
+    }
+
+    private static boolean loadedBy(PartnerDef partnerDef, ClassLoader classLoader) {
+        return partnerDef.getPartnerBean() != null && partnerDef.getPartnerBean().getClass().getClassLoader() == classLoader;
+    }
+
+    // 老年代GC次数：类卸载只发生在这里
+    static long gcCycles() {
+        long all = 0;
+        long old = 0;
+        boolean oldCollectorFound = false;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            final long count = Math.max(0, gc.getCollectionCount());
+            all += count;
+            if (isOldCollector(gc)) {
+                oldCollectorFound = true;
+                old += count;
+            }
+        }
+        return oldCollectorFound ? old : all;
+    }
+
+    private static boolean isOldCollector(GarbageCollectorMXBean gc) {
+        final String name = gc.getName();
+        return name.contains("MarkSweep") || name.contains("Old") || name.contains("Major");
+    }
+
+    private static final class Tracked {
+        final String code;
+        final String version;
+        final WeakReference<ClassLoader> classLoader;
+        final PluginClassLoader.Footprint footprint;
+
+        // -1: 尚未销毁
+        volatile long gcCyclesAtDestroy = -1;
+        volatile boolean warned;
+
+        Tracked(String code, String version, WeakReference<ClassLoader> classLoader, PluginClassLoader.Footprint footprint) {
+            this.code = code;
+            this.version = version;
+            this.classLoader = classLoader;
+            this.footprint = footprint;
+        }
+
+        boolean isDestroyed() {
+            return gcCyclesAtDestroy >= 0;
+        }
+
+        long loadedClasses() {
+            return footprint == null ? 0 : footprint.classes.sum();
+        }
+
+        PluginClassLoaderStats stats(ClassLoader cl, long gcCycles) {
+            final boolean destroyed = isDestroyed();
+            return new PluginClassLoaderStats(code, version, loadedClasses(),
+                    footprint == null ? 0 : footprint.estimatedMetaspaceInBytes(),
+                    destroyed,
+                    destroyed ? gcCycles - gcCyclesAtDestroy : 0,
+                    destroyed ? Collections.unmodifiableList(suspectedGcRoots(cl)) : Collections.emptyList());
+        }
+    }
+}
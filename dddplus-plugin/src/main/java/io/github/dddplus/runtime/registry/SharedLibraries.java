@@ -0,0 +1,215 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 插件包里依赖的三方库：位于插件包的{@link #LIBRARY_PREFIX}目录下的jar包.
+ * <p>
+ * <p>启用共享时，坐标(groupId:artifactId:version)和SHA-256都相同的库只被加载一次，被所有依赖它的插件共享：metaspace里只有一份，JIT也只需预热一次.</p>
+ * <p>类加载器的层次：</p>
+ * <pre>
+ *  ContainerClassLoader
+ *          |
+ *  LibraryClassLoader(guava-28.0@sha256) ... 共享
+ *          |
+ *  PluginClassLoader
+ * </pre>
+ * <p>容器能加载的类以容器为准，库里的同名类被忽略.</p>
+ * <p>库之间的依赖，在首次加载该库的插件带来的库里解析：之后的插件带来该依赖的其他版本时拒绝加载，否则同一个类型会有两份.</p>
+ * <p>不启用共享时(默认)不处理{@link #LIBRARY_PREFIX}：这些类与以前一样由容器加载.</p>
+ */
+@Slf4j
+final class SharedLibraries {
+    private static final SharedLibraries instance = new SharedLibraries(Boolean.getBoolean("pluginSharedLibraries"));
+
+    static final String LIBRARY_PREFIX = "lib/";
+    private static final String POM_PROPERTIES = "/pom.properties";
+    private static final String MAVEN_META = "META-INF/maven/";
+
+    private volatile boolean enabled;
+
+    // key: {coordinates}@{sha256}
+    private final Map<String, Library> libraries = new LinkedHashMap<>();
+
+    SharedLibraries(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    static SharedLibraries getInstance() {
+        return instance;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取插件包依赖的库，必要时加载.
+     *
+     * @return 每个库一个，用完后需要{@link #release(List)}；不启用共享时为空
+     * @throws IllegalStateException 已共享的库所依赖的库，与本插件带来的版本不同
+     */
+    List<Library> acquire(InMemoryJar pluginJar, ClassLoader jdkClassLoader, ClassLoader containerClassLoader) throws IOException {
+        if (!enabled) {
+            return Collections.emptyList();
+        }
+
+        // 解压与计算摘要不需要持有锁：不同插件可以并行
+        Map<String, InMemoryJar> jars = new LinkedHashMap<>();
+        for (String entryName : pluginJar.entryNames()) {
+            if (!entryName.startsWith(LIBRARY_PREFIX) || !entryName.endsWith(".jar")) {
+                continue;
+            }
+
+            final byte[] bytes = pluginJar.read(entryName);
+            final InMemoryJar jar = InMemoryJar.of(pluginJar.getName() + "!/" + entryName, bytes);
+            jars.put(coordinatesOf(jar, entryName) + "@" + sha256(bytes), jar);
+        }
+
+        return acquire(jars, jdkClassLoader, containerClassLoader);
+    }
+
+    private synchronized List<Library> acquire(Map<String, InMemoryJar> jars, ClassLoader jdkClassLoader, ClassLoader containerClassLoader) {
+        List<Library> acquired = new ArrayList<>(jars.size());
+        List<Library> created = new ArrayList<>();
+        try {
+            for (Map.Entry<String, InMemoryJar> entry : jars.entrySet()) {
+                final String key = entry.getKey();
+                Library library = libraries.get(key);
+                if (library == null) {
+                    library = new Library(key, new PluginClassLoader(entry.getValue(), jdkClassLoader, containerClassLoader));
+                    created.add(library);
+                    libraries.put(key, library);
+                    log.info("shared library loaded: {}", key);
+                } else {
+                    checkDependencies(library, jars.keySet());
+                    log.info("shared library reused: {}", key);
+                }
+
+                library.refCount++;
+                acquired.add(library);
+            }
+        } catch (RuntimeException | Error e) {
+            // 已获取的库不能泄漏
+            release(acquired);
+            throw e;
+        }
+
+        // 新加载的库，其依赖在本插件带来的库里解析
+        for (Library library : created) {
+            List<PluginClassLoader> siblings = new ArrayList<>(acquired.size() - 1);
+            for (Library sibling : acquired) {
+                if (sibling != library) {
+                    siblings.add(sibling.classLoader);
+                    library.siblingKeys.add(sibling.key);
+                }
+            }
+            library.classLoader.setLibraries(siblings);
+        }
+
+        return acquired;
+    }
+
+    // 复用的库按首次加载时的兄弟库解析依赖：本插件带来的同一个库必须是同一个版本
+    private void checkDependencies(Library library, Set<String> keys) {
+        for (String key : keys) {
+            for (String siblingKey : library.siblingKeys) {
+                if (!siblingKey.equals(key) && artifactOf(siblingKey).equals(artifactOf(key))) {
+                    throw new IllegalStateException("shared library " + library.key + " depends on " + siblingKey + ", conflicts with " + key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 插件销毁时释放它依赖的库：没有插件依赖时，库的类加载器才可以被回收.
+     */
+    synchronized void release(List<Library> acquired) {
+        for (Library library : acquired) {
+            if (--library.refCount == 0 && libraries.get(library.key) == library) {
+                libraries.remove(library.key);
+                log.info("shared library released: {}", library.key);
+            }
+        }
+    }
+
+    /**
+     * @return key: {coordinates}@{sha256}, value: 依赖它的插件数
+     */
+    synchronized Map<String, Integer> snapshot() {
+        Map<String, Integer> result = new LinkedHashMap<>(libraries.size());
+        for (Library library : libraries.values()) {
+            result.put(library.key, library.refCount);
+        }
+        return result;
+    }
+
+    // groupId:artifactId:version，没有maven元数据时使用文件名
+    static String coordinatesOf(InMemoryJar jar, String entryName) throws IOException {
+        for (String name : jar.entryNames()) {
+            if (name.startsWith(MAVEN_META) && name.endsWith(POM_PROPERTIES)) {
+                Properties pom = new Properties();
+                pom.load(new ByteArrayInputStream(jar.read(name)));
+                if (pom.getProperty("artifactId") != null) {
+                    return pom.getProperty("groupId") + ":" + pom.getProperty("artifactId") + ":" + pom.getProperty("version");
+                }
+            }
+        }
+
+        return entryName.substring(entryName.lastIndexOf('/') + 1);
+    }
+
+    // groupId:artifactId，没有maven元数据时是文件名
+    private static String artifactOf(String key) {
+        final String coordinates = key.substring(0, key.lastIndexOf('@'));
+        final int versionAt = coordinates.lastIndexOf(':');
+        return versionAt < 0 ? coordinates : coordinates.substring(0, versionAt);
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException shouldNeverHappen) {
+            throw new IllegalStateException(shouldNeverHappen);
+        }
+    }
+
+    static final class Library {
+        final String key;
+        final PluginClassLoader classLoader;
+        // 解析依赖的兄弟库：首次加载时确定
+        final Set<String> siblingKeys = new HashSet<>();
+
+        // guarded by SharedLibraries.this
+        int refCount;
+
+        Library(String key, PluginClassLoader classLoader) {
+            this.key = key;
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+}
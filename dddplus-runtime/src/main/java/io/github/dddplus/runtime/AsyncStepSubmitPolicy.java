@@ -0,0 +1,34 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime;
+
+/**
+ * 线程池满或超过领域活动的在途上限时，异步步骤的提交策略.
+ *
+ * @see StepsExecTemplate#asyncStepSubmitPolicy()
+ */
+public enum AsyncStepSubmitPolicy {
+
+    /**
+     * 抛出{@link java.util.concurrent.RejectedExecutionException}，整个活动失败.
+     */
+    ABORT,
+
+    /**
+     * 在调用方线程同步执行该步骤.
+     */
+    CALLER_RUNS,
+
+    /**
+     * 等待直到可以提交，最长等待{@link StepsExecTemplate#asyncStepSubmitTimeoutInMs()}，超时后同{@link #ABORT}.
+     */
+    BLOCK,
+
+    /**
+     * 丢弃该步骤，记录{@link RuntimeMetrics#ASYNC_STEP_SHED}指标.
+     */
+    SHED,
+}
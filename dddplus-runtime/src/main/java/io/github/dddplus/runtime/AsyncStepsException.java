@@ -0,0 +1,57 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 等待异步步骤时，汇总了异步步骤的失败与超时的异常.
+ *
+ * @see StepsExecTemplate#asyncStepsJoinTimeoutInMs()
+ */
+public class AsyncStepsException extends RuntimeException {
+    private final Map<String, Throwable> failures;
+    private final List<String> timedOutSteps;
+
+    AsyncStepsException(Map<String, Throwable> failures, List<String> timedOutSteps) {
+        super(failures.isEmpty() ? null : failures.values().iterator().next());
+        this.failures = Collections.unmodifiableMap(failures);
+        this.timedOutSteps = Collections.unmodifiableList(timedOutSteps);
+    }
+
+    /**
+     * 执行失败的异步步骤.
+     *
+     * @return key is stepCode, value is the exception thrown by the step
+     */
+    public Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * 没能在等待时间内结束的异步步骤编号.
+     */
+    public List<String> getTimedOutSteps() {
+        return timedOutSteps;
+    }
+
+    // 第一个指定类型的失败
+    RuntimeException businessCause(Class exType) {
+        for (Throwable failure : failures.values()) {
+            if (failure.getClass() == exType) {
+                return (RuntimeException) failure;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getMessage() {
+        return "failures:" + failures.keySet() + ", timeout:" + timedOutSteps;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+/**
+ * 跨线程上下文传递的注册中心.
+ * <p>
+ * <p>调用方线程通过{@link #capture()}得到不可变的{@link Snapshot}，执行线程通过{@link Snapshot#wrap(Runnable)}恢复上下文.</p>
+ * <p>快照是可复用的：上下文没有变化时，同一线程上的多次capture返回同一个快照对象(by reference)；某个上下文变化时，只替换该上下文，其他的仍然引用原值(copy on write).</p>
+ * <p>线程上只弱引用最近的快照：不再被任务引用的快照连同其中的上下文可以被回收，不会被线程池里的线程一直拖住.</p>
+ */
+@Slf4j
+public final class ContextPropagation {
+    private static final IContextPropagator[] defaultPropagators = new IContextPropagator[]{new MdcContextPropagator()};
+
+    // copy on write: 注册发生在启动阶段，运行时只读
+    private static volatile IContextPropagator[] propagators = defaultPropagators;
+
+    // 每个线程最近一次捕获的快照，用于复用：弱引用
+    private static final ThreadLocal<WeakReference<Snapshot>> lastSnapshot = new ThreadLocal<>();
+
+    private ContextPropagation() {
+    }
+
+    /**
+     * 注册上下文传递器.
+     * <p>
+     * <p>相同类型的传递器只注册一次.</p>
+     *
+     * @param propagator 上下文传递器
+     */
+    public static synchronized void register(@NonNull IContextPropagator<?> propagator) {
+        for (IContextPropagator registered : propagators) {
+            if (registered.getClass() == propagator.getClass()) {
+                log.warn("{} already registered, ignored", propagator.getClass().getCanonicalName());
+                return;
+            }
+        }
+
+        IContextPropagator[] newPropagators = new IContextPropagator[propagators.length + 1];
+        System.arraycopy(propagators, 0, newPropagators, 0, propagators.length);
+        newPropagators[propagators.length] = propagator;
+        propagators = newPropagators;
+        log.info("registered context propagator: {}", propagator.getClass().getCanonicalName());
+    }
+
+    /**
+     * 恢复为只有MDC的默认状态，testing only.
+     */
+    static synchronized void reset() {
+        propagators = defaultPropagators;
+        lastSnapshot.remove();
+    }
+
+    /**
+     * 在调用方线程捕获所有已注册的上下文.
+     *
+     * @return 不可变的上下文快照
+     */
+    @NonNull
+    public static Snapshot capture() {
+        final IContextPropagator[] current = propagators;
+        final WeakReference<Snapshot> previousRef = lastSnapshot.get();
+        final Snapshot previous = previousRef == null ? null : previousRef.get();
+        final boolean comparable = previous != null && previous.propagators == current;
+
+        Object[] values = null;
+        for (int i = 0; i < current.length; i++) {
+            Object value = current[i].capture();
+            if (comparable && Objects.equals(previous.values[i], value)) {
+                // 没变化，沿用原快照里的引用
+                value = previous.values[i];
+                if (values == null) {
+                    continue;
+                }
+            } else if (values == null) {
+                // 第一次发现变化：copy on write
+                values = comparable ? previous.values.clone() : new Object[current.length];
+            }
+
+            values[i] = value;
+        }
+
+        if (values == null) {
+            if (comparable) {
+                // 所有上下文都没变，复用快照
+                return previous;
+            }
+
+            values = new Object[0];
+        }
+
+        Snapshot snapshot = new Snapshot(current, values);
+        lastSnapshot.set(new WeakReference<>(snapshot));
+        return snapshot;
+    }
+
+    /**
+     * 不可变的上下文快照.
+     */
+    public static final class Snapshot {
+        private final IContextPropagator[] propagators;
+        private final Object[] values;
+
+        private Snapshot(IContextPropagator[] propagators, Object[] values) {
+            this.propagators = propagators;
+            this.values = values;
+        }
+
+        /**
+         * 包装任务，使其在执行线程里运行于捕获时的上下文.
+         * <p>
+         * <p>执行前保存执行线程自己的上下文，执行后还原：无论任务在哪个线程执行(e,g. CallerRunsPolicy，或者由线程池里的线程提交又被它自己执行)，都不会污染该线程.</p>
+         */
+        public Runnable wrap(@NonNull Runnable task) {
+            return () -> {
+                final Object[] saved = swapIn();
+                try {
+                    task.run();
+                } finally {
+                    swapOut(saved);
+                }
+            };
+        }
+
+        /**
+         * 包装任务，使其在执行线程里运行于捕获时的上下文.
+         *
+         * @see #wrap(Runnable)
+         */
+        public <T> Callable<T> wrap(@NonNull Callable<T> task) {
+            return () -> {
+                final Object[] saved = swapIn();
+                try {
+                    return task.call();
+                } finally {
+                    swapOut(saved);
+                }
+            };
+        }
+
+        // 保存执行线程的上下文，切换到捕获时的上下文
+        private Object[] swapIn() {
+            final Object[] saved = new Object[propagators.length];
+            for (int i = 0; i < propagators.length; i++) {
+                saved[i] = propagators[i].capture();
+            }
+            for (int i = 0; i < propagators.length; i++) {
+                apply(propagators[i], i < values.length ? values[i] : null);
+            }
+            return saved;
+        }
+
+        // 还原执行线程的上下文
+        private void swapOut(Object[] saved) {
+            for (int i = propagators.length - 1; i >= 0; i--) {
+                try {
+                    apply(propagators[i], saved[i]);
+                } catch (Throwable ignored) {
+                    log.error("{} restore context err ignored", propagators[i].getClass().getCanonicalName(), ignored);
+                }
+            }
+        }
+
+        private static void apply(IContextPropagator propagator, Object context) {
+            if (context == null) {
+                propagator.clear();
+            } else {
+                propagator.restore(context);
+            }
+        }
+    }
+}
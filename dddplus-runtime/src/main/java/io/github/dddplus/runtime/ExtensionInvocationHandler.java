@@ -13,7 +13,6 @@ import io.github.dddplus.runtime.registry.ExtensionDef;
 import io.github.dddplus.runtime.registry.InternalIndexer;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.MDC;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
@@ -21,8 +20,8 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 扩展点的动态代理.
@@ -75,11 +74,28 @@ class ExtensionInvocationHandler<Ext extends IDomainExtension, R> implements Inv
             effectiveExts.add(new ExtensionDef(defaultExt));
         }
 
+        // 从解析出扩展点实例开始，直到调用返回，都算在途调用：期间Plugin被替换，旧版本也要等待本次调用完成才能销毁
+        for (ExtensionDef extensionDef : effectiveExts) {
+            extensionDef.beginInvocation();
+        }
+        try {
+            return invoke(effectiveExts, method, args);
+        } finally {
+            for (ExtensionDef extensionDef : effectiveExts) {
+                extensionDef.endInvocation();
+            }
+        }
+    }
+
+    private Object invoke(List<ExtensionDef> effectiveExts, final Method method, Object[] args) throws Throwable {
+        // 切换到线程池执行时需要传递上下文：只捕获一次，所有扩展点实例共享该快照
+        ContextPropagation.Snapshot context = timeoutInMs > 0 ? ContextPropagation.capture() : null;
+
         // all effective extension instances found
         List<R> accumulatedResults = new ArrayList<>(effectiveExts.size());
         R result = null;
         for (ExtensionDef extensionDef : effectiveExts) {
-            result = invokeExtension(extensionDef, method, args);
+            result = invokeExtension(extensionDef, method, args, context);
             accumulatedResults.add(result);
 
             if (reducer == null || reducer.shouldStop(accumulatedResults)) {
@@ -96,18 +112,18 @@ class ExtensionInvocationHandler<Ext extends IDomainExtension, R> implements Inv
         return result;
     }
 
-    private R invokeExtension(ExtensionDef extensionDef, final Method method, Object[] args) throws Throwable {
+    private R invokeExtension(ExtensionDef extensionDef, final Method method, Object[] args, ContextPropagation.Snapshot context) throws Throwable {
         try {
-            ExtensionContext context = null;
+            ExtensionContext extensionContext = null;
             if (interceptor != null) {
-                context = new ExtensionContext(extensionDef.getCode(), extensionDef.getExtensionBean(), method, args);
-                interceptor.beforeInvocation(context);
+                extensionContext = new ExtensionContext(extensionDef.getCode(), extensionDef.getExtensionBean(), method, args);
+                interceptor.beforeInvocation(extensionContext);
             }
             try {
-                return invokeExtensionMethod(extensionDef, method, args);
+                return invokeExtensionMethod(extensionDef, method, args, context);
             } finally {
                 if (interceptor != null) {
-                    interceptor.afterInvocation(context);
+                    interceptor.afterInvocation(extensionContext);
                 }
             }
         } catch (InvocationTargetException e) {
@@ -133,29 +149,63 @@ class ExtensionInvocationHandler<Ext extends IDomainExtension, R> implements Inv
         }
     }
 
-    private R invokeExtensionMethod(ExtensionDef extensionDef, Method method, Object[] args) throws Throwable {
-        IDomainExtension extInstance = extensionDef.getExtensionBean();
+    private R invokeExtensionMethod(ExtensionDef extensionDef, Method method, Object[] args, ContextPropagation.Snapshot context) throws Throwable {
         if (timeoutInMs > 0) {
-            return invokeExtensionMethodWithTimeout(extInstance, method, args, timeoutInMs);
+            return invokeExtensionMethodWithTimeout(extensionDef, method, args, timeoutInMs, context);
         }
 
-        R result = (R) method.invoke(extInstance, args);
+        IDomainExtension extInstance = extensionDef.getExtensionBean();
+        R result;
+        final long t0 = System.nanoTime();
+        boolean failed = true;
+        try {
+            result = (R) method.invoke(extInstance, args);
+            failed = false;
+        } finally {
+            recordPluginCall(extensionDef, t0, failed);
+        }
         log.debug("{} method:{} args:{}, result:{}", extInstance, method.getName(), args, result);
 
         return result;
     }
 
-    private R invokeExtensionMethodWithTimeout(IDomainExtension extInstance, Method method, Object[] args, final int timeoutInMs) throws Throwable {
-        // 切换到线程池ThreadLocal会失效，目前ThreadLocal只有MDC
-        Map<String, String> mdcContext = MDC.getCopyOfContextMap();
-        Future<R> future = extInvokeTimerExecutor.submit(() -> {
-            MDC.setContextMap(mdcContext); // 手动继承前面线程的MDC
-            try {
-                return (R) method.invoke(extInstance, args);
-            } finally {
-                MDC.clear();
-            }
-        });
+    // 动态加载的扩展点按Plugin版本记录指标，以便灰度时对比新旧版本
+    private static void recordPluginCall(ExtensionDef extensionDef, long t0, boolean failed) {
+        RuntimeMetrics.PluginMetrics pluginMetrics = extensionDef.pluginMetrics();
+        if (pluginMetrics != null) {
+            pluginMetrics.record(System.nanoTime() - t0, failed);
+        }
+    }
+
+    private R invokeExtensionMethodWithTimeout(ExtensionDef extensionDef, Method method, Object[] args, final int timeoutInMs, ContextPropagation.Snapshot context) throws Throwable {
+        IDomainExtension extInstance = extensionDef.getExtensionBean();
+        // 超时后扩展点仍可能在线程池里执行：直到它真正结束才算调用完成
+        // 任务与取消方谁先claim谁负责结束在途调用：被取消而从未执行的任务不会走到finally
+        final AtomicBoolean claimed = new AtomicBoolean();
+        extensionDef.beginInvocation();
+        Future<R> future;
+        try {
+            // 切换到线程池ThreadLocal会失效，通过上下文快照手动继承前面线程的ThreadLocal
+            future = extInvokeTimerExecutor.submit(context.wrap(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+
+                final long t0 = System.nanoTime();
+                boolean failed = true;
+                try {
+                    R result = (R) method.invoke(extInstance, args);
+                    failed = false;
+                    return result;
+                } finally {
+                    extensionDef.endInvocation();
+                    recordPluginCall(extensionDef, t0, failed);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            extensionDef.endInvocation();
+            throw e;
+        }
 
         try {
             R result = future.get(timeoutInMs, TimeUnit.MILLISECONDS);
@@ -166,6 +216,10 @@ class ExtensionInvocationHandler<Ext extends IDomainExtension, R> implements Inv
             if (!future.isCancelled()) {
                 future.cancel(true); // best effort
             }
+            if (claimed.compareAndSet(false, true)) {
+                // 任务还没开始执行
+                extensionDef.endInvocation();
+            }
 
             throw e;
         } catch (ExecutionException e) {
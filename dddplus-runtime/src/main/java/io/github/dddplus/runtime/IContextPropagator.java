@@ -0,0 +1,43 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime;
+
+/**
+ * 跨线程的上下文传递器，SPI.
+ * <p>
+ * <p>扩展点超时执行、异步步骤执行时会切换线程，ThreadLocal会失效，通过它把调用方线程的上下文带到执行线程.</p>
+ * <p>典型的上下文：MDC，调用链跟踪的span，租户，安全上下文等</p>
+ * <p>框架内置了MDC的实现，其他实现可以通过{@link ContextPropagation#register(IContextPropagator)}注册，或声明为Spring bean由框架自动注册</p>
+ * <ul>实现的约定：
+ * <li>{@link #capture()}返回的对象被当作不可变快照，可能被多个线程同时使用，不能被修改</li>
+ * <li>上下文没有变化时，{@link #capture()}应尽可能返回相同(或{@code equals})的对象：框架会复用上一次的快照，避免重复分配</li>
+ * </ul>
+ *
+ * @param <C> 上下文快照类型
+ */
+public interface IContextPropagator<C> {
+
+    /**
+     * 在调用方线程捕获当前上下文.
+     *
+     * @return 上下文快照，null表示没有需要传递的上下文
+     */
+    C capture();
+
+    /**
+     * 在执行线程里恢复上下文.
+     * <p>
+     * <p>任务执行前恢复捕获时的上下文，执行后还原执行线程原有的上下文.</p>
+     *
+     * @param context {@link #capture()}的非null结果
+     */
+    void restore(C context);
+
+    /**
+     * 清理当前线程的上下文：要恢复或还原的上下文为null时.
+     */
+    void clear();
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime;
+
+import io.github.dddplus.ext.IIdentity;
+
+import java.util.List;
+
+/**
+ * 启动预热的样本业务身份提供者.
+ * <p>
+ * <p>容器里有该bean时，启动完成、调用{@link IStartupListener}之前，框架用这些样本身份沿真实的扩展点路由路径(Policy, Pattern, Partner)执行若干轮：</p>
+ * <ul>
+ *     <li>生成扩展点的动态代理类</li>
+ *     <li>填充{@link BasePattern}的match方法缓存，并触发反射调用的inflation</li>
+ *     <li>执行Policy, Pattern, Partner里的路由逻辑，完成相关类的初始化</li>
+ * </ul>
+ * <p>只做路由，不会执行扩展点的业务方法；样本身份与某个扩展点不适用时，该组合被跳过.</p>
+ */
+public interface IWarmupIdentityProvider {
+
+    /**
+     * 样本业务身份，应尽可能覆盖线上的各种业务场景.
+     */
+    List<? extends IIdentity> warmupIdentities();
+
+    /**
+     * 预热轮数.
+     * <p>
+     * <p>默认值超过了JDK反射调用的inflation阈值(sun.reflect.inflationThreshold=15).</p>
+     */
+    default int warmupRounds() {
+        return 20;
+    }
+}
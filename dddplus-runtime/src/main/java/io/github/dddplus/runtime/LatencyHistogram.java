@@ -0,0 +1,125 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 低开销的延迟直方图.
+ * <p>
+ * <p>按2的幂次分桶(in μs)：第i个桶记录[2^(i-1), 2^i)μs的样本，记录一次样本只有几次原子操作，没有锁和内存分配.</p>
+ * <p>分位数是近似值：所在桶的上界.</p>
+ */
+public final class LatencyHistogram {
+    // 最后一个桶: >= 2^30μs, 约18分钟
+    static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        buckets.incrementAndGet(bucketOf(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        totalNanos.add(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+        }
+    }
+
+    static int bucketOf(long micros) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, totalNanos.sum(), maxNanos.get());
+    }
+
+    /**
+     * 不可变的直方图快照.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] counts, long totalNanos, long maxNanos) {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * 样本数.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 平均延迟，in μs.
+         */
+        public long getMeanMicros() {
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos / count);
+        }
+
+        /**
+         * 最大延迟，in μs.
+         */
+        public long getMaxMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos);
+        }
+
+        /**
+         * 近似的分位数延迟，in μs.
+         *
+         * @param quantile (0, 1], e,g. 0.99
+         * @return 所在桶的上界，不超过最大延迟
+         */
+        public long percentileMicros(double quantile) {
+            if (quantile <= 0 || quantile > 1) {
+                throw new IllegalArgumentException("quantile must be in (0, 1]: " + quantile);
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(getMaxMicros(), (1L << i) - 1);
+                }
+            }
+            return getMaxMicros();
+        }
+
+        @Override
+        public String toString() {
+            return "count:" + count + ", mean:" + getMeanMicros() + "μs, p99:" + percentileMicros(0.99) + "μs, max:" + getMaxMicros() + "μs";
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime;
+
+import org.slf4j.MDC;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * MDC的上下文传递，框架默认注册.
+ * <p>
+ * <p>slf4j的MDCAdapter只提供了{@code getCopyOfContextMap}，捕获时无法避免一次拷贝；</p>
+ * <p>但内容未变时{@link ContextPropagation}会复用上一次的快照，空MDC则不传递.</p>
+ */
+final class MdcContextPropagator implements IContextPropagator<Map<String, String>> {
+
+    @Override
+    public Map<String, String> capture() {
+        Map<String, String> contextMap = MDC.getCopyOfContextMap();
+        if (contextMap == null || contextMap.isEmpty()) {
+            return null;
+        }
+
+        // 快照会被多个线程共享，只读
+        return Collections.unmodifiableMap(contextMap);
+    }
+
+    @Override
+    public void restore(Map<String, String> context) {
+        if (context != null) {
+            MDC.setContextMap(context);
+        }
+    }
+
+    @Override
+    public void clear() {
+        MDC.clear();
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime;
+
+import lombok.NonNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 框架运行时指标.
+ * <p>
+ * <p>进程级，低开销：计数器使用{@link LongAdder}，通过{@link #snapshot()}导出给业务系统自己的监控系统.</p>
+ */
+public final class RuntimeMetrics {
+
+    /**
+     * 异步步骤因过载被丢弃.
+     */
+    public static final String ASYNC_STEP_SHED = "async.shed";
+
+    /**
+     * 异步步骤因过载在调用方线程执行.
+     */
+    public static final String ASYNC_STEP_CALLER_RUNS = "async.callerRuns";
+
+    /**
+     * 异步步骤因过载被拒绝.
+     */
+    public static final String ASYNC_STEP_REJECTED = "async.rejected";
+
+    /**
+     * 步骤修订次数，即{@link io.github.dddplus.step.IReviseStepsException}.
+     */
+    public static final String STEP_REVISIONS = "step.revisions";
+
+    /**
+     * 触发回滚的次数.
+     */
+    public static final String STEP_ROLLBACKS = "step.rollbacks";
+
+    /**
+     * 慢步骤数.
+     */
+    public static final String SLOW_STEPS = "step.slow";
+
+    /**
+     * 动态加载的扩展点调用次数，按Plugin版本统计.
+     */
+    public static final String PLUGIN_CALLS = "plugin.calls";
+
+    /**
+     * 动态加载的扩展点抛出异常的次数，按Plugin版本统计.
+     */
+    public static final String PLUGIN_ERRORS = "plugin.errors";
+
+    // {activityCode.metric, counter}
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    // {activityCode, {stepCode, histogram}}: 两级索引，记录时不必拼接key
+    private static final Map<String, Map<String, LatencyHistogram>> stepLatencies = new ConcurrentHashMap<>();
+
+    // {pluginKey, histogram}: 灰度时对比新旧版本
+    private static final Map<String, LatencyHistogram> pluginLatencies = new ConcurrentHashMap<>();
+
+    private RuntimeMetrics() {
+    }
+
+    static void increment(String activityCode, String metric) {
+        counters.computeIfAbsent(key(activityCode, metric), k -> new LongAdder()).increment();
+    }
+
+    static void recordStep(String activityCode, String stepCode, long nanos) {
+        Map<String, LatencyHistogram> histograms = stepLatencies.get(activityCode);
+        if (histograms == null) {
+            histograms = stepLatencies.computeIfAbsent(activityCode, k -> new ConcurrentHashMap<>());
+        }
+        LatencyHistogram histogram = histograms.get(stepCode);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(stepCode, k -> new LatencyHistogram());
+        }
+
+        histogram.record(nanos);
+    }
+
+    /**
+     * 某个Plugin版本的指标，由调用方持有以免每次调用都查找, internal usage only.
+     *
+     * @param pluginKey {partnerCode}@{version}
+     */
+    @NonNull
+    public static PluginMetrics pluginMetrics(@NonNull String pluginKey) {
+        return new PluginMetrics(
+                counters.computeIfAbsent(key(pluginKey, PLUGIN_CALLS), k -> new LongAdder()),
+                counters.computeIfAbsent(key(pluginKey, PLUGIN_ERRORS), k -> new LongAdder()),
+                pluginLatencies.computeIfAbsent(pluginKey, k -> new LatencyHistogram()));
+    }
+
+    private static String key(String activityCode, String metric) {
+        return activityCode + "." + metric;
+    }
+
+    /**
+     * 当前指标的快照.
+     */
+    @NonNull
+    public static Snapshot snapshot() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        SortedMap<String, LatencyHistogram.Snapshot> latencies = new TreeMap<>();
+        for (Map.Entry<String, Map<String, LatencyHistogram>> activity : stepLatencies.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> step : activity.getValue().entrySet()) {
+                latencies.put(key(activity.getKey(), step.getKey()), step.getValue().snapshot());
+            }
+        }
+        SortedMap<String, LatencyHistogram.Snapshot> plugins = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> plugin : pluginLatencies.entrySet()) {
+            plugins.put(plugin.getKey(), plugin.getValue().snapshot());
+        }
+        return new Snapshot(values, latencies, plugins);
+    }
+
+    /**
+     * 清空所有指标，testing only.
+     */
+    static void reset() {
+        counters.clear();
+        stepLatencies.clear();
+        pluginLatencies.clear();
+    }
+
+    /**
+     * 预先解析的Plugin版本指标.
+     */
+    public static final class PluginMetrics {
+        private final LongAdder calls;
+        private final LongAdder errors;
+        private final LatencyHistogram latency;
+
+        private PluginMetrics(LongAdder calls, LongAdder errors, LatencyHistogram latency) {
+            this.calls = calls;
+            this.errors = errors;
+            this.latency = latency;
+        }
+
+        void record(long nanos, boolean failed) {
+            calls.increment();
+            if (failed) {
+                errors.increment();
+            }
+            latency.record(nanos);
+        }
+    }
+
+    /**
+     * 不可变的指标快照.
+     */
+    public static final class Snapshot {
+        private final SortedMap<String, Long> counters;
+        private final SortedMap<String, LatencyHistogram.Snapshot> stepLatencies;
+        private final SortedMap<String, LatencyHistogram.Snapshot> pluginLatencies;
+
+        private Snapshot(SortedMap<String, Long> counters, SortedMap<String, LatencyHistogram.Snapshot> stepLatencies, SortedMap<String, LatencyHistogram.Snapshot> pluginLatencies) {
+            this.counters = Collections.unmodifiableSortedMap(counters);
+            this.stepLatencies = Collections.unmodifiableSortedMap(stepLatencies);
+            this.pluginLatencies = Collections.unmodifiableSortedMap(pluginLatencies);
+        }
+
+        /**
+         * 所有计数器.
+         *
+         * @return key is {activityCode}.{metric}
+         */
+        public SortedMap<String, Long> getCounters() {
+            return counters;
+        }
+
+        /**
+         * 某个领域活动的计数器值.
+         *
+         * @param activityCode 领域活动，或者Plugin版本标识：{partnerCode}@{version}
+         * @param metric       e,g. {@link #ASYNC_STEP_SHED}, {@link #PLUGIN_ERRORS}
+         * @return 0 if absent
+         */
+        public long counter(@NonNull String activityCode, @NonNull String metric) {
+            Long value = counters.get(key(activityCode, metric));
+            return value == null ? 0 : value;
+        }
+
+        /**
+         * 所有步骤的执行延迟.
+         *
+         * @return key is {activityCode}.{stepCode}
+         */
+        public SortedMap<String, LatencyHistogram.Snapshot> getStepLatencies() {
+            return stepLatencies;
+        }
+
+        /**
+         * 某个步骤的执行延迟.
+         *
+         * @param activityCode 领域活动
+         * @param stepCode     步骤编号
+         * @return null if the step never executed
+         */
+        public LatencyHistogram.Snapshot stepLatency(@NonNull String activityCode, @NonNull String stepCode) {
+            return stepLatencies.get(key(activityCode, stepCode));
+        }
+
+        /**
+         * 所有动态加载扩展点的调用延迟.
+         *
+         * @return key is {partnerCode}@{version}
+         */
+        public SortedMap<String, LatencyHistogram.Snapshot> getPluginLatencies() {
+            return pluginLatencies;
+        }
+
+        /**
+         * 某个Plugin版本里扩展点的调用延迟.
+         *
+         * @param pluginKey {partnerCode}@{version}
+         * @return null if never called
+         */
+        public LatencyHistogram.Snapshot pluginLatency(@NonNull String pluginKey) {
+            return pluginLatencies.get(pluginKey);
+        }
+    }
+}
@@ -6,17 +6,28 @@
 package io.github.dddplus.runtime;
 
 import io.github.dddplus.model.IDomainModel;
+import io.github.dddplus.runtime.registry.InternalIndexer;
+import io.github.dddplus.runtime.registry.StepsPlan;
+import io.github.dddplus.runtime.saga.ISagaCodec;
+import io.github.dddplus.runtime.saga.ISagaJournal;
+import io.github.dddplus.runtime.saga.PendingSaga;
+import io.github.dddplus.runtime.saga.SagaSupport;
+import io.github.dddplus.step.IBatchDomainStep;
 import io.github.dddplus.step.IDomainStep;
 import io.github.dddplus.step.IReviseStepsException;
 import io.github.dddplus.step.IRevokableDomainStep;
+import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.MDC;
 import org.springframework.aop.support.AopUtils;
 import org.springframework.core.ResolvableType;
 import org.springframework.scheduling.SchedulingTaskExecutor;
 
 import java.util.*;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.UnaryOperator;
 
 /**
  * 步骤编排的模板方法类.
@@ -32,12 +43,110 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
 
     private static final int MAX_STEP_REVISIONS = 100;
 
+    // BLOCK提交策略下线程池满时的退避区间
+    private static final long BLOCK_BACKOFF_MIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long BLOCK_BACKOFF_MAX_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    // {template class, Step.Ex type}: 泛型在运行时不会变，每个模板类只解析一次
+    private static final Map<Class<?>, Class> stepExTypes = new ConcurrentHashMap<>();
+
+    // {activityCode, 在途异步步骤的额度}, 不限制的领域活动为NO_LIMIT
+    private final Map<String, Semaphore> asyncStepPermits = new ConcurrentHashMap<>();
+    private static final Semaphore NO_LIMIT = new Semaphore(0);
+
     protected void beforeStep(Step step, Model model) {
     }
 
     protected void afterStep(Step step, Model model) {
     }
 
+    /**
+     * 慢步骤的阈值，in ms.
+     * <p>
+     * <p>默认0：不检测. 大于0时，步骤执行超过该时长，在执行线程上采样调用栈并回调{@link #onSlowStep(IDomainStep, IDomainModel, long, StackTraceElement[])}.</p>
+     * <p>无论是否检测慢步骤，每个步骤的执行延迟都会记录到{@link RuntimeMetrics}.</p>
+     */
+    protected long slowStepThresholdInMs() {
+        return 0;
+    }
+
+    /**
+     * 发现了慢步骤：步骤仍在执行.
+     * <p>
+     * <p>在框架的watchdog线程里回调，不能阻塞. 默认打印采样的调用栈.</p>
+     *
+     * @param step        慢步骤
+     * @param model       领域模型
+     * @param elapsedInMs 已执行时长
+     * @param stackTrace  执行该步骤的线程的调用栈采样，best effort: 步骤可能恰好结束
+     */
+    protected void onSlowStep(Step step, Model model, long elapsedInMs, StackTraceElement[] stackTrace) {
+        StringBuilder sb = new StringBuilder();
+        for (StackTraceElement element : stackTrace) {
+            sb.append("\n\tat ").append(element);
+        }
+        log.warn("slow step:{}.{} over {}ms{}", step.activityCode(), step.stepCode(), elapsedInMs, sb);
+    }
+
+    /**
+     * 异步步骤的最长等待时间，in ms.
+     * <p>
+     * <p>默认0：不等待，即fire and forget.</p>
+     * <p>大于0：{@code execute}返回之前等待所有的异步步骤结束，总共最多等待该时长；异步步骤的失败与超时汇总为{@link AsyncStepsException}抛出.</p>
+     * <p>IMPORTANT: 被线程池丢弃的异步步骤(e,g. DiscardPolicy)永远不会结束，会表现为超时.</p>
+     */
+    protected long asyncStepsJoinTimeoutInMs() {
+        return 0;
+    }
+
+    /**
+     * 等待异步步骤时，执行成功的异步步骤是否参与回滚.
+     * <p>
+     * <p>默认不参与. 只有{@link #asyncStepsJoinTimeoutInMs()}大于0时才生效.</p>
+     */
+    protected boolean asyncStepsRevokable() {
+        return false;
+    }
+
+    /**
+     * 线程池满或者超过在途上限时，异步步骤的提交策略.
+     * <p>
+     * <p>默认{@link AsyncStepSubmitPolicy#ABORT}：抛出{@link RejectedExecutionException}.</p>
+     */
+    protected AsyncStepSubmitPolicy asyncStepSubmitPolicy() {
+        return AsyncStepSubmitPolicy.ABORT;
+    }
+
+    /**
+     * {@link AsyncStepSubmitPolicy#BLOCK}时的最长等待时间，in ms.
+     */
+    protected long asyncStepSubmitTimeoutInMs() {
+        return 100;
+    }
+
+    /**
+     * 某个领域活动在途(已提交尚未结束)的异步步骤数上限，突发流量时按提交策略平滑降级.
+     * <p>
+     * <p>默认0：不限制. 每个领域活动只在首次提交时读取一次.</p>
+     * <p>IMPORTANT: 限制在途数时，线程池不能使用静默丢弃任务的拒绝策略(e,g. DiscardPolicy)，否则被丢弃的步骤永远占用额度.</p>
+     *
+     * @param activityCode 领域活动
+     */
+    protected int asyncStepsMaxInFlight(String activityCode) {
+        return 0;
+    }
+
+    /**
+     * 持久化的saga日志及其编解码，进程意外退出后可以通过{@link #recoverSagas(String)}完成回滚.
+     * <p>
+     * <p>默认null：回滚记录只在内存里. 只对{@code execute}与{@code executeInParallel}生效，批量执行不记录.</p>
+     *
+     * @see io.github.dddplus.runtime.saga.MappedSagaJournal
+     */
+    protected SagaSupport<Model> sagaSupport() {
+        return null;
+    }
+
     /**
      * 同步执行编排好的步骤.
      * <p>
@@ -62,17 +171,23 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
      * <ul>
      * <li>需要使用者保证线程安全性!</li>
      * <li>beforeStep/afterStep的执行，都是同步的，都在主线程内执行</li>
-     * <li>异步执行的步骤的异常都被忽略，不会触发回滚</li>
      * <li>不支持在异步执行的步骤里修订后续步骤</li>
+     * <li>线程池满或超过在途上限时的行为，由{@link #asyncStepSubmitPolicy()}决定</li>
+     * </ul>
+     * <p>默认{@link #asyncStepsJoinTimeoutInMs()}为0，async steps executes in fire and forget mode：异步步骤的异常都被忽略，不会触发回滚.</p>
+     * <p>{@link #asyncStepsJoinTimeoutInMs()}大于0时，返回之前在该时长内等待所有的异步步骤结束，包括因同步步骤失败或线程池满而抛出异常时：</p>
+     * <ul>
+     * <li>异步步骤的失败与超时汇总为{@link AsyncStepsException}抛出；同步步骤失败时以同步步骤的异常为准</li>
+     * <li>{@link #asyncStepsRevokable()}时，执行成功的异步步骤与同步步骤一起回滚，异步步骤抛出的业务异常也会触发回滚；超时不回滚</li>
      * </ul>
-     * <p>In all, async steps executes in fire and forget mode!</p>
      *
      * @param activityCode   领域活动
      * @param stepCodes      待执行的的领域步骤
      * @param model          领域模型
      * @param taskExecutor   异步执行的线程池容器
-     * @param asyncStepCodes 异步执行的步骤. Attention: 异步执行的任务，在失败时是不会触发回滚的
+     * @param asyncStepCodes 异步执行的步骤. Attention: 默认失败时不会触发回滚，见{@link #asyncStepsRevokable()}
      * @throws RuntimeException 步骤执行时抛出的异常，统一封装为 RuntimeException
+     * @throws AsyncStepsException 等待异步步骤时，它们失败或者超时
      */
     public final void execute(String activityCode, List<String> stepCodes, Model model,
                               SchedulingTaskExecutor taskExecutor, Set<String> asyncStepCodes) throws RuntimeException {
@@ -81,17 +196,324 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
             return;
         }
 
-        Stack<IRevokableDomainStep> executedSteps = new Stack<>();
+        Stack<IRevokableDomainStep> executedSteps = newExecutedSteps(activityCode, model);
+        try {
+            // 需要等待时才跟踪异步步骤，跨步骤修订
+            final List<AsyncStep> asyncSteps = asyncStepsJoinTimeoutInMs() > 0 ? new ArrayList<>() : null;
+            executeWithRevisions(activityCode, stepCodes, model,
+                    codes -> executeSteps(activityCode, codes, executedSteps, model, taskExecutor, asyncStepCodes, asyncSteps));
+
+            if (asyncSteps != null && !asyncSteps.isEmpty()) {
+                AsyncStepsException asyncStepsException = joinAsyncSteps(asyncSteps, executedSteps);
+                if (asyncStepsException != null) {
+                    log.error("Async steps of {} fails: {}", activityCode, asyncStepsException.getMessage());
+                    // 异步步骤参与回滚时，与同步步骤相同的异常规则；超时不回滚
+                    RuntimeException businessCause = asyncStepsRevokable() ? asyncStepsException.businessCause(resolveStepExType()) : null;
+                    if (businessCause != null && !executedSteps.empty()) {
+                        safeRollbackExecutedSteps(activityCode, model, businessCause, executedSteps);
+                    }
+
+                    throw asyncStepsException;
+                }
+            }
+        } finally {
+            endSaga(executedSteps);
+        }
+    }
+
+    /**
+     * 按照步骤之间的依赖关系({@link io.github.dddplus.annotation.Step#dependsOn()})，并行执行编排好的步骤.
+     * <p>
+     * <p>待执行的步骤构成一个DAG：没有依赖关系的步骤在线程池里并行执行，所依赖的步骤都执行成功后才执行该步骤.</p>
+     * <p>依赖关系只在本次待执行的步骤之间生效：所依赖的步骤不在{@code stepCodes}里，则忽略该依赖.</p>
+     * <p>注意事项：</p>
+     * <ul>
+     * <li>需要使用者保证model的线程安全性!</li>
+     * <li>beforeStep/afterStep在执行该步骤的线程内执行，调用方线程的上下文通过{@link ContextPropagation}传递</li>
+     * <li>某个步骤失败后，尚未开始的步骤不再执行；等正在执行的步骤结束后，按照步骤完成顺序的反方向回滚</li>
+     * <li>步骤里修订后续步骤：等正在执行的步骤结束后，对修订后的步骤重新构建DAG并执行</li>
+     * <li>线程池满时，该步骤在提交它的线程里执行</li>
+     * </ul>
+     *
+     * @param activityCode 领域活动
+     * @param stepCodes    待执行的的领域步骤
+     * @param model        领域模型
+     * @param taskExecutor 并行执行步骤的线程池容器
+     * @throws IllegalArgumentException 步骤之间存在循环依赖
+     * @throws RuntimeException         步骤执行时抛出的异常，统一封装为 RuntimeException
+     */
+    public final void executeInParallel(String activityCode, List<String> stepCodes, Model model,
+                                        @NonNull SchedulingTaskExecutor taskExecutor) throws RuntimeException {
+        if (stepCodes == null || stepCodes.isEmpty()) {
+            log.warn("Empty steps of activity:{} on {}", activityCode, model);
+            return;
+        }
+
+        // Stack is synchronized: 步骤在多个线程里完成
+        Stack<IRevokableDomainStep> executedSteps = newExecutedSteps(activityCode, model);
+        try {
+            executeWithRevisions(activityCode, stepCodes, model,
+                    codes -> executeStepsInParallel(activityCode, codes, executedSteps, model, taskExecutor));
+        } finally {
+            endSaga(executedSteps);
+        }
+    }
+
+    /**
+     * 恢复进程意外退出时尚未完成的saga：按执行顺序的反方向回滚已执行的步骤.
+     * <p>
+     * <p>通常在启动时调用，e,g. {@link IStartupListener}.</p>
+     * <p>需要{@link #sagaSupport()}.</p>
+     *
+     * @param activityCode 领域活动：只恢复该领域活动的saga
+     * @return 恢复的saga数量
+     * @throws IllegalStateException 没有启用saga日志
+     */
+    public final int recoverSagas(@NonNull String activityCode) throws IllegalStateException {
+        final SagaSupport<Model> saga = sagaSupport();
+        if (saga == null) {
+            throw new IllegalStateException("saga journal not enabled: " + this.getClass().getCanonicalName());
+        }
+
+        final ISagaJournal journal = saga.getJournal();
+        final ISagaCodec<Model> codec = saga.getCodec();
+
+        int recovered = 0;
+        for (PendingSaga pending : journal.pendingSagas()) {
+            if (!activityCode.equals(pending.getActivityCode())) {
+                continue;
+            }
+
+            List<IDomainStep> steps = InternalIndexer.findStepsPlan(activityCode, pending.getExecutedSteps()).getSteps();
+            JournaledSteps executedSteps = new JournaledSteps(journal, pending.getSagaId());
+            for (IDomainStep step : steps) {
+                executedSteps.restore((IRevokableDomainStep) step);
+            }
+
+            log.warn("recovering {}, {} steps to rollback", pending, executedSteps.size());
+            if (!pending.getInDoubtSteps().isEmpty()) {
+                // 与进程内的回滚一致：失败的步骤本身不回滚，可能已部分生效，需要人工核对
+                log.error("saga:{} steps started but not completed, NOT rolled back: {}", pending.getSagaId(), pending.getInDoubtSteps());
+            }
+            if (!executedSteps.empty()) {
+                safeRollbackExecutedSteps(activityCode, codec.decode(activityCode, pending.getPayload()), codec.recoveryCause(pending), executedSteps);
+            }
+            journal.end(pending.getSagaId());
+            recovered++;
+        }
+
+        return recovered;
+    }
+
+    /**
+     * 对一批领域模型执行同一组编排好的步骤.
+     * <p>
+     * <p>模型被切分为若干块(chunk)，每块内按步骤推进：实现了{@link IBatchDomainStep}的步骤一次处理整块，其他步骤逐个模型执行.</p>
+     * <p>每个模型的语义与{@link #execute(String, List, IDomainModel)}相同：</p>
+     * <ul>
+     * <li>某个模型失败，只回滚该模型已执行的步骤，该模型不再执行后续步骤，不影响同一块里的其他模型</li>
+     * <li>某个模型修订了后续步骤，该模型离开所在的块，单独执行修订后的步骤</li>
+     * <li>批量步骤：beforeStep在批量执行前对每个模型调用一次，afterStep在成功后对每个模型调用一次</li>
+     * <li>批量步骤抛出异常时，该批模型都以该异常失败；{@link IBatchDomainStep#fallbackOnBatchFailure()}时改为逐个模型执行该步骤，不再调用beforeStep</li>
+     * </ul>
+     * <p>指定了taskExecutor时，多个块并行执行，需要使用者保证步骤的线程安全性；线程池满时，该块在调用方线程执行.</p>
+     *
+     * @param activityCode 领域活动
+     * @param stepCodes    待执行的的领域步骤
+     * @param models       领域模型
+     * @param chunkSize    每块的模型数量
+     * @param taskExecutor 并行执行块的线程池容器, null则顺序执行
+     * @return 执行失败的模型及其异常，key是模型在models里的下标; empty if all succeeded
+     */
+    public final SortedMap<Integer, RuntimeException> executeBatch(String activityCode, List<String> stepCodes, @NonNull List<Model> models,
+                                                                  int chunkSize, SchedulingTaskExecutor taskExecutor) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        SortedMap<Integer, RuntimeException> failures = new TreeMap<>();
+        if (stepCodes == null || stepCodes.isEmpty() || models.isEmpty()) {
+            log.warn("Empty steps of activity:{} on {} models", activityCode, models.size());
+            return failures;
+        }
+
+        final StepsPlan plan = InternalIndexer.findStepsPlan(activityCode, stepCodes);
+        if (taskExecutor == null || models.size() <= chunkSize) {
+            for (int offset = 0; offset < models.size(); offset += chunkSize) {
+                failures.putAll(executeChunk(activityCode, plan, models, offset, Math.min(offset + chunkSize, models.size())));
+            }
+            return failures;
+        }
+
+        ContextPropagation.Snapshot context = ContextPropagation.capture();
+        List<FutureTask<Map<Integer, RuntimeException>>> chunks = new ArrayList<>();
+        for (int offset = 0; offset < models.size(); offset += chunkSize) {
+            final int from = offset;
+            final int to = Math.min(offset + chunkSize, models.size());
+            FutureTask<Map<Integer, RuntimeException>> chunk = new FutureTask<>(context.wrap(() -> executeChunk(activityCode, plan, models, from, to)));
+            try {
+                taskExecutor.execute(chunk);
+            } catch (RejectedExecutionException e) {
+                // caller runs
+                chunk.run();
+            }
+            chunks.add(chunk);
+        }
+
+        boolean interrupted = false;
+        for (FutureTask<Map<Integer, RuntimeException>> chunk : chunks) {
+            while (true) {
+                try {
+                    failures.putAll(chunk.get());
+                    break;
+                } catch (InterruptedException e) {
+                    // 块里的模型可能已经执行了部分步骤：必须等待其结束
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return failures;
+    }
+
+    // 执行models[from, to)，return failures
+    private Map<Integer, RuntimeException> executeChunk(String activityCode, StepsPlan plan, List<Model> models, int from, int to) {
+        final int n = to - from;
+        Map<Integer, RuntimeException> failures = new HashMap<>();
+        Map<Integer, List<String>> revisedSteps = new LinkedHashMap<>();
+        List<Stack<IRevokableDomainStep>> executedSteps = new ArrayList<>(n);
+        boolean[] stopped = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            executedSteps.add(new Stack<>());
+        }
+
+        int active = n;
+        for (IDomainStep domainStep : plan.getSteps()) {
+            if (active == 0) {
+                break;
+            }
+
+            final Step step = (Step) domainStep;
+            final boolean batched = step instanceof IBatchDomainStep && active > 1;
+            // key: 模型在块里的下标
+            final Map<Integer, RuntimeException> beforeStepFailures = batched ? new HashMap<>() : Collections.emptyMap();
+            final RuntimeException batchFailure = batched ? executeBatchStep(activityCode, step, models, from, stopped, beforeStepFailures) : null;
+            final boolean fallback = batchFailure != null && ((IBatchDomainStep<Model, ?>) step).fallbackOnBatchFailure();
+            for (int i = 0; i < n; i++) {
+                if (stopped[i]) {
+                    continue;
+                }
+
+                final Model model = models.get(from + i);
+                try {
+                    if (!batched) {
+                        beforeStep(step, model);
+                        executeProfiled(activityCode, step, model);
+                    } else if (beforeStepFailures.containsKey(i)) {
+                        throw beforeStepFailures.get(i);
+                    } else if (batchFailure != null) {
+                        if (!fallback) {
+                            throw batchFailure;
+                        }
+                        // 批量执行是all or nothing的：逐个执行以确定每个模型的结果，beforeStep已经调用过
+                        executeProfiled(activityCode, step, model);
+                    }
+                    afterStep(step, model);
+
+                    if (step instanceof IRevokableDomainStep) {
+                        executedSteps.get(i).push((IRevokableDomainStep) step);
+                    }
+                } catch (RuntimeException cause) {
+                    stopped[i] = true;
+                    active--;
+                    if (cause instanceof IReviseStepsException) {
+                        RuntimeMetrics.increment(activityCode, RuntimeMetrics.STEP_REVISIONS);
+                        revisedSteps.put(i, ((IReviseStepsException) cause).subsequentSteps());
+                        continue;
+                    }
+
+                    log.error("Step:{}.{} fails for model#{}", activityCode, step.stepCode(), from + i, cause);
+                    if (!executedSteps.get(i).empty() && cause.getClass() == resolveStepExType()) {
+                        safeRollbackExecutedSteps(activityCode, model, cause, executedSteps.get(i));
+                    }
+                    failures.put(from + i, cause);
+                }
+            }
+        }
+
+        // 修订了后续步骤的模型，单独执行
+        for (Map.Entry<Integer, List<String>> entry : revisedSteps.entrySet()) {
+            final int i = entry.getKey();
+            final Model model = models.get(from + i);
+            final Stack<IRevokableDomainStep> stack = executedSteps.get(i);
+            log.info("model#{} revised steps:{}", from + i, entry.getValue());
+            try {
+                executeWithRevisions(activityCode, entry.getValue(), model,
+                        codes -> executeSteps(activityCode, codes, stack, model, null, null, null));
+            } catch (RuntimeException cause) {
+                failures.put(from + i, cause);
+            }
+        }
+
+        return failures;
+    }
+
+    // 对每个模型调用一次beforeStep并批量执行，afterStep由调用方逐个模型调用
+    // return the batch failure, null if succeeded
+    private RuntimeException executeBatchStep(String activityCode, Step step, List<Model> models, int from, boolean[] stopped,
+                                              Map<Integer, RuntimeException> beforeStepFailures) {
+        List<Model> batch = new ArrayList<>(stopped.length);
+        for (int i = 0; i < stopped.length; i++) {
+            if (stopped[i]) {
+                continue;
+            }
+
+            final Model model = models.get(from + i);
+            try {
+                beforeStep(step, model);
+                batch.add(model);
+            } catch (RuntimeException cause) {
+                // 只影响该模型
+                beforeStepFailures.put(i, cause);
+            }
+        }
+        if (batch.isEmpty()) {
+            return null;
+        }
+
+        try {
+            final long t0 = System.nanoTime();
+            ((IBatchDomainStep<Model, ?>) step).executeBatch(batch);
+            // 批量执行记为一个样本
+            RuntimeMetrics.recordStep(activityCode, step.stepCode(), System.nanoTime() - t0);
+            return null;
+        } catch (RuntimeException cause) {
+            log.warn("Step:{}.{} batch of {} fails, fallback:{}, {}", activityCode, step.stepCode(), batch.size(),
+                    ((IBatchDomainStep<Model, ?>) step).fallbackOnBatchFailure(), cause.toString());
+            return cause;
+        }
+    }
+
+    private void executeWithRevisions(String activityCode, List<String> stepCodes, Model model, UnaryOperator<List<String>> executor) {
         int stepRevisions = 0;
         while (++stepRevisions < MAX_STEP_REVISIONS) {
             // 执行步骤的过程中，可能会产生修订步骤逻辑
-            stepCodes = executeSteps(activityCode, stepCodes, executedSteps, model, taskExecutor, asyncStepCodes);
+            stepCodes = executor.apply(stepCodes);
             if (stepCodes.isEmpty()) {
                 // 不再有步骤修订了：所有步骤都执行完毕
                 break;
             }
 
             // 修订了后续步骤，记录个日志，then next loop
+            RuntimeMetrics.increment(activityCode, RuntimeMetrics.STEP_REVISIONS);
             log.info("revised steps:{}", stepCodes);
         }
 
@@ -104,14 +526,16 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
 
     // return revised steps
     private List<String> executeSteps(String activityCode, List<String> stepCodes, Stack<IRevokableDomainStep> executedSteps, Model model,
-                                      SchedulingTaskExecutor taskExecutor, Set<String> asyncStepCodes) throws RuntimeException {
+                                      SchedulingTaskExecutor taskExecutor, Set<String> asyncStepCodes, List<AsyncStep> asyncSteps) throws RuntimeException {
         if (asyncStepCodes == null || taskExecutor == null) {
             // the sentry
             asyncStepCodes = emptyAsyncSteps;
         }
 
-        List<Step> steps = DDD.findSteps(activityCode, stepCodes);
+        List<Step> steps = (List<Step>) InternalIndexer.findStepsPlan(activityCode, stepCodes).getSteps();
         String currentStepCode = null;
+        ContextPropagation.Snapshot context = null; // 有异步步骤时才捕获，所有异步步骤共享
+
         try {
             for (Step step : steps) {
                 currentStepCode = step.stepCode();
@@ -120,10 +544,22 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
                 beforeStep(step, model);
 
                 if (asyncStepCodes.contains(currentStepCode)) {
-                    // for async steps, fire and forget!
-                    asyncExecuteStep(taskExecutor, step, model);
+                    if (context == null) {
+                        context = ContextPropagation.capture();
+                    }
+                    if (asyncSteps != null) {
+                        // tracked, joined before execute returns
+                        FutureTask<Void> future = trackedAsyncExecuteStep(activityCode, taskExecutor, step, model, context);
+                        if (future != null) {
+                            asyncSteps.add(new AsyncStep(step, future));
+                        }
+                    } else {
+                        // for async steps, fire and forget!
+                        asyncExecuteStep(activityCode, taskExecutor, step, model, context);
+                    }
                 } else {
-                    step.execute(model);
+                    stepStarted(executedSteps, step);
+                    executeProfiled(activityCode, step, model);
                 }
 
                 afterStep(step, model);
@@ -143,6 +579,15 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
 
             log.error("Step:{}.{} fails for {}", activityCode, currentStepCode, stepCodes, cause);
 
+            if (asyncSteps != null && !asyncSteps.isEmpty()) {
+                // 先等待异步步骤结束：返回时不会有仍在运行的异步步骤，它们也才可能参与回滚
+                // 异步步骤的失败只记录日志，以同步步骤的异常为准
+                AsyncStepsException ignored = joinAsyncSteps(asyncSteps, executedSteps);
+                if (ignored != null) {
+                    log.error("Async steps of {} fails: {}", activityCode, ignored.getMessage());
+                }
+            }
+
             if (cause instanceof RejectedExecutionException) {
                 // taskExecutor thread pool full!
                 throw (RejectedExecutionException) cause;
@@ -153,7 +598,7 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
                 if (cause.getClass() == resolveStepExType()) { // Step必定是同一个ClassLoader加载的：中台统一加载
                     // 如果是Step的泛型里定义的异常，则回滚：回滚都是同步的
                     // 其他异常，不是业务显式抛出的，状态下确定，框架不敢擅自回滚：只能向上抛出，交由使用者处理
-                    safeRollbackExecutedSteps(model, (RuntimeException) cause, executedSteps);
+                    safeRollbackExecutedSteps(activityCode, model, (RuntimeException) cause, executedSteps);
                 } else {
                     // 其他类异常不回滚
                     log.debug("will not rollback, {} thrown", cause.getClass().getCanonicalName());
@@ -167,21 +612,219 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
         return emptyRevisedSteps;
     }
 
-    private void asyncExecuteStep(SchedulingTaskExecutor taskExecutor, Step step, Model model) {
-        Map<String, String> mdcContext = MDC.getCopyOfContextMap();
-        taskExecutor.execute(() -> {
-            // 切换到线程池，ThreadLocal会失效，目前ThreadLocal只有MDC
-            // 如果业务系统有自己的ThreadLocal，可以通过 beforeStep/afterStep 机制进行处理
-            MDC.setContextMap(mdcContext);
+    // return revised steps
+    private List<String> executeStepsInParallel(String activityCode, List<String> stepCodes, Stack<IRevokableDomainStep> executedSteps, Model model,
+                                                SchedulingTaskExecutor taskExecutor) throws RuntimeException {
+        StepsDag dag = new StepsDag(InternalIndexer.findStepsPlan(activityCode, stepCodes), model, executedSteps, taskExecutor);
+        dag.run();
+
+        Throwable cause = dag.failure.get();
+        if (cause == null) {
+            return emptyRevisedSteps;
+        }
+
+        if (cause instanceof IReviseStepsException) {
+            // 正在执行的步骤都已结束，按修订后的步骤重新构建DAG
+            return ((IReviseStepsException) cause).subsequentSteps();
+        }
+
+        log.error("Step:{}.{} fails for {}", activityCode, dag.failedStepCode, stepCodes, cause);
+
+        if (cause instanceof RejectedExecutionException) {
+            // taskExecutor thread pool full!
+            throw (RejectedExecutionException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+
+        // best effort rollback if necessary，与同步执行的回滚条件相同
+        if (!executedSteps.empty() && cause instanceof RuntimeException) {
+            if (cause.getClass() == resolveStepExType()) {
+                safeRollbackExecutedSteps(activityCode, model, (RuntimeException) cause, executedSteps);
+            } else {
+                log.debug("will not rollback, {} thrown", cause.getClass().getCanonicalName());
+            }
+        }
+
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new RuntimeException(cause);
+    }
+
+    private void executeProfiled(String activityCode, Step step, Model model) {
+        final long slowStepThresholdInMs = slowStepThresholdInMs();
+        final ScheduledFuture<?> watchdog = slowStepThresholdInMs > 0 ?
+                watchSlowStep(activityCode, step, model, slowStepThresholdInMs) : null;
+        final long t0 = System.nanoTime();
+        try {
+            step.execute(model);
+        } finally {
+            RuntimeMetrics.recordStep(activityCode, step.stepCode(), System.nanoTime() - t0);
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+    }
+
+    private ScheduledFuture<?> watchSlowStep(String activityCode, Step step, Model model, long thresholdInMs) {
+        final Thread thread = Thread.currentThread();
+        return SlowStepWatchdog.scheduler.schedule(() -> {
+            RuntimeMetrics.increment(activityCode, RuntimeMetrics.SLOW_STEPS);
             try {
-                step.execute(model); // IMPORTANT: model must be thread safe!
-            } finally {
-                MDC.clear();
+                onSlowStep(step, model, thresholdInMs, thread.getStackTrace());
+            } catch (Throwable ignored) {
+                log.error("onSlowStep err ignored", ignored);
             }
+        }, thresholdInMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void asyncExecuteStep(String activityCode, SchedulingTaskExecutor taskExecutor, Step step, Model model, ContextPropagation.Snapshot context) {
+        // 切换到线程池，ThreadLocal会失效，通过上下文快照传递
+        // 业务系统自己的ThreadLocal，可以注册 IContextPropagator 进行处理
+        submitAsyncStep(activityCode, taskExecutor, step, context.wrap(() -> {
+            executeProfiled(activityCode, step, model); // IMPORTANT: model must be thread safe!
+        }));
+    }
+
+    // return null if shed
+    private FutureTask<Void> trackedAsyncExecuteStep(String activityCode, SchedulingTaskExecutor taskExecutor, Step step, Model model, ContextPropagation.Snapshot context) {
+        FutureTask<Void> future = new FutureTask<>(context.wrap(() -> {
+            executeProfiled(activityCode, step, model); // IMPORTANT: model must be thread safe!
+        }), null);
+        return submitAsyncStep(activityCode, taskExecutor, step, future) ? future : null;
+    }
+
+    // return false if shed
+    private boolean submitAsyncStep(String activityCode, SchedulingTaskExecutor taskExecutor, Step step, Runnable task) {
+        final AsyncStepSubmitPolicy policy = asyncStepSubmitPolicy();
+        final long deadline = policy == AsyncStepSubmitPolicy.BLOCK ?
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(asyncStepSubmitTimeoutInMs()) : 0;
+
+        Semaphore permits = asyncStepPermits.computeIfAbsent(activityCode, code -> {
+            int maxInFlight = asyncStepsMaxInFlight(code);
+            return maxInFlight > 0 ? new Semaphore(maxInFlight) : NO_LIMIT;
         });
+        if (permits == NO_LIMIT) {
+            permits = null;
+        } else if (!acquirePermit(permits, deadline)) {
+            return onAsyncStepOverload(activityCode, step, task, policy,
+                    new RejectedExecutionException("in-flight async steps of " + activityCode + " exceeds limit"));
+        }
+
+        final Semaphore acquired = permits;
+        final Runnable command = acquired == null ? task : () -> {
+            try {
+                task.run();
+            } finally {
+                acquired.release();
+            }
+        };
+        long backoffNanos = BLOCK_BACKOFF_MIN_NANOS;
+        while (true) {
+            try {
+                taskExecutor.execute(command);
+                return true;
+            } catch (RejectedExecutionException e) {
+                if (deadline != 0 && System.nanoTime() < deadline) {
+                    // 线程池满：退避后重试
+                    LockSupport.parkNanos(backoffNanos);
+                    backoffNanos = Math.min(backoffNanos << 1, BLOCK_BACKOFF_MAX_NANOS);
+                    continue;
+                }
+
+                if (acquired != null) {
+                    acquired.release();
+                }
+                return onAsyncStepOverload(activityCode, step, task, policy, e);
+            }
+        }
+    }
+
+    private boolean acquirePermit(Semaphore permits, long deadline) {
+        if (deadline == 0) {
+            return permits.tryAcquire();
+        }
+
+        try {
+            return permits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // return false if shed
+    private boolean onAsyncStepOverload(String activityCode, Step step, Runnable task, AsyncStepSubmitPolicy policy, RejectedExecutionException cause) {
+        switch (policy) {
+            case CALLER_RUNS:
+                RuntimeMetrics.increment(activityCode, RuntimeMetrics.ASYNC_STEP_CALLER_RUNS);
+                log.warn("Step:{}.{} runs in caller thread: {}", activityCode, step.stepCode(), cause.getMessage());
+                try {
+                    task.run();
+                } catch (RuntimeException ignored) {
+                    // 与在线程池里执行的异步步骤相同：异常被忽略
+                    log.error("async step:{}.{} err ignored", activityCode, step.stepCode(), ignored);
+                }
+                return true;
+
+            case SHED:
+                RuntimeMetrics.increment(activityCode, RuntimeMetrics.ASYNC_STEP_SHED);
+                log.warn("Step:{}.{} shed: {}", activityCode, step.stepCode(), cause.getMessage());
+                return false;
+
+            default:
+                RuntimeMetrics.increment(activityCode, RuntimeMetrics.ASYNC_STEP_REJECTED);
+                throw cause;
+        }
+    }
+
+    // 在总时长内等待所有异步步骤结束，return null if all succeeded
+    private AsyncStepsException joinAsyncSteps(List<AsyncStep> asyncSteps, Stack<IRevokableDomainStep> executedSteps) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(asyncStepsJoinTimeoutInMs());
+        final boolean revokable = asyncStepsRevokable();
+        Map<String, Throwable> failures = new LinkedHashMap<>();
+        List<String> timedOutSteps = new ArrayList<>();
+        for (AsyncStep asyncStep : asyncSteps) {
+            final String stepCode = asyncStep.step.stepCode();
+            try {
+                asyncStep.future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (revokable && asyncStep.step instanceof IRevokableDomainStep) {
+                    executedSteps.push((IRevokableDomainStep) asyncStep.step);
+                }
+            } catch (ExecutionException e) {
+                failures.put(stepCode, e.getCause() != null ? e.getCause() : e);
+            } catch (TimeoutException e) {
+                asyncStep.future.cancel(true); // best effort
+                timedOutSteps.add(stepCode);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                timedOutSteps.add(stepCode);
+            }
+        }
+        asyncSteps.clear();
+
+        if (failures.isEmpty() && timedOutSteps.isEmpty()) {
+            return null;
+        }
+
+        return new AsyncStepsException(failures, timedOutSteps);
     }
 
     private Class resolveStepExType() {
+        Class stepExType = stepExTypes.get(this.getClass());
+        if (stepExType == null) {
+            stepExType = doResolveStepExType();
+            if (stepExType != null) {
+                stepExTypes.put(this.getClass(), stepExType);
+            }
+        }
+
+        return stepExType;
+    }
+
+    private Class doResolveStepExType() {
         Class thisClass;
         if (AopUtils.isAopProxy(this)) {
             thisClass = AopUtils.getTargetClass(this);
@@ -211,7 +854,8 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
         return null;
     }
 
-    private void safeRollbackExecutedSteps(Model model, RuntimeException cause, Stack<IRevokableDomainStep> executedSteps) {
+    private void safeRollbackExecutedSteps(String activityCode, Model model, RuntimeException cause, Stack<IRevokableDomainStep> executedSteps) {
+        RuntimeMetrics.increment(activityCode, RuntimeMetrics.STEP_ROLLBACKS);
         while (!executedSteps.isEmpty()) {
             // 失败时，按照反方向执行回滚操作：Sagas Pattern, best effort
             IRevokableDomainStep executedStep = executedSteps.pop();
@@ -220,6 +864,229 @@ public abstract class StepsExecTemplate<Step extends IDomainStep, Model extends
             } catch (Throwable ignored) {
                 log.error("step:{} rollback err ignored, model:{}", executedStep.stepCode(), model, ignored);
             }
+
+            if (executedSteps instanceof JournaledSteps) {
+                // best effort: 回滚失败也不再重试
+                ((JournaledSteps) executedSteps).compensated(executedStep);
+            }
+        }
+    }
+
+    private Stack<IRevokableDomainStep> newExecutedSteps(String activityCode, Model model) {
+        final SagaSupport<Model> saga = sagaSupport();
+        if (saga == null) {
+            return new Stack<>();
+        }
+
+        final ISagaJournal journal = saga.getJournal();
+        return new JournaledSteps(journal, journal.begin(activityCode, saga.getCodec().encode(model)));
+    }
+
+    private static void stepStarted(Stack<IRevokableDomainStep> executedSteps, IDomainStep step) {
+        if (executedSteps instanceof JournaledSteps && step instanceof IRevokableDomainStep) {
+            ((JournaledSteps) executedSteps).started((IRevokableDomainStep) step);
+        }
+    }
+
+    private void endSaga(Stack<IRevokableDomainStep> executedSteps) {
+        if (executedSteps instanceof JournaledSteps) {
+            ((JournaledSteps) executedSteps).end();
+        }
+    }
+
+    // 已执行的可回滚步骤，同时记录到saga日志
+    private static final class JournaledSteps extends Stack<IRevokableDomainStep> {
+        private final ISagaJournal journal;
+        private final long sagaId;
+
+        JournaledSteps(ISagaJournal journal, long sagaId) {
+            this.journal = journal;
+            this.sagaId = sagaId;
+        }
+
+        @Override
+        public synchronized IRevokableDomainStep push(IRevokableDomainStep step) {
+            journal.stepExecuted(sagaId, step.stepCode());
+            return super.push(step);
+        }
+
+        void started(IRevokableDomainStep step) {
+            journal.stepStarted(sagaId, step.stepCode());
+        }
+
+        // 恢复时重建，不再记录
+        void restore(IRevokableDomainStep step) {
+            super.push(step);
+        }
+
+        void compensated(IRevokableDomainStep step) {
+            journal.stepCompensated(sagaId, step.stepCode());
+        }
+
+        void end() {
+            journal.end(sagaId);
+        }
+    }
+
+    // lazy holder: 检测慢步骤时才创建线程
+    private static final class SlowStepWatchdog {
+        static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SlowStepWatchdog", true));
+
+        static {
+            // 绝大多数步骤不慢，取消后立即从队列里移除
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    private static final class AsyncStep {
+        private final IDomainStep step;
+        private final Future<Void> future;
+
+        AsyncStep(IDomainStep step, Future<Void> future) {
+            this.step = step;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 一次并行执行：步骤之间的依赖关系构成DAG.
+     * <p>
+     * <p>入度为0的步骤先提交；某个步骤执行成功后，它的后续步骤入度减1，减到0即可执行.</p>
+     */
+    private final class StepsDag {
+        private final String activityCode;
+        private final StepsPlan.Dag dag;
+        private final List<Step> steps;
+        private final AtomicIntegerArray remainingDependencies;
+
+        private final Model model;
+        private final Stack<IRevokableDomainStep> executedSteps;
+        private final SchedulingTaskExecutor taskExecutor;
+        private final ContextPropagation.Snapshot context;
+
+        // 第一个失败(含步骤修订)，之后不再启动新的步骤
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile String failedStepCode;
+
+        // 已提交尚未结束的步骤数, guarded by this
+        private int inFlight;
+
+        StepsDag(StepsPlan plan, Model model, Stack<IRevokableDomainStep> executedSteps, SchedulingTaskExecutor taskExecutor) {
+            this.activityCode = plan.getActivityCode();
+            this.dag = plan.dag();
+            this.steps = (List<Step>) plan.getSteps();
+            this.remainingDependencies = new AtomicIntegerArray(steps.size());
+            for (int i = 0; i < steps.size(); i++) {
+                remainingDependencies.set(i, dag.dependenciesOf(i));
+            }
+
+            this.model = model;
+            this.executedSteps = executedSteps;
+            this.taskExecutor = taskExecutor;
+            this.context = ContextPropagation.capture();
+        }
+
+        void run() {
+            for (int i = 0; i < steps.size(); i++) {
+                if (remainingDependencies.get(i) == 0) {
+                    submit(i);
+                }
+            }
+
+            await();
+        }
+
+        private void submit(int i) {
+            synchronized (this) {
+                inFlight++;
+            }
+
+            final Runnable task = context.wrap(() -> execute(i));
+            try {
+                taskExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // 线程池满：DAG里的步骤不能丢弃，在当前线程执行
+                RuntimeMetrics.increment(activityCode, RuntimeMetrics.ASYNC_STEP_CALLER_RUNS);
+                log.warn("Step:{}.{} runs in caller thread: {}", activityCode, steps.get(i).stepCode(), e.getMessage());
+                task.run();
+            }
+        }
+
+        private void execute(int i) {
+            try {
+                // 后续步骤就绪时，第一个在当前线程里接着执行，减少线程切换和对线程池的占用
+                for (int next = i; next >= 0; ) {
+                    next = executeStep(next);
+                }
+            } finally {
+                done();
+            }
+        }
+
+        // return the ready dependent to execute in current thread, -1 if none
+        private int executeStep(int i) {
+            final Step step = steps.get(i);
+            try {
+                if (failure.get() != null) {
+                    // fail fast: 不再启动新的步骤
+                    return -1;
+                }
+
+                beforeStep(step, model);
+                stepStarted(executedSteps, step);
+                executeProfiled(activityCode, step, model);
+                afterStep(step, model);
+
+                if (step instanceof IRevokableDomainStep) {
+                    // 按照完成顺序入栈，回滚时反方向
+                    executedSteps.push((IRevokableDomainStep) step);
+                }
+
+                int inline = -1;
+                for (int dependent : dag.dependentsOf(i)) {
+                    if (remainingDependencies.decrementAndGet(dependent) == 0) {
+                        if (inline < 0) {
+                            inline = dependent;
+                        } else {
+                            submit(dependent);
+                        }
+                    }
+                }
+                return inline;
+            } catch (Throwable cause) {
+                fail(step, cause);
+                return -1;
+            }
+        }
+
+        private void fail(Step step, Throwable cause) {
+            if (failure.compareAndSet(null, cause)) {
+                failedStepCode = step.stepCode();
+            } else if (!(cause instanceof IReviseStepsException)) {
+                log.error("Step:{} fails after another failure, ignored", step.stepCode(), cause);
+            }
+        }
+
+        private synchronized void done() {
+            if (--inFlight == 0) {
+                notifyAll();
+            }
+        }
+
+        // 必须等待所有已启动的步骤结束：之后才能回滚或者执行修订后的步骤
+        private synchronized void await() {
+            boolean interrupted = false;
+            while (inFlight > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.ext.IIdentity;
+import lombok.Getter;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 灰度中的Partner新版本：与稳定版本并存，按权重分流.
+ */
+class CanaryPartnerDef {
+    static final int MAX_WEIGHT = 100;
+
+    @Getter
+    private final PartnerDef partnerDef;
+
+    // 按业务身份的hashCode分流，同一个业务身份总是路由到同一个版本：前提是业务身份实现了hashCode
+    @Getter
+    private final boolean sticky;
+
+    // 流向灰度版本的百分比
+    @Getter
+    private volatile int weight;
+
+    CanaryPartnerDef(PartnerDef partnerDef, int weight, boolean sticky) {
+        this.partnerDef = partnerDef;
+        this.sticky = sticky;
+        setWeight(weight);
+    }
+
+    void setWeight(int weight) {
+        if (weight < 0 || weight > MAX_WEIGHT) {
+            throw new IllegalArgumentException("canary weight must be in [0, 100]: " + weight);
+        }
+
+        this.weight = weight;
+    }
+
+    boolean routes(IIdentity identity) {
+        final int w = weight;
+        if (w <= 0) {
+            return false;
+        }
+        if (w >= MAX_WEIGHT) {
+            return true;
+        }
+
+        int bucket = sticky ? Math.floorMod(identity.hashCode(), MAX_WEIGHT) : ThreadLocalRandom.current().nextInt(MAX_WEIGHT);
+        return bucket < w;
+    }
+
+    @Override
+    public String toString() {
+        return "Canary(" + partnerDef.getPluginKey() + ", weight:" + weight + "%, sticky:" + sticky + ")";
+    }
+}
@@ -5,7 +5,10 @@
  */
 package io.github.dddplus.runtime.registry;
 
+import io.github.dddplus.runtime.ContextPropagation;
+import io.github.dddplus.runtime.IContextPropagator;
 import io.github.dddplus.runtime.IStartupListener;
+import io.github.dddplus.runtime.IWarmupIdentityProvider;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,6 +19,7 @@ import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -32,6 +36,12 @@ final class DDDBootstrap implements ApplicationListener<ContextRefreshedEvent>,
     @Autowired(required = false)
     private IStartupListener startupListener;
 
+    @Autowired(required = false)
+    private List<IContextPropagator> contextPropagators;
+
+    @Autowired(required = false)
+    private IWarmupIdentityProvider warmupIdentityProvider;
+
     private static ApplicationContext applicationContext;
 
     @Override
@@ -41,6 +51,12 @@ final class DDDBootstrap implements ApplicationListener<ContextRefreshedEvent>,
             return;
         }
 
+        if (contextPropagators != null) {
+            for (IContextPropagator contextPropagator : contextPropagators) {
+                ContextPropagation.register(contextPropagator);
+            }
+        }
+
         long t0 = System.nanoTime();
         log.info("starting Spring, register DDD beans...");
         registryFactory.register(applicationContext);
@@ -54,6 +70,11 @@ final class DDDBootstrap implements ApplicationListener<ContextRefreshedEvent>,
         if (event.getApplicationContext().equals(applicationContext)) {
             log.info("Spring started complete!");
 
+            if (warmupIdentityProvider != null) {
+                // 在对外提供服务之前
+                ExtensionWarmup.warmup(warmupIdentityProvider);
+            }
+
             if (startupListener != null) {
                 log.debug("calling IStartupListener: {}", startupListener.getClass().getCanonicalName());
                 startupListener.onStartComplete();
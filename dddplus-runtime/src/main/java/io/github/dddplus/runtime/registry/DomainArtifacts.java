@@ -10,11 +10,9 @@ import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.NonNull;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -22,18 +20,13 @@ import java.util.stream.Collectors;
  * <p>
  * <p>方便上层集成，例如：构建配置中心，业务可视化平台等.</p>
  * <p>业务抽象的可视化，在构建业务系统时非常重要：平台能力可以透出，需求传递高效.</p>
+ * <p>所有的领域物件都是只读的；插件热更新时整体替换为新的快照，读者不会被阻塞.</p>
  */
 public class DomainArtifacts {
     private static final DomainArtifacts instance = new DomainArtifacts();
 
-    @Getter
-    private List<Domain> domains;
-
-    @Getter
-    private Map<String, List<Step>> steps; // key is activityCode
-
-    @Getter
-    private List<Extension> extensions;
+    // 不可变的快照：写时整体替换，读者无锁
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap());
 
     /**
      * 获取单例的领域物件.
@@ -47,64 +40,139 @@ public class DomainArtifacts {
     private DomainArtifacts() {
     }
 
+    /**
+     * 所有领域，只读.
+     */
+    public List<Domain> getDomains() {
+        return snapshot.domains;
+    }
+
+    /**
+     * 所有领域步骤，key is activityCode，只读.
+     */
+    public Map<String, List<Step>> getSteps() {
+        return snapshot.steps;
+    }
+
+    /**
+     * 所有扩展点，只读.
+     */
+    public List<Extension> getExtensions() {
+        return snapshot.extensions;
+    }
+
+    /**
+     * 全量导出.
+     */
     synchronized void export() {
         // domains
-        this.domains = new ArrayList<>(InternalIndexer.domainDefMap.size());
-        domains.addAll(InternalIndexer.domainDefMap.values().stream().map(domainDef -> new Domain(domainDef.getCode(), domainDef.getName())).collect(Collectors.toList()));
+        List<Domain> domains = InternalIndexer.domainDefMap.values().stream().map(domainDef -> new Domain(domainDef.getCode(), domainDef.getName())).collect(Collectors.toList());
 
         // steps
-        this.steps = new HashMap<>();
+        Map<String, List<Step>> steps = new HashMap<>();
         for (Map.Entry<String, Map<String, StepDef>> entry : InternalIndexer.domainStepDefMap.entrySet()) {
             final String activity = entry.getKey();
-            this.steps.put(activity, new ArrayList<>());
+            List<Step> activitySteps = new ArrayList<>(entry.getValue().size());
             for (StepDef stepDef : entry.getValue().values()) {
-                this.steps.get(activity).add(new Step(activity, stepDef.getCode(), stepDef.getName(), stepDef.getTags()));
+                activitySteps.add(new Step(activity, stepDef.getCode(), stepDef.getName(), stepDef.getTags()));
             }
+            steps.put(activity, Collections.unmodifiableList(activitySteps));
         }
 
-        // extensions
-        this.extensions = new ArrayList<>();
-        // parse indexer pattern extensions
+        // extensions: 先Pattern的扩展点，再只有Partner实现的扩展点
+        Map<Class<? extends IDomainExtension>, List<Pattern>> patternsOfExt = new LinkedHashMap<>();
+        Map<Class<? extends IDomainExtension>, List<Partner>> partnersOfExt = new HashMap<>();
         for (Map.Entry<Class<? extends IDomainExtension>, List<PatternDef>> entry : InternalIndexer.sortedPatternMap.entrySet()) {
-            final Extension extension = new Extension(entry.getKey());
-            for (PatternDef patternDef : entry.getValue()) {
-                extension.getPatterns().add(new Pattern(patternDef.getCode(), patternDef.getName()));
-            }
-            for (PartnerDef partnerDef : InternalIndexer.partnerDefMap.values()) {
-                if (partnerDef.getExtension(extension.ext) != null) {
-                    // 该前台实现了该扩展点
-                    extension.getPartners().add(new Partner(partnerDef.getCode(), partnerDef.getName()));
-                }
-            }
-
-            this.extensions.add(extension);
+            patternsOfExt.put(entry.getKey(), entry.getValue().stream().map(patternDef -> new Pattern(patternDef.getCode(), patternDef.getName())).collect(Collectors.toList()));
         }
-        // parse indexer partner extensions and merge with pattern extensions
         for (PartnerDef partnerDef : InternalIndexer.partnerDefMap.values()) {
+            final Partner partner = new Partner(partnerDef.getCode(), partnerDef.getName());
             for (Class<? extends IDomainExtension> ext : partnerDef.getExtensionDefMap().keySet()) {
-                Extension extensionsOfPattern = null;
-                for (Extension extension : this.extensions) {
-                    if (extension.ext == ext) {
-                        extensionsOfPattern = extension;
-                        break;
-                    }
+                // this extension is implemented only by Partner
+                patternsOfExt.putIfAbsent(ext, Collections.emptyList());
+                List<Partner> partners = partnersOfExt.computeIfAbsent(ext, k -> new ArrayList<>());
+                if (!partners.contains(partner)) {
+                    partners.add(partner);
                 }
+            }
+        }
 
-                if (extensionsOfPattern == null) {
-                    // this extension is implemented only by Partner
-                    final Extension extension = new Extension(ext);
-                    extension.getPartners().add(new Partner(partnerDef.getCode(), partnerDef.getName()));
-                    this.extensions.add(extension);
+        Map<Class<? extends IDomainExtension>, Extension> extensionIndex = new LinkedHashMap<>(patternsOfExt.size());
+        for (Map.Entry<Class<? extends IDomainExtension>, List<Pattern>> entry : patternsOfExt.entrySet()) {
+            extensionIndex.put(entry.getKey(), new Extension(entry.getKey(), entry.getValue(), partnersOfExt.getOrDefault(entry.getKey(), Collections.emptyList())));
+        }
+
+        this.snapshot = new Snapshot(domains, steps, extensionIndex);
+    }
+
+    /**
+     * 增量导出：只有某个Partner发生了变化(e,g. 插件热更新).
+     * <p>
+     * <p>只重建该Partner涉及的扩展点，其他扩展点与领域、步骤沿用原快照里的对象.</p>
+     *
+     * @param previous  被替换的Partner，可能为null
+     * @param committed 新提交的Partner
+     */
+    synchronized void exportPartner(PartnerDef previous, @NonNull PartnerDef committed) {
+        final Snapshot current = this.snapshot;
+        Set<Class<? extends IDomainExtension>> affected = new HashSet<>(committed.getExtensionDefMap().keySet());
+        if (previous != null) {
+            affected.addAll(previous.getExtensionDefMap().keySet());
+        }
+        if (affected.isEmpty()) {
+            return;
+        }
+
+        final String code = committed.getCode();
+        final Partner partner = new Partner(code, committed.getName());
+        Map<Class<? extends IDomainExtension>, Extension> extensionIndex = new LinkedHashMap<>(current.extensionIndex);
+        for (Class<? extends IDomainExtension> ext : affected) {
+            Extension extension = current.extensionIndex.get(ext);
+            List<Pattern> patterns = extension != null ? extension.patterns : Collections.emptyList();
+            List<Partner> partners = extension != null ? new ArrayList<>(extension.partners) : new ArrayList<>(1);
+
+            // 在原位置替换，保持顺序稳定
+            int idx = -1;
+            for (int i = 0; i < partners.size(); i++) {
+                if (partners.get(i).getCode().equals(code)) {
+                    idx = i;
+                    break;
+                }
+            }
+            boolean implemented = committed.getExtensionDefMap().containsKey(ext);
+            if (idx >= 0) {
+                if (implemented) {
+                    partners.set(idx, partner);
                 } else {
-                    // this extension is implemented in both Partner and Pattern
-                    // do the merge
-                    final Partner partner = new Partner(partnerDef.getCode(), partnerDef.getName());
-                    if (!extensionsOfPattern.getPartners().contains(partner)) {
-                        extensionsOfPattern.getPartners().add(partner);
-                    }
+                    partners.remove(idx);
                 }
+            } else if (implemented) {
+                partners.add(partner);
+            }
+
+            if (patterns.isEmpty() && partners.isEmpty()) {
+                // 该扩展点没有实现了
+                extensionIndex.remove(ext);
+            } else {
+                extensionIndex.put(ext, new Extension(ext, patterns, partners));
             }
         }
+
+        this.snapshot = new Snapshot(current.domains, current.steps, extensionIndex);
+    }
+
+    private static final class Snapshot {
+        private final List<Domain> domains;
+        private final Map<String, List<Step>> steps;
+        private final Map<Class<? extends IDomainExtension>, Extension> extensionIndex;
+        private final List<Extension> extensions;
+
+        Snapshot(List<Domain> domains, Map<String, List<Step>> steps, Map<Class<? extends IDomainExtension>, Extension> extensionIndex) {
+            this.domains = Collections.unmodifiableList(domains);
+            this.steps = Collections.unmodifiableMap(steps);
+            this.extensionIndex = extensionIndex;
+            this.extensions = Collections.unmodifiableList(new ArrayList<>(extensionIndex.values()));
+        }
     }
 
     /**
@@ -130,18 +198,18 @@ public class DomainArtifacts {
     }
 
     /**
-     * 扩展点.
+     * 扩展点，只读.
      */
     @Getter
     public static class Extension {
-        private Class<? extends IDomainExtension> ext;
-        private List<Pattern> patterns;
-        private List<Partner> partners;
+        private final Class<? extends IDomainExtension> ext;
+        private final List<Pattern> patterns;
+        private final List<Partner> partners;
 
-        private Extension(Class<? extends IDomainExtension> ext) {
+        private Extension(Class<? extends IDomainExtension> ext, List<Pattern> patterns, List<Partner> partners) {
             this.ext = ext;
-            this.patterns = new ArrayList<>();
-            this.partners = new ArrayList<>();
+            this.patterns = Collections.unmodifiableList(patterns);
+            this.partners = Collections.unmodifiableList(partners);
         }
     }
 
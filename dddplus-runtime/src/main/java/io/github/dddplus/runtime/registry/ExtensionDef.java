@@ -7,6 +7,7 @@ package io.github.dddplus.runtime.registry;
 
 import io.github.dddplus.annotation.Extension;
 import io.github.dddplus.ext.IDomainExtension;
+import io.github.dddplus.runtime.RuntimeMetrics;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.ToString;
@@ -16,7 +17,7 @@ import org.springframework.util.ClassUtils;
 /**
  * 扩展点的内部定义, internal usage only.
  */
-@ToString
+@ToString(exclude = "plugged")
 @Slf4j
 public class ExtensionDef implements IRegistryAware, IPrepareAware {
     @Getter
@@ -31,6 +32,9 @@ public class ExtensionDef implements IRegistryAware, IPrepareAware {
     @Getter
     private IDomainExtension extensionBean;
 
+    // 所属的动态加载的Partner或Pattern，null表示不是动态加载的扩展点
+    private IPluggedDef plugged;
+
     public ExtensionDef() {
     }
 
@@ -44,12 +48,69 @@ public class ExtensionDef implements IRegistryAware, IPrepareAware {
         InternalIndexer.index(this);
     }
 
+    @Override
+    public void registerBean(@NonNull Object bean, Class<? extends IDomainExtension> indexedExtClazz) {
+        if (indexedExtClazz == null || !indexedExtClazz.isInstance(bean)) {
+            registerBean(bean);
+            return;
+        }
+
+        Extension extension = InternalAopUtils.getAnnotation(bean, Extension.class);
+        this.code = extension.code();
+        this.name = extension.name();
+        this.extensionBean = (IDomainExtension) bean;
+        this.extClazz = indexedExtClazz;
+        InternalIndexer.index(this);
+    }
+
     @Override
     public void prepare(@NonNull Object bean) {
         initialize(bean);
         InternalIndexer.prepare(this);
     }
 
+    void pluggedInto(IPluggedDef pluggedDef) {
+        this.plugged = pluggedDef;
+    }
+
+    /**
+     * 所属的动态加载Plugin的版本标识：{partnerCode|patternCode}@{version}.
+     *
+     * @return null if not loaded from a Plugin
+     */
+    public String pluginKey() {
+        return plugged == null ? null : plugged.getPluginKey();
+    }
+
+    /**
+     * 所属的动态加载Plugin版本的运行时指标.
+     *
+     * @return null if not loaded from a Plugin
+     */
+    public RuntimeMetrics.PluginMetrics pluginMetrics() {
+        return plugged == null ? null : plugged.getPluginMetrics();
+    }
+
+    /**
+     * 扩展点方法开始执行，必须与{@link #endInvocation()}成对调用.
+     * <p>
+     * <p>动态加载的扩展点需要跟踪在途调用，以便旧版本的Plugin在调用完成后才被销毁.</p>
+     */
+    public void beginInvocation() {
+        if (plugged != null) {
+            plugged.getInFlight().increment();
+        }
+    }
+
+    /**
+     * 扩展点方法执行结束.
+     */
+    public void endInvocation() {
+        if (plugged != null) {
+            plugged.getInFlight().decrement();
+        }
+    }
+
     private void initialize(Object bean) {
         Extension extension = InternalAopUtils.getAnnotation(bean, Extension.class);
         this.code = extension.code();
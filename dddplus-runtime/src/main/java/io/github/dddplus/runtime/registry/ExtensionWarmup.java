@@ -0,0 +1,91 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.ext.IDomainExtension;
+import io.github.dddplus.ext.IIdentity;
+import io.github.dddplus.runtime.IWarmupIdentityProvider;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 扩展点路由的启动预热，internal only.
+ */
+@Slf4j
+final class ExtensionWarmup {
+
+    private ExtensionWarmup() {
+    }
+
+    /**
+     * 用样本身份预热所有扩展点的路由路径.
+     *
+     * @return 成功路由的次数
+     */
+    static int warmup(@NonNull IWarmupIdentityProvider provider) {
+        List<? extends IIdentity> identities = provider.warmupIdentities();
+        if (identities == null || identities.isEmpty()) {
+            log.warn("{} provides no identity, warmup skipped", provider.getClass().getCanonicalName());
+            return 0;
+        }
+
+        long t0 = System.nanoTime();
+        Set<Class<? extends IDomainExtension>> extClazzSet = dispatchableExtensions();
+        for (Class<? extends IDomainExtension> extClazz : extClazzSet) {
+            // 与 ExtensionInvocationHandler#createProxy 共享JDK的代理类缓存
+            Proxy.getProxyClass(extClazz.getClassLoader(), extClazz);
+        }
+
+        final int rounds = Math.max(1, provider.warmupRounds());
+        int dispatched = 0;
+        // 不适用的{扩展点, 身份类型}组合，只尝试一次
+        Set<String> skipped = new HashSet<>();
+        for (int round = 0; round < rounds; round++) {
+            for (Class<? extends IDomainExtension> extClazz : extClazzSet) {
+                for (IIdentity identity : identities) {
+                    String key = extClazz.getName() + ":" + identity.getClass().getName();
+                    if (skipped.contains(key)) {
+                        continue;
+                    }
+
+                    try {
+                        InternalIndexer.findEffectiveExtensions(extClazz, identity, false);
+                        dispatched++;
+                    } catch (Exception e) {
+                        skipped.add(key);
+                        log.debug("warmup skipped {}: {}", key, e.getMessage());
+                    }
+                }
+            }
+        }
+
+        log.info("warmup {} extensions x {} identities x {} rounds, dispatched:{}, skipped:{}, cost {}ms",
+                extClazzSet.size(), identities.size(), rounds, dispatched, skipped.size(), (System.nanoTime() - t0) / 1000_000);
+        return dispatched;
+    }
+
+    private static Set<Class<? extends IDomainExtension>> dispatchableExtensions() {
+        Set<Class<? extends IDomainExtension>> extClazzSet = new LinkedHashSet<>();
+        for (RouterDef routerDef : InternalIndexer.routerDefMap.values()) {
+            if (routerDef.getExtClazz() != null) {
+                extClazzSet.add(routerDef.getExtClazz());
+            }
+        }
+        extClazzSet.addAll(InternalIndexer.policyDefMap.keySet());
+        extClazzSet.addAll(InternalIndexer.sortedPatternMap.keySet());
+        for (PartnerDef partnerDef : InternalIndexer.partnerDefMap.values()) {
+            extClazzSet.addAll(partnerDef.getExtensionDefMap().keySet());
+        }
+
+        return extClazzSet;
+    }
+}
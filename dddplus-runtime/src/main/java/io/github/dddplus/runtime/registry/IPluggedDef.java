@@ -0,0 +1,31 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.runtime.RuntimeMetrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 动态加载的Partner或Pattern：其下扩展点的在途调用和运行时指标都归属于它.
+ */
+interface IPluggedDef {
+
+    /**
+     * 其下所有扩展点的在途调用数.
+     */
+    LongAdder getInFlight();
+
+    /**
+     * {code}@{version}，null if version not set.
+     */
+    String getPluginKey();
+
+    /**
+     * 设置版本时解析的运行时指标，null if version not set.
+     */
+    RuntimeMetrics.PluginMetrics getPluginMetrics();
+}
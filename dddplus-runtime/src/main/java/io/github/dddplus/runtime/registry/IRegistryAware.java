@@ -5,9 +5,20 @@
  */
 package io.github.dddplus.runtime.registry;
 
+import io.github.dddplus.ext.IDomainExtension;
 import lombok.NonNull;
 
 interface IRegistryAware {
 
     void registerBean(@NonNull Object bean);
+
+    /**
+     * 注册bean，其扩展点接口已经由{@link RegistryIndex}预先解析.
+     *
+     * @param bean     the spring bean
+     * @param indexedExtClazz 预先解析的扩展点接口，null表示需要运行时解析
+     */
+    default void registerBean(@NonNull Object bean, Class<? extends IDomainExtension> indexedExtClazz) {
+        registerBean(bean);
+    }
 }
@@ -10,6 +10,7 @@ import io.github.dddplus.ext.IPolicy;
 import io.github.dddplus.ext.IIdentity;
 import io.github.dddplus.runtime.BaseRouter;
 import io.github.dddplus.runtime.interceptor.IExtensionInterceptor;
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
@@ -30,13 +31,23 @@ public class InternalIndexer {
     static final Map<Class<? extends BaseRouter>, RouterDef> routerDefMap = new HashMap<>();
     static final Map<String, Map<String, StepDef>> domainStepDefMap = new HashMap<>(); // {activityCode, {stepCode, def}}
 
+    // 步骤执行计划的缓存：步骤编排的组合是有限的，超过上限的组合不再缓存
+    static final int MAX_CACHED_STEPS_PLANS = 1024;
+    static final Map<StepsPlanKey, StepsPlan> stepsPlanCache = new ConcurrentHashMap<>();
+
     // 扩展点 Pattern
     static final Map<String, PatternDef> patternDefMap = new HashMap<>();
-    static final Map<Class<? extends IDomainExtension>, List<PatternDef>> sortedPatternMap = new HashMap<>();
+    // 不可变，整体替换：动态加载Pattern时，读取方总是看到完整一致的索引
+    static volatile Map<Class<? extends IDomainExtension>, List<PatternDef>> sortedPatternMap = Collections.emptyMap();
+    // 每个线程prepare自己的Pattern {code, def}：一个Pattern Jar里可以有多个Pattern
+    static final ThreadLocal<Map<String, PatternDef>> patternDefsPrepared = ThreadLocal.withInitial(LinkedHashMap::new);
 
     // 扩展点 Partner
     static final Map<String, PartnerDef> partnerDefMap = new ConcurrentHashMap<>();
-    static PartnerDef partnerDefPrepared = null;
+    // 每个线程prepare自己的Partner：不同Partner的Plugin可以并行加载
+    static final ThreadLocal<PartnerDef> partnerDefPrepared = new ThreadLocal<>();
+    // 灰度中的Partner新版本 {code, def}
+    static final Map<String, CanaryPartnerDef> canaryPartnerDefMap = new ConcurrentHashMap<>();
 
     // 扩展点 Policy
     static final Map<Class<? extends IDomainExtension>, PolicyDef> policyDefMap = new HashMap<>();
@@ -165,7 +176,8 @@ public class InternalIndexer {
         }
 
         // 之后再找Partner，也就几个，因此不在意这个遍历的性能损耗
-        for (PartnerDef partnerDef : partnerDefMap.values()) {
+        for (PartnerDef stablePartnerDef : partnerDefMap.values()) {
+            PartnerDef partnerDef = canaryPartnerDefMap.isEmpty() ? stablePartnerDef : routeCanary(stablePartnerDef, identity);
             ExtensionDef extensionDef = partnerDef.getExtension(extClazz);
             if (extensionDef != null) {
                 if (!partnerDef.match(identity)) {
@@ -180,6 +192,16 @@ public class InternalIndexer {
         return effectiveExtensions;
     }
 
+    // 灰度版本按权重分流
+    private static PartnerDef routeCanary(PartnerDef stablePartnerDef, IIdentity identity) {
+        CanaryPartnerDef canary = canaryPartnerDefMap.get(stablePartnerDef.getCode());
+        if (canary == null || !canary.routes(identity)) {
+            return stablePartnerDef;
+        }
+
+        return canary.getPartnerDef();
+    }
+
     /**
      * 根据指定条件获取匹配的领域活动步骤列表.
      *
@@ -189,13 +211,33 @@ public class InternalIndexer {
      */
     @NonNull
     public static List<StepDef> findDomainSteps(@NonNull String activityCode, @NonNull List<String> stepCodeList) {
+        return findStepsPlan(activityCode, stepCodeList).getStepDefs();
+    }
+
+    /**
+     * 获取领域活动步骤的执行计划.
+     * <p>
+     * <p>执行计划是不可变的，按照{activityCode, stepCodeList}缓存.</p>
+     *
+     * @param activityCode 领域活动码
+     * @param stepCodeList 活动步骤的编号{@code code}列表
+     * @return 执行计划, will never be null
+     */
+    @NonNull
+    public static StepsPlan findStepsPlan(@NonNull String activityCode, @NonNull List<String> stepCodeList) {
+        StepsPlanKey key = new StepsPlanKey(activityCode, stepCodeList);
+        StepsPlan plan = stepsPlanCache.get(key);
+        if (plan != null) {
+            return plan;
+        }
+
         Map<String, StepDef> childMap = domainStepDefMap.get(activityCode);
         if (childMap == null || childMap.isEmpty()) {
             log.error("found NO activity:{}", activityCode);
-            return emptySteps;
+            return new StepsPlan(activityCode, emptySteps);
         }
 
-        List<StepDef> result = new LinkedList<>();
+        List<StepDef> result = new ArrayList<>(stepCodeList.size());
         for (String code : stepCodeList) {
             StepDef stepDef = childMap.get(code);
             if (stepDef != null) {
@@ -207,7 +249,12 @@ public class InternalIndexer {
             log.warn("expected:{}, got:{} domain steps", stepCodeList.size(), result.size());
         }
 
-        return result;
+        plan = new StepsPlan(activityCode, result);
+        if (stepsPlanCache.size() < MAX_CACHED_STEPS_PLANS) {
+            // 调用方可能会修改stepCodeList：缓存的key用副本
+            stepsPlanCache.put(new StepsPlanKey(activityCode, new ArrayList<>(stepCodeList)), plan);
+        }
+        return plan;
     }
 
     static void index(InterceptorDef interceptorDef) {
@@ -229,6 +276,7 @@ public class InternalIndexer {
         }
 
         childMap.put(stepDef.getCode(), stepDef);
+        stepsPlanCache.clear();
         log.debug("indexed {} ", stepDef);
     }
 
@@ -331,19 +379,18 @@ public class InternalIndexer {
     }
 
     static void postIndexing() {
+        Map<Class<? extends IDomainExtension>, List<PatternDef>> patternMap = new HashMap<>();
         for (PatternDef patternDef : patternDefMap.values()) {
             for (Class<? extends IDomainExtension> extClazz : patternDef.extClazzSet()) {
-                if (!sortedPatternMap.containsKey(extClazz)) {
-                    sortedPatternMap.put(extClazz, new ArrayList<>());
+                if (!patternMap.containsKey(extClazz)) {
+                    patternMap.put(extClazz, new ArrayList<>());
                 }
 
-                sortedPatternMap.get(extClazz).add(patternDef);
+                patternMap.get(extClazz).add(patternDef);
             }
         }
 
-        for (List<PatternDef> patternDefs : sortedPatternMap.values()) {
-            Collections.sort(patternDefs, (p1, p2) -> p1.getPriority() - p2.getPriority());
-        }
+        sortedPatternMap = sortPatterns(patternMap);
 
         // patternDefMap在运行时已经没有用了
         patternDefMap.clear();
@@ -352,27 +399,193 @@ public class InternalIndexer {
         DomainArtifacts.getInstance().export();
     }
 
+    // 按优先级排序，并且不可变
+    private static Map<Class<? extends IDomainExtension>, List<PatternDef>> sortPatterns(Map<Class<? extends IDomainExtension>, List<PatternDef>> patternMap) {
+        for (Map.Entry<Class<? extends IDomainExtension>, List<PatternDef>> entry : patternMap.entrySet()) {
+            List<PatternDef> patternDefs = entry.getValue();
+            Collections.sort(patternDefs, (p1, p2) -> p1.getPriority() - p2.getPriority());
+            entry.setValue(Collections.unmodifiableList(patternDefs));
+        }
+
+        return Collections.unmodifiableMap(patternMap);
+    }
+
     static void prepare(PartnerDef partnerDef) {
-        partnerDefPrepared = partnerDef;
+        partnerDefPrepared.set(partnerDef);
+    }
+
+    static void prepare(PatternDef patternDef) {
+        Map<String, PatternDef> prepared = patternDefsPrepared.get();
+        if (prepared.containsKey(patternDef.getCode())) {
+            throw BootstrapException.ofMessage("duplicated pattern code: ", patternDef.getCode());
+        }
+
+        prepared.put(patternDef.getCode(), patternDef);
     }
 
     static void prepare(ExtensionDef extensionDef) {
-        if (partnerDefPrepared == null) {
-            // implicit ordering: 框架内部永远会先 prepare(partnerDef)，再 prepare(extensionDef)
-            // 由于这个顺序不会暴露外部，这个隐含的条件还OK
+        // implicit ordering: 框架内部永远会先 prepare(partnerDef/patternDef)，再 prepare(extensionDef)
+        // 由于这个顺序不会暴露外部，这个隐含的条件还OK
+        final PartnerDef partnerDef = partnerDefPrepared.get();
+        if (partnerDef != null) {
+            partnerDef.registerExtensionDef(extensionDef);
+            extensionDef.pluggedInto(partnerDef);
+            return;
+        }
+
+        final Map<String, PatternDef> patternDefs = patternDefsPrepared.get();
+        if (patternDefs.isEmpty()) {
             throw BootstrapException.ofMessage("Partner must reside in Plugin Jar with its extensions!");
         }
 
-        partnerDefPrepared.registerExtensionDef(extensionDef);
+        // Pattern Jar里的扩展点：extension.code = pattern.code
+        PatternDef patternDef = patternDefs.get(extensionDef.getCode());
+        if (patternDef == null) {
+            throw BootstrapException.ofMessage("Pattern must reside in Plugin Jar with its extensions: ", extensionDef.getCode());
+        }
+        patternDef.registerExtensionDef(extensionDef);
+        extensionDef.pluggedInto(patternDef);
     }
 
-    static void commitPartner() {
-        partnerDefMap.put(partnerDefPrepared.getCode(), partnerDefPrepared);
-        log.warn("Partner({}) committed", partnerDefPrepared.getCode());
+    /**
+     * 清空注册表，testing only.
+     *
+     * @see RegistryBuilder#reset()
+     */
+    static synchronized void reset() {
+        domainDefMap.clear();
+        routerDefMap.clear();
+        domainStepDefMap.clear();
+        stepsPlanCache.clear();
+        patternDefMap.clear();
+        sortedPatternMap = Collections.emptyMap();
+        partnerDefMap.clear();
+        canaryPartnerDefMap.clear();
+        policyDefMap.clear();
+        policyClazzMap.clear();
+        extensionInterceptor = null;
+        clearPrepared();
+    }
 
-        partnerDefPrepared = null;
+    // 当前线程上prepare的Partner和Pattern：prepare失败时也需要清理
+    static void clearPrepared() {
+        partnerDefPrepared.remove();
+        patternDefsPrepared.remove();
+    }
+
+    /**
+     * 提交当前线程上prepare的Pattern：合并到按优先级排序的索引，整体替换.
+     *
+     * @param retired 被替换的旧版本Pattern，从索引里移除
+     * @return the committed patterns
+     */
+    static synchronized List<PatternDef> commitPatterns(Collection<PatternDef> retired) {
+        final Map<String, PatternDef> prepared = new LinkedHashMap<>(patternDefsPrepared.get());
+        patternDefsPrepared.remove();
+        for (String code : prepared.keySet()) {
+            // pattern.code不能与partner.code冲突
+            if (partnerDefMap.containsKey(code)) {
+                throw BootstrapException.ofMessage("pattern: ", code, " conflicts with partner code");
+            }
+        }
+
+        Set<PatternDef> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(retired);
+        Map<Class<? extends IDomainExtension>, List<PatternDef>> patternMap = new HashMap<>();
+        for (Map.Entry<Class<? extends IDomainExtension>, List<PatternDef>> entry : sortedPatternMap.entrySet()) {
+            List<PatternDef> kept = new ArrayList<>(entry.getValue().size());
+            for (PatternDef patternDef : entry.getValue()) {
+                // 同code的Pattern被新版本替换，无论它是静态的还是动态加载的
+                if (!removed.contains(patternDef) && !prepared.containsKey(patternDef.getCode())) {
+                    kept.add(patternDef);
+                }
+            }
+            if (!kept.isEmpty()) {
+                patternMap.put(entry.getKey(), kept);
+            }
+        }
+        for (PatternDef patternDef : prepared.values()) {
+            for (Class<? extends IDomainExtension> extClazz : patternDef.extClazzSet()) {
+                patternMap.computeIfAbsent(extClazz, k -> new ArrayList<>()).add(patternDef);
+            }
+        }
+
+        sortedPatternMap = sortPatterns(patternMap);
+        log.warn("Patterns{} committed", prepared.keySet());
 
-        // refresh the exported domain artifacts
         DomainArtifacts.getInstance().export();
+        return new ArrayList<>(prepared.values());
+    }
+
+    static void commitPartner() {
+        final PartnerDef committed = partnerDefPrepared.get();
+        partnerDefPrepared.remove();
+        commitPartner(committed);
+    }
+
+    // 也用于回滚：重新commit之前版本已经prepared的Partner
+    // prepare可以并行，commit串行
+    static synchronized void commitPartner(PartnerDef committed) {
+        PartnerDef previous = partnerDefMap.put(committed.getCode(), committed);
+        log.warn("Partner({}) committed", committed.getCode());
+
+        // refresh the exported domain artifacts: only the delta of this partner
+        DomainArtifacts.getInstance().exportPartner(previous, committed);
+    }
+
+    // 与稳定版本并存，而不是替换它
+    static synchronized void commitCanaryPartner(int weight, boolean sticky) {
+        final PartnerDef canary = partnerDefPrepared.get();
+        partnerDefPrepared.remove();
+        CanaryPartnerDef canaryPartnerDef = new CanaryPartnerDef(canary, weight, sticky);
+        canaryPartnerDefMap.put(canary.getCode(), canaryPartnerDef);
+        log.warn("{} committed", canaryPartnerDef);
+    }
+
+    static void setCanaryWeight(String code, int weight) {
+        CanaryPartnerDef canary = canaryPartnerDefMap.get(code);
+        if (canary == null) {
+            throw new IllegalStateException("No canary of partner:" + code);
+        }
+
+        canary.setWeight(weight);
+        log.warn("{} reweighted", canary);
+    }
+
+    // 灰度版本全量：成为稳定版本
+    static synchronized PartnerDef promoteCanaryPartner(String code) {
+        CanaryPartnerDef canary = canaryPartnerDefMap.get(code);
+        if (canary == null) {
+            throw new IllegalStateException("No canary of partner:" + code);
+        }
+
+        // 先全量再移除灰度，切换过程中不会有请求路由到旧版本以外的版本
+        commitPartner(canary.getPartnerDef());
+        canaryPartnerDefMap.remove(code);
+        return canary.getPartnerDef();
+    }
+
+    /**
+     * @return the aborted canary, null if absent
+     */
+    static synchronized PartnerDef abortCanaryPartner(String code) {
+        CanaryPartnerDef canary = canaryPartnerDefMap.remove(code);
+        if (canary == null) {
+            return null;
+        }
+
+        log.warn("{} aborted", canary);
+        return canary.getPartnerDef();
+    }
+
+    @EqualsAndHashCode
+    static final class StepsPlanKey {
+        private final String activityCode;
+        private final List<String> stepCodes;
+
+        StepsPlanKey(String activityCode, List<String> stepCodes) {
+            this.activityCode = activityCode;
+            this.stepCodes = stepCodes;
+        }
     }
 }
@@ -9,6 +9,7 @@ import io.github.dddplus.annotation.Partner;
 import io.github.dddplus.ext.IDomainExtension;
 import io.github.dddplus.ext.IIdentityResolver;
 import io.github.dddplus.ext.IIdentity;
+import io.github.dddplus.runtime.RuntimeMetrics;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
@@ -16,9 +17,10 @@ import lombok.ToString;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
-@ToString
-class PartnerDef implements IRegistryAware, IPrepareAware, IIdentityResolver {
+@ToString(exclude = {"inFlight", "pluginKey", "pluginMetrics"})
+class PartnerDef implements IRegistryAware, IPrepareAware, IIdentityResolver, IPluggedDef {
 
     @Getter
     private String code;
@@ -32,6 +34,22 @@ class PartnerDef implements IRegistryAware, IPrepareAware, IIdentityResolver {
     @Getter(AccessLevel.PACKAGE)
     private Map<Class<? extends IDomainExtension>, ExtensionDef> extensionDefMap = new HashMap<>();
 
+    // 动态加载的Partner下所有扩展点的在途调用数
+    @Getter
+    private final LongAdder inFlight = new LongAdder();
+
+    // 动态加载的Partner才有版本
+    @Getter
+    private String version;
+
+    // {code}@{version}: 按版本区分运行时指标
+    @Getter
+    private String pluginKey;
+
+    // 按版本解析一次，调用扩展点时直接记录
+    @Getter
+    private RuntimeMetrics.PluginMetrics pluginMetrics;
+
     @Override
     public void registerBean(@NonNull Object bean) {
         initialize(bean);
@@ -57,6 +75,12 @@ class PartnerDef implements IRegistryAware, IPrepareAware, IIdentityResolver {
         this.partnerBean = (IIdentityResolver) bean;
     }
 
+    void setVersion(String version) {
+        this.version = version;
+        this.pluginKey = code + "@" + version;
+        this.pluginMetrics = RuntimeMetrics.pluginMetrics(pluginKey);
+    }
+
     void registerExtensionDef(ExtensionDef extensionDef) {
         Class<? extends IDomainExtension> extClazz = extensionDef.getExtClazz();
         if (extensionDefMap.containsKey(extClazz)) {
@@ -10,6 +10,7 @@ import io.github.dddplus.ext.IDomainExtension;
 import io.github.dddplus.ext.IPatternFilter;
 import io.github.dddplus.ext.IIdentityResolver;
 import io.github.dddplus.ext.IIdentity;
+import io.github.dddplus.runtime.RuntimeMetrics;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.ToString;
@@ -17,9 +18,10 @@ import lombok.ToString;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
-@ToString
-class PatternDef implements IRegistryAware, IIdentityResolver {
+@ToString(exclude = {"inFlight", "pluginKey", "pluginMetrics"})
+class PatternDef implements IRegistryAware, IPrepareAware, IIdentityResolver, IPluggedDef {
 
     @Getter
     private String code;
@@ -35,6 +37,22 @@ class PatternDef implements IRegistryAware, IIdentityResolver {
 
     private Map<Class<? extends IDomainExtension>, ExtensionDef> extensionDefMap = new HashMap<>();
 
+    // 动态加载的Pattern下所有扩展点的在途调用数
+    @Getter
+    private final LongAdder inFlight = new LongAdder();
+
+    // 动态加载的Pattern才有版本
+    @Getter
+    private String version;
+
+    // {code}@{version}: 按版本区分运行时指标
+    @Getter
+    private String pluginKey;
+
+    // 按版本解析一次，调用扩展点时直接记录
+    @Getter
+    private RuntimeMetrics.PluginMetrics pluginMetrics;
+
     @Override
     public void registerBean(@NonNull Object bean) {
         boolean needIndex = initialize(bean);
@@ -43,6 +61,20 @@ class PatternDef implements IRegistryAware, IIdentityResolver {
         }
     }
 
+    @Override
+    public void prepare(@NonNull Object bean) {
+        boolean needIndex = initialize(bean);
+        if (needIndex) {
+            InternalIndexer.prepare(this);
+        }
+    }
+
+    void setVersion(String version) {
+        this.version = version;
+        this.pluginKey = code + "@" + version;
+        this.pluginMetrics = RuntimeMetrics.pluginMetrics(pluginKey);
+    }
+
     @Override
     public boolean match(@NonNull IIdentity identity) {
         return patternBean.match(identity);
@@ -34,9 +34,18 @@ class PolicyDef implements IRegistryAware {
 
     @Override
     public void registerBean(@NonNull Object bean) {
+        registerBean(bean, null);
+    }
+
+    @Override
+    public void registerBean(@NonNull Object bean, Class<? extends IDomainExtension> indexedExtClazz) {
         initialize(bean);
 
-        resolveExtClazz();
+        if (indexedExtClazz != null) {
+            this.extClazz = indexedExtClazz;
+        } else {
+            resolveExtClazz();
+        }
         log.debug("policy:{} ext:{}", bean.getClass().getCanonicalName(), extClazz.getCanonicalName());
 
         InternalIndexer.index(this);
@@ -0,0 +1,106 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.runtime.IWarmupIdentityProvider;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 不依赖Spring的注册表构建器，适用于批处理worker、单元测试等只需要扩展点路由的轻量运行时.
+ * <p>
+ * <p>直接注册DDD注解的对象(Domain, Step, Router, Policy, Partner, Pattern, Extension等)，注册顺序与{@link DDDBootstrap}相同，与调用顺序无关.</p>
+ * <pre>
+ * {@code
+ * RegistryBuilder.newBuilder()
+ *     .register(new FooRouter())
+ *     .register(new B2BPattern(), new B2BExt())
+ *     .build();
+ *
+ * DDD.useRouter(FooRouter.class).submit(model);
+ * }
+ * </pre>
+ * <p>IMPORTANT: 注册表是进程级的，每个进程只能build一次(测试时可以{@link #reset()})，也不能与Spring启动方式混用.</p>
+ * <p>这些对象不会被Spring管理：没有依赖注入，没有AOP.</p>
+ */
+@Slf4j
+public final class RegistryBuilder {
+    private static final AtomicBoolean built = new AtomicBoolean();
+
+    private final List<Object> beans = new ArrayList<>();
+
+    private IWarmupIdentityProvider warmupIdentityProvider;
+
+    private RegistryBuilder() {
+    }
+
+    public static RegistryBuilder newBuilder() {
+        return new RegistryBuilder();
+    }
+
+    /**
+     * 注册DDD注解的对象.
+     *
+     * @param beans 必须有DDD注解
+     * @return this
+     * @throws BootstrapException 没有DDD注解
+     */
+    public RegistryBuilder register(@NonNull Object... beans) throws BootstrapException {
+        for (Object bean : beans) {
+            if (!RegistryFactory.isRegistrable(bean)) {
+                throw BootstrapException.ofMessage(bean.getClass().getCanonicalName(), " has no DDD annotation");
+            }
+
+            this.beans.add(bean);
+        }
+        return this;
+    }
+
+    /**
+     * build之后用样本身份预热扩展点路由.
+     *
+     * @param warmupIdentityProvider 样本身份
+     * @return this
+     */
+    public RegistryBuilder warmup(@NonNull IWarmupIdentityProvider warmupIdentityProvider) {
+        this.warmupIdentityProvider = warmupIdentityProvider;
+        return this;
+    }
+
+    /**
+     * 完成注册，之后就可以通过{@link io.github.dddplus.runtime.DDD}使用了.
+     *
+     * @throws BootstrapException 重复build，已通过Spring启动，或者对象非法(e,g. 编号重复)
+     */
+    public void build() throws BootstrapException {
+        if (DDDBootstrap.applicationContext() != null) {
+            throw BootstrapException.ofMessage("already bootstrapped by Spring");
+        }
+        if (!built.compareAndSet(false, true)) {
+            throw BootstrapException.ofMessage("registry can be built only once");
+        }
+
+        long t0 = System.nanoTime();
+        RegistryFactory.register(beans);
+        log.info("{} DDD beans registered without Spring, cost {}ms", beans.size(), (System.nanoTime() - t0) / 1000_000);
+
+        if (warmupIdentityProvider != null) {
+            ExtensionWarmup.warmup(warmupIdentityProvider);
+        }
+    }
+
+    /**
+     * 清空已build的注册表，之后可以再次build, testing only.
+     */
+    static void reset() {
+        InternalIndexer.reset();
+        built.set(false);
+    }
+}
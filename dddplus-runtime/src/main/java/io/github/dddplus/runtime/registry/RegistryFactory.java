@@ -6,28 +6,55 @@
 package io.github.dddplus.runtime.registry;
 
 import io.github.dddplus.annotation.*;
+import io.github.dddplus.ext.IDomainExtension;
 import lombok.extern.slf4j.Slf4j;
 import io.github.dddplus.ext.IPlugable;
-import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
 
 import java.lang.annotation.Annotation;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.function.Supplier;
 
 @Component
 @Slf4j
-class RegistryFactory implements InitializingBean {
+class RegistryFactory {
     // 有序的，因为他们之间有时间依赖关系
-    static List<RegistryEntry> validRegistryEntries = new ArrayList<>();
+    private static final List<RegistryEntry> validRegistryEntries = new ArrayList<>();
 
     private static Map<Class<? extends Annotation>, PrepareEntry> validPrepareEntries = new HashMap<>(3);
 
+    static {
+        validRegistryEntries.add(new RegistryEntry(Domain.class, () -> new DomainDef()));
+        validRegistryEntries.add(new RegistryEntry(Interceptor.class, () -> new InterceptorDef()));
+        validRegistryEntries.add(new RegistryEntry(DomainService.class, () -> new DomainServiceDef()));
+        validRegistryEntries.add(new RegistryEntry(Step.class, () -> new StepDef()));
+        validRegistryEntries.add(new RegistryEntry(Router.class, () -> new RouterDef()));
+        validRegistryEntries.add(new RegistryEntry(Policy.class, () -> new PolicyDef()));
+        validRegistryEntries.add(new RegistryEntry(Partner.class, () -> new PartnerDef()));
+        validRegistryEntries.add(new RegistryEntry(Pattern.class, () -> new PatternDef()));
+        validRegistryEntries.add(new RegistryEntry(Extension.class, () -> new ExtensionDef()));
+
+        validPrepareEntries.put(Partner.class, new PrepareEntry(() -> new PartnerDef()));
+        validPrepareEntries.put(Pattern.class, new PrepareEntry(() -> new PatternDef()));
+        validPrepareEntries.put(Extension.class, new PrepareEntry(() -> new ExtensionDef()));
+    }
+
     void register(ApplicationContext applicationContext) {
+        RegistryIndex index = RegistryIndex.load(applicationContext.getClassLoader() != null ? applicationContext.getClassLoader() : ClassUtils.getDefaultClassLoader());
+        if (index != null) {
+            log.info("register with registry index, {} classes indexed", index.size());
+            registerIndexed(applicationContext, index);
+        } else {
+            registerScanned(applicationContext);
+        }
+
+        InternalIndexer.postIndexing();
+    }
+
+    // 每种注解都要在所有bean上查找一遍注解
+    private void registerScanned(ApplicationContext applicationContext) {
         for (RegistryEntry registryEntry : validRegistryEntries) {
             log.info("register {}'s ...", registryEntry.annotation.getSimpleName());
 
@@ -35,10 +62,107 @@ class RegistryFactory implements InitializingBean {
                 registryEntry.create().registerBean(springBean);
             }
         }
+    }
+
+    // 只遍历一次bean名称，按类名查索引，不再查找注解，扩展点接口也无需泛型反射
+    // 索引未覆盖的jar(编译时没有使用processor)里的bean，退回到注解查找
+    private void registerIndexed(ApplicationContext applicationContext, RegistryIndex index) {
+        Map<String, List<IndexedBean>> beansByAnnotation = new HashMap<>();
+        Set<String> uncoveredBeans = new TreeSet<>();
+        for (String beanName : applicationContext.getBeanNamesForType(Object.class)) {
+            Class<?> beanClazz = applicationContext.getType(beanName);
+            if (beanClazz == null) {
+                continue;
+            }
+
+            // CGLIB proxy的类名不在索引里
+            Class<?> userClazz = ClassUtils.getUserClass(beanClazz);
+            if (!index.covers(userClazz)) {
+                Object springBean = null;
+                for (RegistryEntry registryEntry : validRegistryEntries) {
+                    if (applicationContext.findAnnotationOnBean(beanName, registryEntry.annotation) == null) {
+                        continue;
+                    }
+
+                    if (springBean == null) {
+                        springBean = applicationContext.getBean(beanName);
+                        uncoveredBeans.add(userClazz.getName());
+                    }
+                    beansByAnnotation.computeIfAbsent(registryEntry.annotation.getSimpleName(), k -> new ArrayList<>())
+                            .add(new IndexedBean(springBean, null));
+                }
+                continue;
+            }
+
+            List<RegistryIndex.Entry> entries = index.entriesOf(userClazz.getName());
+            if (entries.isEmpty()) {
+                continue;
+            }
+
+            Object springBean = applicationContext.getBean(beanName);
+            for (RegistryIndex.Entry entry : entries) {
+                beansByAnnotation.computeIfAbsent(entry.getAnnotation(), k -> new ArrayList<>())
+                        .add(new IndexedBean(springBean, resolveExtClazz(entry, beanClazz.getClassLoader())));
+            }
+        }
+
+        if (!uncoveredBeans.isEmpty()) {
+            log.warn("not covered by registry index, registered via annotation lookup: {}", uncoveredBeans);
+        }
+
+        // 保持与注解扫描相同的注册顺序
+        for (RegistryEntry registryEntry : validRegistryEntries) {
+            log.info("register {}'s ...", registryEntry.annotation.getSimpleName());
+
+            for (IndexedBean indexedBean : beansByAnnotation.getOrDefault(registryEntry.annotation.getSimpleName(), Collections.emptyList())) {
+                registryEntry.create().registerBean(indexedBean.bean, indexedBean.extClazz);
+            }
+        }
+    }
+
+    private static Class<? extends IDomainExtension> resolveExtClazz(RegistryIndex.Entry entry, ClassLoader classLoader) {
+        if (entry.getExtClassName() == null) {
+            return null;
+        }
+
+        try {
+            return (Class<? extends IDomainExtension>) ClassUtils.forName(entry.getExtClassName(), classLoader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            // 索引过期了：退回到运行时解析
+            log.warn("indexed ext class not found: {}", entry);
+            return null;
+        }
+    }
+
+    /**
+     * 不依赖Spring，直接注册这些bean.
+     *
+     * @see RegistryBuilder
+     */
+    static void register(Collection<Object> beans) {
+        for (RegistryEntry registryEntry : validRegistryEntries) {
+            log.info("register {}'s ...", registryEntry.annotation.getSimpleName());
+
+            for (Object bean : beans) {
+                if (InternalAopUtils.getAnnotation(bean, registryEntry.annotation) != null) {
+                    registryEntry.create().registerBean(bean);
+                }
+            }
+        }
 
         InternalIndexer.postIndexing();
     }
 
+    static boolean isRegistrable(Object bean) {
+        for (RegistryEntry registryEntry : validRegistryEntries) {
+            if (InternalAopUtils.getAnnotation(bean, registryEntry.annotation) != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     static void preparePlugins(Class<? extends Annotation> annotation, Object bean) {
         if (!(bean instanceof IPlugable)) {
             throw BootstrapException.ofMessage(bean.getClass().getCanonicalName() + " must be IPlugable");
@@ -52,24 +176,6 @@ class RegistryFactory implements InitializingBean {
         prepareEntry.create().prepare(bean);
     }
 
-    @Override
-    public void afterPropertiesSet() throws Exception {
-        log.info("setup the discoverable Spring beans...");
-
-        validRegistryEntries.add(new RegistryEntry(Domain.class, () -> new DomainDef()));
-        validRegistryEntries.add(new RegistryEntry(Interceptor.class, () -> new InterceptorDef()));
-        validRegistryEntries.add(new RegistryEntry(DomainService.class, () -> new DomainServiceDef()));
-        validRegistryEntries.add(new RegistryEntry(Step.class, () -> new StepDef()));
-        validRegistryEntries.add(new RegistryEntry(Router.class, () -> new RouterDef()));
-        validRegistryEntries.add(new RegistryEntry(Policy.class, () -> new PolicyDef()));
-        validRegistryEntries.add(new RegistryEntry(Partner.class, () -> new PartnerDef()));
-        validRegistryEntries.add(new RegistryEntry(Pattern.class, () -> new PatternDef()));
-        validRegistryEntries.add(new RegistryEntry(Extension.class, () -> new ExtensionDef()));
-
-        validPrepareEntries.put(Partner.class, new PrepareEntry(() -> new PartnerDef()));
-        validPrepareEntries.put(Extension.class, new PrepareEntry(() -> new ExtensionDef()));
-    }
-
     private static class RegistryEntry {
         private final Class<? extends Annotation> annotation;
         private final Supplier<IRegistryAware> supplier;
@@ -84,6 +190,16 @@ class RegistryFactory implements InitializingBean {
         }
     }
 
+    private static class IndexedBean {
+        private final Object bean;
+        private final Class<? extends IDomainExtension> extClazz;
+
+        IndexedBean(Object bean, Class<? extends IDomainExtension> extClazz) {
+            this.bean = bean;
+            this.extClazz = extClazz;
+        }
+    }
+
     private static class PrepareEntry {
         private final Supplier<IPrepareAware> supplier;
 
@@ -0,0 +1,181 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.*;
+
+/**
+ * 编译期生成的注册表索引：{@code META-INF/dddplus/registry.idx}.
+ * <p>
+ * <p>由{@link RegistryIndexProcessor}在编译时生成，启动时{@link RegistryFactory}据此跳过全量的注解查找与泛型反射.</p>
+ * <p>每行一个注册类，tab分隔：{@code 注解简称 类名 扩展点接口}，扩展点接口可为空；#开头的是注释.</p>
+ * <p>索引只覆盖生成了它的那个jar/classes目录：没有索引的jar里的bean，仍然通过注解查找注册，参见{@link #covers(Class)}.</p>
+ * <p>可以通过{@code -Ddddplus.registry.index=false}关闭该机制.</p>
+ */
+@Slf4j
+final class RegistryIndex {
+    static final String LOCATION = "META-INF/dddplus/registry.idx";
+    static final String HEADER = "# dddplus registry index v1";
+    static final String DISABLE_PROPERTY = "dddplus.registry.index";
+
+    static final char SEPARATOR = '\t';
+
+    // {className, entries}: 一个类可能同时有多个注解
+    private final Map<String, List<Entry>> entries = new HashMap<>();
+
+    // 有索引文件的code source，已归一化
+    private final Set<String> roots = new HashSet<>();
+
+    private RegistryIndex() {
+    }
+
+    /**
+     * 加载classpath上所有的索引文件.
+     *
+     * @return null if no index found or index disabled
+     */
+    static RegistryIndex load(ClassLoader classLoader) {
+        if ("false".equalsIgnoreCase(System.getProperty(DISABLE_PROPERTY))) {
+            log.info("registry index disabled");
+            return null;
+        }
+
+        try {
+            Enumeration<URL> urls = classLoader.getResources(LOCATION);
+            if (!urls.hasMoreElements()) {
+                return null;
+            }
+
+            RegistryIndex index = new RegistryIndex();
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                log.info("loading registry index {}", url);
+                index.addRoot(url);
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        index.add(Entry.parse(line));
+                    }
+                }
+            }
+            return index;
+        } catch (IOException e) {
+            // 索引只是加速手段：出错了就退回到全量扫描
+            log.error("fails to load registry index, fallback to annotation scanning", e);
+            return null;
+        }
+    }
+
+    static RegistryIndex of(Collection<Entry> entries) {
+        RegistryIndex index = new RegistryIndex();
+        for (Entry entry : entries) {
+            index.add(entry);
+        }
+        return index;
+    }
+
+    void addRoot(URL url) {
+        String location = url.toExternalForm();
+        if (location.endsWith(LOCATION)) {
+            roots.add(normalize(location.substring(0, location.length() - LOCATION.length())));
+        }
+    }
+
+    private void add(Entry entry) {
+        if (entry != null) {
+            entries.computeIfAbsent(entry.getClassName(), k -> new ArrayList<>(1)).add(entry);
+        }
+    }
+
+    List<Entry> entriesOf(String className) {
+        return entries.getOrDefault(className, Collections.emptyList());
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * 该类所在的jar/classes目录是否生成了索引.
+     * <p>
+     * <p>被覆盖的类以索引为准，不在索引里的就不是注册类；未被覆盖的类需要查找注解.</p>
+     */
+    boolean covers(Class<?> clazz) {
+        CodeSource codeSource;
+        try {
+            codeSource = clazz.getProtectionDomain().getCodeSource();
+        } catch (SecurityException ignored) {
+            return false;
+        }
+
+        if (codeSource == null || codeSource.getLocation() == null) {
+            return false;
+        }
+
+        return roots.contains(normalize(codeSource.getLocation().toExternalForm()));
+    }
+
+    // jar:file:/a.jar!/ 与 file:/a.jar 是同一个code source
+    private static String normalize(String location) {
+        if (location.startsWith("jar:")) {
+            location = location.substring("jar:".length());
+        }
+        if (location.endsWith("!/")) {
+            location = location.substring(0, location.length() - "!/".length());
+        }
+        return location;
+    }
+
+    /**
+     * 索引条目.
+     */
+    @Getter
+    @ToString
+    static final class Entry {
+        private final String annotation;
+        private final String className;
+        private final String extClassName;
+
+        Entry(String annotation, String className, String extClassName) {
+            this.annotation = annotation;
+            this.className = className;
+            this.extClassName = extClassName;
+        }
+
+        static Entry parse(String line) {
+            if (line == null || line.isEmpty() || line.charAt(0) == '#') {
+                return null;
+            }
+
+            String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+            if (fields.length < 2) {
+                log.warn("invalid registry index line: {}", line);
+                return null;
+            }
+
+            return new Entry(fields[0], fields[1], fields.length > 2 && !fields[2].isEmpty() ? fields[2] : null);
+        }
+
+        String format() {
+            StringBuilder sb = new StringBuilder(100);
+            sb.append(annotation).append(SEPARATOR).append(className).append(SEPARATOR);
+            if (extClassName != null) {
+                sb.append(extClassName);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 编译期生成注册表索引的注解处理器.
+ * <p>
+ * <p>把所有DDD注解的类及其扩展点接口写入{@code META-INF/dddplus/registry.idx}，启动时不再需要全量注解查找和泛型反射.</p>
+ * <p>需要显式启用(没有通过META-INF/services自动注册)，例如maven:</p>
+ * <pre>
+ * {@code
+ * <annotationProcessors>
+ *     <annotationProcessor>lombok.launch.AnnotationProcessorHider$AnnotationProcessor</annotationProcessor>
+ *     <annotationProcessor>io.github.dddplus.runtime.registry.RegistryIndexProcessor</annotationProcessor>
+ * </annotationProcessors>
+ * }
+ * </pre>
+ * <p>IMPORTANT: 只有全量编译才能得到完整的索引，IDE里的增量编译会生成不完整的索引.</p>
+ */
+@SupportedAnnotationTypes({
+        RegistryIndexProcessor.ANNOTATION_PACKAGE + "Domain",
+        RegistryIndexProcessor.ANNOTATION_PACKAGE + "Interceptor",
+        RegistryIndexProcessor.ANNOTATION_PACKAGE + "DomainService",
+        RegistryIndexProcessor.ANNOTATION_PACKAGE + "Step",
+        RegistryIndexProcessor.ANNOTATION_PACKAGE + "Router",
+        RegistryIndexProcessor.ANNOTATION_PACKAGE + "Policy",
+        RegistryIndexProcessor.ANNOTATION_PACKAGE + "Partner",
+        RegistryIndexProcessor.ANNOTATION_PACKAGE + "Pattern",
+        RegistryIndexProcessor.ANNOTATION_PACKAGE + "Extension",
+})
+public class RegistryIndexProcessor extends AbstractProcessor {
+    static final String ANNOTATION_PACKAGE = "io.github.dddplus.annotation.";
+
+    private static final String BASE_ROUTER = "io.github.dddplus.runtime.BaseRouter";
+    private static final String POLICY = "io.github.dddplus.ext.IPolicy";
+    private static final String DOMAIN_EXTENSION = "io.github.dddplus.ext.IDomainExtension";
+
+    // 与 RouterDef, PolicyDef 保持一致
+    private static final int MAX_INHERITANCE_DEPTH = 5;
+
+    // 有序输出，保证多次编译结果稳定
+    private final Map<String, RegistryIndex.Entry> entries = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+
+        for (TypeElement annotation : annotations) {
+            String annotationName = annotation.getSimpleName().toString();
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+                    // Spring不会实例化它们
+                    continue;
+                }
+
+                TypeElement typeElement = (TypeElement) element;
+                String className = processingEnv.getElementUtils().getBinaryName(typeElement).toString();
+                RegistryIndex.Entry entry = new RegistryIndex.Entry(annotationName, className, resolveExtClassName(annotationName, typeElement));
+                entries.put(annotationName + RegistryIndex.SEPARATOR + className, entry);
+            }
+        }
+
+        // 不独占这些注解
+        return false;
+    }
+
+    private String resolveExtClassName(String annotationName, TypeElement typeElement) {
+        switch (annotationName) {
+            case "Router":
+                return resolveRouterExt(typeElement);
+            case "Policy":
+                return resolvePolicyExt(typeElement);
+            case "Extension":
+                return resolveExtensionInterface(typeElement);
+            default:
+                return null;
+        }
+    }
+
+    // BaseRouter的泛型里实现了IDomainExtension的那个
+    private String resolveRouterExt(TypeElement typeElement) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror extType = types.erasure(processingEnv.getElementUtils().getTypeElement(DOMAIN_EXTENSION).asType());
+        TypeMirror type = typeElement.asType();
+        for (int i = 0; i < MAX_INHERITANCE_DEPTH; i++) {
+            TypeMirror superType = superClassOf(type);
+            if (superType == null) {
+                break;
+            }
+
+            for (TypeMirror generic : ((DeclaredType) superType).getTypeArguments()) {
+                if (generic.getKind() == TypeKind.DECLARED && types.isAssignable(types.erasure(generic), extType)) {
+                    return binaryNameOf(generic);
+                }
+            }
+            type = superType;
+        }
+
+        warn(typeElement, "cannot resolve extension of " + BASE_ROUTER);
+        return null;
+    }
+
+    // IPolicy的第一个泛型
+    private String resolvePolicyExt(TypeElement typeElement) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror policyType = types.erasure(processingEnv.getElementUtils().getTypeElement(POLICY).asType());
+        TypeMirror type = typeElement.asType();
+        for (int i = 0; i < MAX_INHERITANCE_DEPTH && type != null; i++) {
+            List<? extends TypeMirror> supertypes = types.directSupertypes(type);
+            // the direct superclass is first, then interfaces
+            for (TypeMirror iface : supertypes.subList(Math.min(1, supertypes.size()), supertypes.size())) {
+                if (types.isAssignable(types.erasure(iface), policyType)) {
+                    List<? extends TypeMirror> generics = ((DeclaredType) iface).getTypeArguments();
+                    if (!generics.isEmpty() && generics.get(0).getKind() == TypeKind.DECLARED) {
+                        return binaryNameOf(generics.get(0));
+                    }
+                }
+            }
+            type = superClassOf(type);
+        }
+
+        warn(typeElement, "cannot resolve extension of " + POLICY);
+        return null;
+    }
+
+    // 与 ExtensionDef 保持一致：沿着继承链，第一个声明了接口的类的第一个接口
+    private String resolveExtensionInterface(TypeElement typeElement) {
+        TypeElement current = typeElement;
+        while (current != null) {
+            List<? extends TypeMirror> interfaces = current.getInterfaces();
+            if (!interfaces.isEmpty()) {
+                return binaryNameOf(interfaces.get(0));
+            }
+
+            TypeMirror superClass = current.getSuperclass();
+            current = superClass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superClass).asElement() : null;
+        }
+
+        return null;
+    }
+
+    private TypeMirror superClassOf(TypeMirror type) {
+        List<? extends TypeMirror> supertypes = processingEnv.getTypeUtils().directSupertypes(type);
+        if (supertypes.isEmpty() || supertypes.get(0).getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+
+        return supertypes.get(0);
+    }
+
+    private String binaryNameOf(TypeMirror type) {
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        return processingEnv.getElementUtils().getBinaryName(element).toString();
+    }
+
+    private void writeIndex() {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", RegistryIndex.LOCATION);
+            try (Writer writer = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write(RegistryIndex.HEADER);
+                writer.write('\n');
+                for (RegistryIndex.Entry entry : entries.values()) {
+                    writer.write(entry.format());
+                    writer.write('\n');
+                }
+            }
+
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "dddplus registry index: " + entries.size() + " entries");
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "fails to write " + RegistryIndex.LOCATION + ": " + e.getMessage());
+        }
+    }
+
+    private void warn(Element element, String message) {
+        // 解析不了就留空，运行时退回到反射解析
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, element);
+    }
+}
@@ -36,6 +36,11 @@ class RouterDef implements IRegistryAware {
 
     @Override
     public void registerBean(@NonNull Object bean) {
+        registerBean(bean, null);
+    }
+
+    @Override
+    public void registerBean(@NonNull Object bean, Class<? extends IDomainExtension> indexedExtClazz) {
         Router router = InternalAopUtils.getAnnotation(bean, Router.class);
         this.domain = router.domain();
         this.name = router.name();
@@ -46,7 +51,11 @@ class RouterDef implements IRegistryAware {
         this.baseRouterBean = (BaseRouter) bean;
         this.baseRouterClazz = (Class<? extends BaseRouter>) InternalAopUtils.getTarget(bean).getClass();
 
-        this.resolveExtClazz();
+        if (indexedExtClazz != null) {
+            this.extClazz = indexedExtClazz;
+        } else {
+            this.resolveExtClazz();
+        }
         log.debug("router:{} ext:{}", bean.getClass().getCanonicalName(), extClazz.getCanonicalName());
 
         InternalIndexer.index(this);
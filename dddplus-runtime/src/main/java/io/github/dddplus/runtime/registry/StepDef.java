@@ -30,6 +30,9 @@ public class StepDef implements IRegistryAware {
     @Getter
     private String[] tags;
 
+    @Getter
+    private Class<? extends IDomainStep>[] dependsOn;
+
     @Getter
     private IDomainStep stepBean;
 
@@ -38,6 +41,7 @@ public class StepDef implements IRegistryAware {
         Step domainStep = InternalAopUtils.getAnnotation(bean, Step.class);
         this.name = domainStep.name();
         this.tags = domainStep.tags();
+        this.dependsOn = domainStep.dependsOn();
 
         if (!(bean instanceof IDomainStep)) {
             throw BootstrapException.ofMessage(bean.getClass().getCanonicalName(), " MUST implement IDomainStep");
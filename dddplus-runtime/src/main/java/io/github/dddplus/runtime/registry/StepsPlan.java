@@ -0,0 +1,154 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.step.IDomainStep;
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * 编译好的步骤执行计划：某个领域活动下一组步骤编号对应的步骤, internal usage only.
+ * <p>
+ * <p>不可变，由{@link InternalIndexer#findStepsPlan(String, List)}缓存并在多个线程间共享.</p>
+ */
+public final class StepsPlan {
+
+    @Getter
+    private final String activityCode;
+
+    /**
+     * 按步骤编号顺序，已忽略不存在的步骤.
+     */
+    @Getter
+    private final List<StepDef> stepDefs;
+
+    @Getter
+    private final List<IDomainStep> steps;
+
+    // 并行执行时才需要，lazy compiled: 重复计算也无妨
+    private volatile Dag dag;
+
+    StepsPlan(String activityCode, List<StepDef> stepDefs) {
+        this.activityCode = activityCode;
+        List<IDomainStep> steps = new ArrayList<>(stepDefs.size());
+        for (StepDef stepDef : stepDefs) {
+            steps.add(stepDef.getStepBean());
+        }
+        this.stepDefs = Collections.unmodifiableList(new ArrayList<>(stepDefs));
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * 步骤之间的依赖关系.
+     *
+     * @throws IllegalArgumentException 步骤之间存在循环依赖
+     */
+    public Dag dag() throws IllegalArgumentException {
+        Dag result = dag;
+        if (result == null) {
+            result = new Dag(this);
+            dag = result;
+        }
+
+        result.assertAcyclic(activityCode);
+        return result;
+    }
+
+    /**
+     * 步骤之间依赖关系构成的DAG，步骤用其在{@link #getSteps()}里的下标表示.
+     */
+    public static final class Dag {
+        private final int[][] dependents;
+        private final int[] dependencies;
+        private final List<String> cyclicSteps;
+
+        private Dag(StepsPlan plan) {
+            final int n = plan.steps.size();
+            List<List<Integer>> dependentList = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                dependentList.add(new ArrayList<>(1));
+            }
+
+            this.dependencies = new int[n];
+            for (int i = 0; i < n; i++) {
+                for (Class<? extends IDomainStep> dependsOn : plan.stepDefs.get(i).getDependsOn()) {
+                    for (int j = 0; j < n; j++) {
+                        if (j != i && dependsOn.isInstance(plan.steps.get(j))) {
+                            dependentList.get(j).add(i);
+                            dependencies[i]++;
+                        }
+                    }
+                }
+            }
+
+            this.dependents = new int[n][];
+            for (int i = 0; i < n; i++) {
+                List<Integer> list = dependentList.get(i);
+                dependents[i] = new int[list.size()];
+                for (int k = 0; k < list.size(); k++) {
+                    dependents[i][k] = list.get(k);
+                }
+            }
+
+            this.cyclicSteps = cyclicSteps(plan);
+        }
+
+        // Kahn's algorithm, 执行之前就发现循环依赖
+        private List<String> cyclicSteps(StepsPlan plan) {
+            final int n = dependencies.length;
+            int[] inDegree = dependencies.clone();
+            Deque<Integer> ready = new ArrayDeque<>();
+            for (int i = 0; i < n; i++) {
+                if (inDegree[i] == 0) {
+                    ready.add(i);
+                }
+            }
+
+            int visited = 0;
+            while (!ready.isEmpty()) {
+                visited++;
+                for (int dependent : dependents[ready.poll()]) {
+                    if (--inDegree[dependent] == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+
+            if (visited == n) {
+                return Collections.emptyList();
+            }
+
+            List<String> cyclic = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (inDegree[i] > 0) {
+                    cyclic.add(plan.steps.get(i).stepCode());
+                }
+            }
+            return Collections.unmodifiableList(cyclic);
+        }
+
+        private void assertAcyclic(String activityCode) {
+            if (!cyclicSteps.isEmpty()) {
+                throw new IllegalArgumentException("circular step dependencies of activity " + activityCode + ": " + cyclicSteps);
+            }
+        }
+
+        /**
+         * 依赖于第i个步骤的步骤，只读.
+         */
+        public int[] dependentsOf(int i) {
+            return dependents[i];
+        }
+
+        /**
+         * 第i个步骤所依赖的步骤数量.
+         */
+        public int dependenciesOf(int i) {
+            return dependencies[i];
+        }
+    }
+}
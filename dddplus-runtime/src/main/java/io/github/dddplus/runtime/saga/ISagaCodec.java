@@ -0,0 +1,41 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.saga;
+
+import io.github.dddplus.model.IDomainModel;
+import lombok.NonNull;
+
+/**
+ * 领域模型与saga日志之间的编解码：恢复saga时重建领域模型与回滚原因.
+ *
+ * @param <Model> 领域模型
+ * @see SagaSupport
+ */
+public interface ISagaCodec<Model extends IDomainModel> {
+
+    /**
+     * 记录到saga日志里的领域模型，在活动开始时调用一次.
+     */
+    @NonNull
+    byte[] encode(@NonNull Model model);
+
+    /**
+     * 恢复saga时重建领域模型.
+     *
+     * @param activityCode 领域活动
+     * @param payload      {@link #encode(IDomainModel)}的结果
+     */
+    @NonNull
+    Model decode(@NonNull String activityCode, @NonNull byte[] payload);
+
+    /**
+     * 恢复saga时的回滚原因.
+     *
+     * @return 必须是Step泛型里定义的异常类型
+     */
+    @NonNull
+    RuntimeException recoveryCause(@NonNull PendingSaga saga);
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.saga;
+
+import lombok.NonNull;
+
+import java.util.List;
+
+/**
+ * Saga日志：持久化可回滚步骤的执行与补偿记录，进程意外退出后恢复未完成的补偿.
+ * <p>
+ * <p>所有写方法都在步骤执行的热路径上，实现必须足够轻量.</p>
+ *
+ * @see SagaSupport
+ */
+public interface ISagaJournal {
+
+    /**
+     * 开始一个saga，即一次领域活动的执行.
+     *
+     * @param activityCode 领域活动
+     * @param payload      恢复时重建领域模型所需的数据
+     * @return sagaId
+     */
+    long begin(@NonNull String activityCode, @NonNull byte[] payload);
+
+    /**
+     * 可回滚的步骤开始执行.
+     * <p>
+     * <p>开始了但没有执行成功的步骤，恢复时作为{@link PendingSaga#getInDoubtSteps()}.</p>
+     */
+    void stepStarted(long sagaId, @NonNull String stepCode);
+
+    /**
+     * 可回滚的步骤执行成功.
+     */
+    void stepExecuted(long sagaId, @NonNull String stepCode);
+
+    /**
+     * 步骤已补偿(回滚).
+     */
+    void stepCompensated(long sagaId, @NonNull String stepCode);
+
+    /**
+     * saga结束：无论成功，还是已完成回滚.
+     */
+    void end(long sagaId);
+
+    /**
+     * 尚未结束的saga，即进程意外退出时正在执行的领域活动.
+     *
+     * @return 按开始顺序
+     */
+    @NonNull
+    List<PendingSaga> pendingSagas();
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.saga;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的本地saga日志.
+ * <p>
+ * <p>只追加写，按固定大小分段(segment)：</p>
+ * <ul>
+ * <li>写入只是对映射内存的拷贝：JVM崩溃时，已写入的记录由OS保留，不会丢失</li>
+ * <li>group commit: 后台线程按固定间隔把脏页刷盘(force)，一次刷盘覆盖这段时间内的所有记录，应对OS崩溃/掉电</li>
+ * <li>每条记录带CRC32，恢复时丢弃写了一半的记录</li>
+ * <li>分段里的saga都结束后，该分段被删除</li>
+ * </ul>
+ * <p>记录格式: [int bodyLength][int crc32(body)][body]，body: [byte type][long sagaId][short textLength][text][int payloadLength][payload]，payload只有BEGIN才有.</p>
+ * <p>IMPORTANT: 一个目录只能被一个进程打开.</p>
+ */
+@Slf4j
+public class MappedSagaJournal implements ISagaJournal, Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 10;
+
+    static final byte BEGIN = 1;
+    static final byte STEP = 2;
+    static final byte COMPENSATE = 3;
+    static final byte END = 4;
+    static final byte STEP_STARTED = 5;
+
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "saga-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File dir;
+    private final int segmentSize;
+
+    // guarded by this
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment current;
+    private long nextSagaId = 1;
+    private final Map<Long, Integer> openSagas = new HashMap<>(); // {sagaId, 开始时所在分段}
+    private final CRC32 crc = new CRC32();
+    private boolean closed;
+
+    // 打开时恢复的尚未结束的saga
+    private final List<PendingSaga> recovered = new ArrayList<>();
+
+    private final ScheduledExecutorService flusher;
+    private volatile boolean dirty;
+
+    public MappedSagaJournal(@NonNull File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * @param dir             日志目录，不存在则创建
+     * @param segmentSize     分段大小，in bytes
+     * @param flushIntervalMs group commit的刷盘间隔，0则不刷盘：只保证JVM崩溃时不丢失
+     * @throws IOException 无法打开或创建分段
+     */
+    public MappedSagaJournal(@NonNull File dir, int segmentSize, long flushIntervalMs) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create saga journal dir: " + dir);
+        }
+
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        recover();
+
+        if (flushIntervalMs > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "SagaJournalFlusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushIfDirty, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    @Override
+    public long begin(@NonNull String activityCode, @NonNull byte[] payload) {
+        synchronized (this) {
+            final long sagaId = nextSagaId++;
+            int segment = append(BEGIN, sagaId, activityCode, payload);
+            openSagas.put(sagaId, segment);
+            return sagaId;
+        }
+    }
+
+    @Override
+    public void stepStarted(long sagaId, @NonNull String stepCode) {
+        synchronized (this) {
+            append(STEP_STARTED, sagaId, stepCode, null);
+        }
+    }
+
+    @Override
+    public void stepExecuted(long sagaId, @NonNull String stepCode) {
+        synchronized (this) {
+            append(STEP, sagaId, stepCode, null);
+        }
+    }
+
+    @Override
+    public void stepCompensated(long sagaId, @NonNull String stepCode) {
+        synchronized (this) {
+            append(COMPENSATE, sagaId, stepCode, null);
+        }
+    }
+
+    @Override
+    public void end(long sagaId) {
+        synchronized (this) {
+            append(END, sagaId, "", null);
+            openSagas.remove(sagaId);
+        }
+    }
+
+    @Override
+    public synchronized List<PendingSaga> pendingSagas() {
+        List<PendingSaga> result = new ArrayList<>();
+        for (PendingSaga saga : recovered) {
+            if (openSagas.containsKey(saga.getSagaId())) {
+                result.add(saga);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 立即刷盘.
+     */
+    public void flush() {
+        Segment segment;
+        synchronized (this) {
+            segment = current;
+        }
+        dirty = false;
+        segment.buffer.force();
+    }
+
+    private void flushIfDirty() {
+        if (!dirty) {
+            return;
+        }
+
+        try {
+            flush();
+        } catch (Throwable e) {
+            log.error("saga journal flush err ignored", e);
+        }
+    }
+
+    /**
+     * 现有的分段数，testing only.
+     */
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current.buffer.force();
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        }
+    }
+
+    // return the segment index where the record resides, guarded by this
+    private int append(byte type, long sagaId, String text, byte[] payload) {
+        if (closed) {
+            throw new IllegalStateException("saga journal closed: " + dir);
+        }
+
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        if (textBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("saga text too long: " + text.length());
+        }
+        final int bodyLength = 1 + 8 + 2 + textBytes.length + (payload == null ? 0 : 4 + payload.length);
+        if (HEADER_SIZE + bodyLength > segmentSize) {
+            throw new IllegalArgumentException("saga record too large: " + bodyLength);
+        }
+        if (current.buffer.remaining() < HEADER_SIZE + bodyLength) {
+            roll();
+        }
+
+        final MappedByteBuffer buffer = current.buffer;
+        final int start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+        buffer.put(type).putLong(sagaId).putShort((short) textBytes.length).put(textBytes);
+        if (payload != null) {
+            buffer.putInt(payload.length).put(payload);
+        }
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + bodyLength);
+        crc.reset();
+        crc.update(body);
+        // 长度最后写：写了一半的记录，长度或者CRC一定对不上
+        buffer.putInt(start + 4, (int) crc.getValue());
+        buffer.putInt(start, bodyLength);
+
+        dirty = true;
+        return current.index;
+    }
+
+    // guarded by this
+    private void roll() {
+        current.buffer.force();
+        try {
+            current = openSegment(current.index + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.put(current.index, current);
+        deleteObsoleteSegments();
+    }
+
+    // 比所有未结束saga的开始分段都早的分段，可以删除, guarded by this
+    private void deleteObsoleteSegments() {
+        int low = current.index;
+        for (int segment : openSagas.values()) {
+            low = Math.min(low, segment);
+        }
+
+        Iterator<Map.Entry<Integer, Segment>> iterator = segments.headMap(low).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Segment obsolete = iterator.next().getValue();
+            iterator.remove();
+            try {
+                obsolete.channel.close();
+            } catch (IOException ignored) {
+            }
+            if (!obsolete.file.delete()) {
+                log.warn("cannot delete saga segment: {}", obsolete.file);
+            }
+        }
+    }
+
+    private Segment openSegment(int index) throws IOException {
+        File file = new File(dir, String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // 新建的分段被OS填充为0：长度为0即没有更多记录
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));
+        return new Segment(index, file, channel, buffer);
+    }
+
+    private synchronized void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        SortedSet<Integer> indexes = new TreeSet<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                indexes.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        if (indexes.isEmpty()) {
+            indexes.add(0);
+        }
+
+        Map<Long, RecoveringSaga> recovering = new LinkedHashMap<>();
+        long maxSagaId = 0;
+        for (int index : indexes) {
+            Segment segment = openSegment(index);
+            segments.put(index, segment);
+            maxSagaId = Math.max(maxSagaId, scan(segment, recovering));
+            current = segment;
+        }
+
+        nextSagaId = maxSagaId + 1;
+        for (RecoveringSaga saga : recovering.values()) {
+            openSagas.put(saga.sagaId, saga.segment);
+            recovered.add(new PendingSaga(saga.sagaId, saga.activityCode, saga.payload, new ArrayList<>(saga.steps), new ArrayList<>(saga.startedSteps)));
+        }
+        deleteObsoleteSegments();
+
+        if (!recovered.isEmpty()) {
+            log.warn("{} pending sagas recovered from {}", recovered.size(), dir);
+        }
+    }
+
+    // 扫描分段，定位写入位置, return max sagaId
+    private long scan(Segment segment, Map<Long, RecoveringSaga> recovering) {
+        final MappedByteBuffer buffer = segment.buffer;
+        long maxSagaId = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            final int start = buffer.position();
+            final int bodyLength = buffer.getInt(start);
+            if (bodyLength <= 0 || bodyLength > buffer.remaining() - HEADER_SIZE) {
+                break;
+            }
+
+            ByteBuffer body = buffer.duplicate();
+            body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + bodyLength);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+                log.warn("torn saga record at {}:{}, discarded", segment.file.getName(), start);
+                break;
+            }
+
+            final byte type = body.get();
+            final long sagaId = body.getLong();
+            byte[] textBytes = new byte[body.getShort() & 0xFFFF];
+            body.get(textBytes);
+            final String text = new String(textBytes, StandardCharsets.UTF_8);
+            maxSagaId = Math.max(maxSagaId, sagaId);
+            switch (type) {
+                case BEGIN:
+                    byte[] payload = new byte[body.getInt()];
+                    body.get(payload);
+                    recovering.put(sagaId, new RecoveringSaga(sagaId, text, payload, segment.index));
+                    break;
+
+                case STEP_STARTED:
+                    RecoveringSaga started = recovering.get(sagaId);
+                    if (started != null) {
+                        started.startedSteps.add(text);
+                    }
+                    break;
+
+                case STEP:
+                    RecoveringSaga executed = recovering.get(sagaId);
+                    if (executed != null) {
+                        executed.startedSteps.removeFirstOccurrence(text);
+                        executed.steps.add(text);
+                    }
+                    break;
+
+                case COMPENSATE:
+                    RecoveringSaga compensated = recovering.get(sagaId);
+                    if (compensated != null) {
+                        compensated.steps.removeLastOccurrence(text);
+                    }
+                    break;
+
+                case END:
+                    recovering.remove(sagaId);
+                    break;
+
+                default:
+                    log.warn("unknown saga record type:{} at {}:{}", type, segment.file.getName(), start);
+                    break;
+            }
+
+            buffer.position(start + HEADER_SIZE + bodyLength);
+        }
+
+        return maxSagaId;
+    }
+
+    private static final class Segment {
+        private final int index;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        Segment(int index, File file, FileChannel channel, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class RecoveringSaga {
+        private final long sagaId;
+        private final String activityCode;
+        private final byte[] payload;
+        private final int segment;
+        private final LinkedList<String> steps = new LinkedList<>();
+        private final LinkedList<String> startedSteps = new LinkedList<>();
+
+        RecoveringSaga(long sagaId, String activityCode, byte[] payload, int segment) {
+            this.sagaId = sagaId;
+            this.activityCode = activityCode;
+            this.payload = payload;
+            this.segment = segment;
+        }
+    }
+}
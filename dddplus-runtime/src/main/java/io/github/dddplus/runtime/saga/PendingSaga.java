@@ -0,0 +1,52 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.saga;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 尚未结束的saga.
+ */
+@ToString(exclude = "payload")
+public final class PendingSaga {
+
+    @Getter
+    private final long sagaId;
+
+    @Getter
+    private final String activityCode;
+
+    @Getter
+    private final byte[] payload;
+
+    /**
+     * 已执行且尚未补偿的步骤，按执行顺序.
+     */
+    @Getter
+    private final List<String> executedSteps;
+
+    /**
+     * 已开始但没有执行成功的步骤，按开始顺序：进程退出时正在执行，可能已部分生效.
+     */
+    @Getter
+    private final List<String> inDoubtSteps;
+
+    public PendingSaga(long sagaId, String activityCode, byte[] payload, List<String> executedSteps) {
+        this(sagaId, activityCode, payload, executedSteps, Collections.emptyList());
+    }
+
+    public PendingSaga(long sagaId, String activityCode, byte[] payload, List<String> executedSteps, List<String> inDoubtSteps) {
+        this.sagaId = sagaId;
+        this.activityCode = activityCode;
+        this.payload = payload;
+        this.executedSteps = Collections.unmodifiableList(executedSteps);
+        this.inDoubtSteps = Collections.unmodifiableList(inDoubtSteps);
+    }
+}
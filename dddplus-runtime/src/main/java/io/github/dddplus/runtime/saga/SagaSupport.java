@@ -0,0 +1,30 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.runtime.saga;
+
+import io.github.dddplus.model.IDomainModel;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * 启用saga日志所需的一切：saga日志，以及恢复时所需的编解码.
+ *
+ * @param <Model> 领域模型
+ * @see io.github.dddplus.runtime.StepsExecTemplate#sagaSupport()
+ */
+public final class SagaSupport<Model extends IDomainModel> {
+
+    @Getter
+    private final ISagaJournal journal;
+
+    @Getter
+    private final ISagaCodec<Model> codec;
+
+    public SagaSupport(@NonNull ISagaJournal journal, @NonNull ISagaCodec<Model> codec) {
+        this.journal = journal;
+        this.codec = codec;
+    }
+}
@@ -0,0 +1,9 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+/**
+ * Durable saga journal for step rollback recovery.
+ */
+package io.github.dddplus.runtime.saga;
@@ -7,10 +7,7 @@ package io.github.dddplus.model;
 
 import lombok.NonNull;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.*;
 
 /**
  * 聚合根的脏数据备忘录，对聚合根内部状态变化进行追踪.
@@ -60,7 +57,17 @@ import java.util.stream.Collectors;
  * </pre>
  */
 public final class DirtyMemento {
-    private final List<IDirtyHint> hints = new LinkedList<>();
+    // 按注册顺序
+    private final List<IDirtyHint> hints = new ArrayList<>();
+
+    // merge索引，key: hint class, value: {id: hint}
+    private final Map<Class<?>, Map<Object, IMergeAwareDirtyHint>> mergeIndex = new HashMap<>();
+
+    // 按类型查询的索引：首次查询某类型时建立，之后随注册增量维护
+    // key: 查询时指定的hint class，value: 该类型(含子类)的hints，按注册顺序
+    private final Map<Class<?>, List<IDirtyHint>> typeBuckets = new HashMap<>();
+
+    private final List<IDirtyHint> view = new HintsView();
 
     /**
      * 注册(追加)一个脏数据通知，以便{@code Repository}知道具体如何持久化.
@@ -69,6 +76,16 @@ public final class DirtyMemento {
      */
     public void register(@NonNull IDirtyHint hint) {
         hints.add(hint);
+        if (hint instanceof IMergeAwareDirtyHint) {
+            IMergeAwareDirtyHint mergeAwareHint = (IMergeAwareDirtyHint) hint;
+            // 同一个(class, id)重复注册时，merge的是第一个
+            mergeIndex.computeIfAbsent(hint.getClass(), k -> new HashMap<>()).putIfAbsent(mergeAwareHint.getId(), mergeAwareHint);
+        }
+        for (Map.Entry<Class<?>, List<IDirtyHint>> bucket : typeBuckets.entrySet()) {
+            if (bucket.getKey().isInstance(hint)) {
+                bucket.getValue().add(hint);
+            }
+        }
     }
 
     /**
@@ -76,21 +93,17 @@ public final class DirtyMemento {
      *
      * <p>保证备忘录里，该{@link IMergeAwareDirtyHint}只保留一个</p>
      * <p>Merge on Write</p>
+     * <p>按(hint class, id)索引查找，因此hint注册后其id不应再变化.</p>
      *
      * @param hint 脏数据通知
      */
     public void merge(@NonNull IMergeAwareDirtyHint hint) {
-        for (IDirtyHint existingHint : hints) {
-            if (!existingHint.getClass().equals(hint.getClass())) {
-                continue;
-            }
-
-            IMergeAwareDirtyHint existingMergeAwareHint = (IMergeAwareDirtyHint) existingHint;
-            if (hint.getId().equals(existingMergeAwareHint.getId())) {
-                // found it, trigger the hook
-                hint.onMerge(existingMergeAwareHint);
-                return;
-            }
+        Map<Object, IMergeAwareDirtyHint> sameClassHints = mergeIndex.get(hint.getClass());
+        IMergeAwareDirtyHint existingMergeAwareHint = sameClassHints == null ? null : sameClassHints.get(hint.getId());
+        if (existingMergeAwareHint != null) {
+            // found it, trigger the hook
+            hint.onMerge(existingMergeAwareHint);
+            return;
         }
 
         // not found
@@ -100,14 +113,18 @@ public final class DirtyMemento {
     /**
      * 当前的所有脏数据.
      *
-     * @return all dirty hints
+     * <p>可以直接修改返回的列表，备忘录的索引随之重建.</p>
+     *
+     * @return all dirty hints in registration order
      */
     public List<IDirtyHint> dirtyHints() {
-        return hints;
+        return view;
     }
 
     public void clear() {
         hints.clear();
+        mergeIndex.clear();
+        typeBuckets.clear();
     }
 
     public boolean isEmpty() {
@@ -126,12 +143,8 @@ public final class DirtyMemento {
      * @return null if not found. ONLY returns the first registered hint of specified type
      */
     public <T extends IDirtyHint> T firstHintOf(Class<T> hintClass) {
-        Optional<IDirtyHint> dirtyHint = hints.stream().filter(hintClass::isInstance).findFirst();
-        if (dirtyHint.isPresent()) {
-            return (T) dirtyHint.get();
-        } else {
-            return null;
-        }
+        List<IDirtyHint> bucket = bucketOf(hintClass);
+        return bucket.isEmpty() ? null : (T) bucket.get(0);
     }
 
     /**
@@ -139,10 +152,89 @@ public final class DirtyMemento {
      *
      * @param hintClass concrete type of {@link IDirtyHint}
      * @param <T>       hint class type
-     * @return will never returns null, but might be an empty list
+     * @return will never returns null, but might be an empty list. in registration order
      */
     @NonNull
     public <T extends IDirtyHint> List<T> dirtyHintsOf(Class<T> hintClass) {
-        return (List<T>) hints.stream().filter(hintClass::isInstance).collect(Collectors.toList());
+        return new ArrayList<>((List<T>) bucketOf(hintClass));
+    }
+
+    private List<IDirtyHint> bucketOf(Class<?> hintClass) {
+        List<IDirtyHint> bucket = typeBuckets.get(hintClass);
+        if (bucket == null) {
+            // 只在首次查询该类型时遍历
+            bucket = new ArrayList<>();
+            for (IDirtyHint hint : hints) {
+                if (hintClass.isInstance(hint)) {
+                    bucket.add(hint);
+                }
+            }
+            typeBuckets.put(hintClass, bucket);
+        }
+        return bucket;
+    }
+
+    // 通过dirtyHints()修改后，merge索引全部重建，按类型查询的索引在下次查询时重建
+    private void reindex() {
+        mergeIndex.clear();
+        typeBuckets.clear();
+        for (IDirtyHint hint : hints) {
+            if (hint instanceof IMergeAwareDirtyHint) {
+                IMergeAwareDirtyHint mergeAwareHint = (IMergeAwareDirtyHint) hint;
+                mergeIndex.computeIfAbsent(hint.getClass(), k -> new HashMap<>()).putIfAbsent(mergeAwareHint.getId(), mergeAwareHint);
+            }
+        }
+    }
+
+    private final class HintsView extends AbstractList<IDirtyHint> implements RandomAccess {
+
+        @Override
+        public IDirtyHint get(int index) {
+            return hints.get(index);
+        }
+
+        @Override
+        public int size() {
+            return hints.size();
+        }
+
+        @Override
+        public IDirtyHint set(int index, @NonNull IDirtyHint hint) {
+            IDirtyHint previous = hints.set(index, hint);
+            reindex();
+            return previous;
+        }
+
+        @Override
+        public void add(int index, @NonNull IDirtyHint hint) {
+            if (index == hints.size()) {
+                register(hint);
+            } else {
+                hints.add(index, hint);
+                reindex();
+            }
+            modCount++;
+        }
+
+        @Override
+        public IDirtyHint remove(int index) {
+            IDirtyHint removed = hints.remove(index);
+            reindex();
+            modCount++;
+            return removed;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            hints.subList(fromIndex, toIndex).clear();
+            reindex();
+            modCount++;
+        }
+
+        @Override
+        public void clear() {
+            DirtyMemento.this.clear();
+            modCount++;
+        }
     }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 某一类脏数据的批量落库：{@link WriteBehindUnitOfWork}的SPI.
+ *
+ * <p>{@link WriteBehindUnitOfWork}在提交时把所有聚合根上同一类型的{@link IDirtyHint}攒成一批，一次交给对应的writer，例如一条batch INSERT/UPDATE.</p>
+ * <pre>
+ * {@code
+ *
+ * class OrderLineInsertWriter implements IDirtyHintBatchWriter<OrderLineInsertHint> {
+ *     public Class<OrderLineInsertHint> hintClass() {
+ *         return OrderLineInsertHint.class;
+ *     }
+ *     public Set<Class<? extends IDirtyHint>> dependsOn() {
+ *         // 先有订单头，再有订单行
+ *         return Collections.singleton(OrderInsertHint.class);
+ *     }
+ *     public void write(List<OrderLineInsertHint> hints) {
+ *         orderLineDao.batchInsert(hints);
+ *     }
+ * }
+ * }
+ * </pre>
+ *
+ * @param <T> hint class type
+ */
+public interface IDirtyHintBatchWriter<T extends IDirtyHint> {
+
+    /**
+     * 负责哪种脏数据，包括其子类.
+     */
+    Class<T> hintClass();
+
+    /**
+     * 哪些类型的脏数据必须先于本批次落库，e,g. 外键依赖.
+     *
+     * @return hint classes, 本次提交中没有的类型被忽略
+     */
+    default Set<Class<? extends IDirtyHint>> dependsOn() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * 批量落库.
+     *
+     * @param hints 同一类型的所有脏数据，按聚合根被跟踪的顺序，同一个聚合根内按注册顺序. never empty
+     */
+    void write(List<T> hints);
+}
@@ -10,6 +10,7 @@ package io.github.dddplus.model;
  *
  * <p>架构分层上它属于Application Layer.</p>
  * <p>According to M. Fowler, the UoW is "just" a smart persistence tool，严格意义上与其相符的是{@code DirtyMemento}.</p>
+ * <p>参考实现：{@link WriteBehindUnitOfWork}，跨聚合根批量落库脏数据.</p>
  * <p></p>
  * @see <a href="http://martinfowler.com/eaaCatalog/unitOfWork.html">Martin Fowler解释UoW</a>
  */
@@ -0,0 +1,204 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.model;
+
+import lombok.NonNull;
+
+import java.util.*;
+
+/**
+ * A reference write-behind {@link IUnitOfWork}：跟踪本次业务操作涉及的聚合根，提交时把它们的脏数据批量落库.
+ *
+ * <p>提交时，收集所有被跟踪的{@link BaseAggregateRoot}的{@link DirtyMemento}，按hint类型攒批，按{@link IDirtyHintBatchWriter#dependsOn()}声明的依赖排序，每批只调用一次writer.</p>
+ * <p>全部落库成功后才清空各聚合根的备忘录；任何一批失败时备忘录保持不变，由外层事务回滚.</p>
+ * <p>非线程安全：每次业务操作(事务)使用一个新的实例.</p>
+ * <pre>
+ * {@code
+ *
+ * @Transactional(rollbackFor = Exception.class)
+ * public void persist(Task task, Order order) {
+ *     new WriteBehindUnitOfWork(writers)
+ *         .track(task)
+ *         .track(order)
+ *         .commit();
+ * }
+ * }
+ * </pre>
+ */
+public class WriteBehindUnitOfWork implements IUnitOfWork {
+    private final List<IDirtyHintBatchWriter<?>> writers;
+
+    // 按跟踪顺序，同一个聚合根对象只跟踪一次：聚合根可能覆盖了equals
+    private final List<BaseAggregateRoot<?>> aggregateRoots = new ArrayList<>();
+    private final Set<BaseAggregateRoot<?>> tracked = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // key: hint concrete class
+    private final Map<Class<?>, IDirtyHintBatchWriter<?>> resolvedWriters = new HashMap<>();
+
+    /**
+     * @param writers 同一hint类型有多个writer时，精确匹配优先，否则先注册的优先
+     */
+    public WriteBehindUnitOfWork(@NonNull List<? extends IDirtyHintBatchWriter<?>> writers) {
+        this.writers = new ArrayList<>(writers);
+    }
+
+    /**
+     * 跟踪一个聚合根：提交时落库其脏数据.
+     *
+     * @param aggregateRoot 本次业务操作涉及的聚合根
+     * @return this
+     */
+    public WriteBehindUnitOfWork track(@NonNull BaseAggregateRoot<?> aggregateRoot) {
+        if (tracked.add(aggregateRoot)) {
+            aggregateRoots.add(aggregateRoot);
+        }
+        return this;
+    }
+
+    /**
+     * 所有被跟踪的聚合根上的脏数据总数.
+     */
+    public int size() {
+        int size = 0;
+        for (BaseAggregateRoot<?> aggregateRoot : aggregateRoots) {
+            size += aggregateRoot.memento.size();
+        }
+        return size;
+    }
+
+    /**
+     * 批量落库所有被跟踪的聚合根上的脏数据，成功后清空它们的备忘录并停止跟踪.
+     *
+     * @throws IllegalStateException 某类脏数据没有writer，或者writer的依赖成环：此时不会落库任何数据
+     */
+    public void commit() {
+        List<Batch> batches = sort(collect());
+        for (Batch batch : batches) {
+            batch.write();
+        }
+
+        for (BaseAggregateRoot<?> aggregateRoot : aggregateRoots) {
+            aggregateRoot.memento.clear();
+        }
+        discard();
+    }
+
+    /**
+     * 停止跟踪所有聚合根，不落库，不改变它们的备忘录.
+     */
+    public void discard() {
+        aggregateRoots.clear();
+        tracked.clear();
+    }
+
+    // 按writer攒批，按首次出现的顺序
+    private List<Batch> collect() {
+        Map<IDirtyHintBatchWriter<?>, Batch> batches = new LinkedHashMap<>();
+        for (BaseAggregateRoot<?> aggregateRoot : aggregateRoots) {
+            for (IDirtyHint hint : aggregateRoot.memento.dirtyHints()) {
+                IDirtyHintBatchWriter<?> writer = writerOf(hint.getClass());
+                batches.computeIfAbsent(writer, Batch::new).add(hint);
+            }
+        }
+        return new ArrayList<>(batches.values());
+    }
+
+    private IDirtyHintBatchWriter<?> writerOf(Class<?> hintClass) {
+        IDirtyHintBatchWriter<?> writer = resolvedWriters.get(hintClass);
+        if (writer != null) {
+            return writer;
+        }
+
+        for (IDirtyHintBatchWriter<?> candidate : writers) {
+            if (candidate.hintClass() == hintClass) {
+                writer = candidate;
+                break;
+            }
+            if (writer == null && candidate.hintClass().isAssignableFrom(hintClass)) {
+                writer = candidate;
+            }
+        }
+        if (writer == null) {
+            throw new IllegalStateException("No IDirtyHintBatchWriter for " + hintClass.getName());
+        }
+
+        resolvedWriters.put(hintClass, writer);
+        return writer;
+    }
+
+    // 拓扑排序：依赖的批次在前，无依赖关系的批次保持原有顺序
+    private static List<Batch> sort(List<Batch> batches) {
+        List<Batch> pending = new LinkedList<>(batches);
+        List<Batch> sorted = new ArrayList<>(batches.size());
+        while (!pending.isEmpty()) {
+            Batch ready = null;
+            for (Batch batch : pending) {
+                if (batch.readyAfter(pending)) {
+                    ready = batch;
+                    break;
+                }
+            }
+            if (ready == null) {
+                throw new IllegalStateException("Cyclic dependencies among IDirtyHintBatchWriter: " + pending);
+            }
+
+            pending.remove(ready);
+            sorted.add(ready);
+        }
+        return sorted;
+    }
+
+    private static final class Batch {
+        final IDirtyHintBatchWriter writer;
+        final List<IDirtyHint> hints = new ArrayList<>();
+        // 本批次里hint的具体类型，用于匹配其他writer声明的依赖
+        final Set<Class<?>> hintClasses = new HashSet<>();
+
+        Batch(IDirtyHintBatchWriter<?> writer) {
+            this.writer = writer;
+        }
+
+        void add(IDirtyHint hint) {
+            hints.add(hint);
+            hintClasses.add(hint.getClass());
+        }
+
+        // 所依赖的批次都已经不在pending里
+        boolean readyAfter(List<Batch> pending) {
+            Set<Class<? extends IDirtyHint>> dependsOn = writer.dependsOn();
+            if (dependsOn.isEmpty()) {
+                return true;
+            }
+
+            for (Batch other : pending) {
+                if (other != this && other.contains(dependsOn)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean contains(Set<Class<? extends IDirtyHint>> types) {
+            for (Class<? extends IDirtyHint> type : types) {
+                for (Class<?> hintClass : hintClasses) {
+                    if (type.isAssignableFrom(hintClass)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        void write() {
+            writer.write(Collections.unmodifiableList(hints));
+        }
+
+        @Override
+        public String toString() {
+            return writer.hintClass().getSimpleName();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.plugin;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 插件包索引：构建时生成，插件加载时只读取该索引，而不必扫描整个jar包.
+ * <p>
+ * <p>存放在插件包的{@link #LOCATION}，由{@code dddplus-maven-plugin:plugin-index}生成，UTF-8文本格式，每行一条：</p>
+ * <pre>
+ * partner=org.example.FooPartner
+ * pattern=org.example.B2BPattern
+ * extension=org.example.FooExt
+ * listener=org.example.FooPluginListener
+ * </pre>
+ */
+public final class PluginIndex {
+    public static final String LOCATION = "META-INF/dddplus-plugin.idx";
+
+    private static final String PARTNER = "partner";
+    private static final String PATTERN = "pattern";
+    private static final String EXTENSION = "extension";
+    private static final String LISTENER = "listener";
+
+    private final List<String> partners = new ArrayList<>();
+    private final List<String> patterns = new ArrayList<>();
+    private final List<String> extensions = new ArrayList<>();
+    private String listener;
+
+    public PluginIndex addPartner(String className) {
+        partners.add(className);
+        return this;
+    }
+
+    public PluginIndex addPattern(String className) {
+        patterns.add(className);
+        return this;
+    }
+
+    /**
+     * @param className 扩展点实现类：它实现的扩展点接口在注册时由{@code Class}解析
+     */
+    public PluginIndex addExtension(String className) {
+        extensions.add(className);
+        return this;
+    }
+
+    /**
+     * 与动态加载的规则一致：一个插件包只有第一个{@link IPluginListener}生效.
+     */
+    public PluginIndex addListener(String className) {
+        if (listener == null) {
+            listener = className;
+        }
+        return this;
+    }
+
+    public List<String> getPartners() {
+        return Collections.unmodifiableList(partners);
+    }
+
+    public List<String> getPatterns() {
+        return Collections.unmodifiableList(patterns);
+    }
+
+    /**
+     * @return 扩展点实现类
+     */
+    public List<String> getExtensions() {
+        return Collections.unmodifiableList(extensions);
+    }
+
+    /**
+     * @return null if the plugin has no {@link IPluginListener}
+     */
+    public String getListener() {
+        return listener;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write("# generated by dddplus-maven-plugin, do not edit\n");
+        for (String partner : partners) {
+            writer.write(PARTNER + "=" + partner + "\n");
+        }
+        for (String pattern : patterns) {
+            writer.write(PATTERN + "=" + pattern + "\n");
+        }
+        for (String extension : extensions) {
+            writer.write(EXTENSION + "=" + extension + "\n");
+        }
+        if (listener != null) {
+            writer.write(LISTENER + "=" + listener + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * @throws IOException 索引格式不合法
+     */
+    public static PluginIndex read(InputStream in) throws IOException {
+        PluginIndex index = new PluginIndex();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        for (int lineNo = 1; (line = reader.readLine()) != null; lineNo++) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            int eq = line.indexOf('=');
+            if (eq <= 0 || eq == line.length() - 1) {
+                throw new IOException("invalid plugin index line " + lineNo + ": " + line);
+            }
+
+            String value = line.substring(eq + 1).trim();
+            switch (line.substring(0, eq).trim()) {
+                case PARTNER:
+                    index.addPartner(value);
+                    break;
+                case PATTERN:
+                    index.addPattern(value);
+                    break;
+                case EXTENSION:
+                    index.addExtension(value);
+                    break;
+                case LISTENER:
+                    index.addListener(value);
+                    break;
+                default:
+                    throw new IOException("invalid plugin index line " + lineNo + ": " + line);
+            }
+        }
+
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "partners:" + partners + ", patterns:" + patterns + ", extensions:" + extensions + ", listener:" + listener;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright DDDplus Authors.
+ *
+ * Licensed under the Apache License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.github.dddplus.step;
+
+import io.github.dddplus.model.IDomainModel;
+import lombok.NonNull;
+
+import java.util.List;
+
+/**
+ * 可以批量执行的活动步骤.
+ * <p>
+ * <p>批量执行活动时，一次处理一批领域模型，e,g. 一次DB round trip.</p>
+ * <p>批量执行抛出异常后，这批模型都以该异常失败，按各自已执行的步骤回滚.</p>
+ * <p>批量执行是all or nothing的步骤，可以通过{@link #fallbackOnBatchFailure()}改为对这批模型逐个调用{@link IDomainStep#execute(IDomainModel)}，以确定每个模型的执行结果.</p>
+ */
+@Deprecated
+public interface IBatchDomainStep<Model extends IDomainModel, Ex extends RuntimeException> extends IDomainStep<Model, Ex> {
+
+    /**
+     * 批量执行本步骤.
+     *
+     * @param models 领域模型
+     * @throws Ex 这批模型都失败，或者逐个执行：见{@link #fallbackOnBatchFailure()}
+     */
+    void executeBatch(@NonNull List<Model> models) throws Ex;
+
+    /**
+     * 批量执行失败后，是否逐个模型重新执行.
+     * <p>
+     * <p>只有当批量执行抛出异常时没有改变任何模型(all or nothing)，才可以返回true：否则部分执行过的模型会被再次执行.</p>
+     *
+     * @return 默认false：这批模型都失败
+     */
+    default boolean fallbackOnBatchFailure() {
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.dddplus.maven;
+
+import io.github.dddplus.annotation.Extension;
+import io.github.dddplus.plugin.IContainerContext;
+import io.github.dddplus.plugin.IPluginListener;
+import io.github.dddplus.plugin.PluginIndex;
+import io.github.dddplus.runtime.registry.mock.extension.B2CExt;
+import io.github.dddplus.runtime.registry.mock.partner.FooPartner;
+import io.github.dddplus.runtime.registry.mock.pattern.B2CPattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PluginIndexMojoTest {
+    private File outputDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        outputDirectory = Files.createTempDirectory("plugin-classes").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (!outputDirectory.exists()) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(outputDirectory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void execute() throws Exception {
+        copyClasses(B2CExt.class, FooPartner.class, B2CPattern.class, InheritedExt.class, AbstractListener.class, FooListener.class, BarListener.class, PluginIndexMojoTest.class);
+        mojo().execute();
+
+        PluginIndex index;
+        try (InputStream in = new FileInputStream(new File(outputDirectory, PluginIndex.LOCATION))) {
+            index = PluginIndex.read(in);
+        }
+        assertEquals(Collections.singletonList(FooPartner.class.getName()), index.getPartners());
+        assertEquals(Collections.singletonList(B2CPattern.class.getName()), index.getPatterns());
+        // @Extension is @Inherited；按类名排序
+        assertEquals(Arrays.asList(InheritedExt.class.getName(), B2CExt.class.getName()), index.getExtensions());
+        // 抽象类不是listener，只有第一个生效
+        assertEquals(BarListener.class.getName(), index.getListener());
+    }
+
+    @Test
+    public void noClasses() throws Exception {
+        assertTrue(outputDirectory.delete());
+        mojo().execute();
+        assertFalse(new File(outputDirectory, PluginIndex.LOCATION).exists());
+    }
+
+    private PluginIndexMojo mojo() {
+        PluginIndexMojo mojo = new PluginIndexMojo();
+        mojo.outputDirectory = outputDirectory;
+        // 插件包的依赖：dddplus-spec, dddplus-runtime，以及插件包引用的容器里的类
+        mojo.classpathElements = Arrays.asList(
+                location(IPluginListener.class),
+                location(Extension.class),
+                location(PluginIndexMojoTest.class));
+        return mojo;
+    }
+
+    private void copyClasses(Class... classes) throws IOException {
+        for (Class clazz : classes) {
+            String name = clazz.getName().replace('.', '/') + ".class";
+            File target = new File(outputDirectory, name);
+            target.getParentFile().mkdirs();
+            try (InputStream in = clazz.getClassLoader().getResourceAsStream(name)) {
+                Files.copy(in, target.toPath());
+            }
+        }
+    }
+
+    private static String location(Class clazz) {
+        return clazz.getProtectionDomain().getCodeSource().getLocation().getPath();
+    }
+
+    public static class InheritedExt extends B2CExt {
+    }
+
+    public static abstract class AbstractListener implements IPluginListener {
+    }
+
+    public static class FooListener extends AbstractListener {
+        @Override
+        public void onPrepared(IContainerContext ctx) {
+        }
+
+        @Override
+        public void onCommitted(IContainerContext ctx) {
+        }
+    }
+
+    public static class BarListener extends FooListener {
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.Test;
 
 import java.math.BigDecimal;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -149,6 +150,84 @@ public class DirtyMementoTest {
         assertTrue(memento.dirtyHintsOf(BindSoHint.class).isEmpty());
     }
 
+    @Test
+    public void indexed() {
+        DirtyMemento memento = new DirtyMemento();
+        memento.register(new BindSoHint("1"));
+        // 按类型查询之后注册的，也在索引里
+        assertEquals(1, memento.dirtyHintsOf(BindSoHint.class).size());
+        assertEquals(1, memento.dirtyHintsOf(IDirtyHint.class).size());
+        memento.register(new ConfirmCheckHint(1));
+        memento.register(new BindSoHint("2"));
+        assertEquals(2, memento.dirtyHintsOf(BindSoHint.class).size());
+        assertEquals("2", memento.dirtyHintsOf(BindSoHint.class).get(1).soNo);
+        // 父类型包含所有子类型，保持注册顺序
+        List<IDirtyHint> all = memento.dirtyHintsOf(IDirtyHint.class);
+        assertEquals(3, all.size());
+        assertTrue(all.get(1) instanceof ConfirmCheckHint);
+        // 返回的是副本
+        memento.dirtyHintsOf(BindSoHint.class).clear();
+        assertEquals(2, memento.dirtyHintsOf(BindSoHint.class).size());
+
+        // register的merge aware hint也可以被merge
+        CheckTask task = new CheckTask();
+        task.taskNo = "CK-1";
+        CheckTaskUpdateHint registered = new CheckTaskUpdateHint(task);
+        memento.register(registered);
+        CheckTaskUpdateHint hint = new CheckTaskUpdateHint(task);
+        hint.dirty("status");
+        memento.merge(hint);
+        assertEquals(4, memento.size());
+        assertEquals(1, registered.dirtyFields.size());
+        // 同id不同class，不合并
+        task.id = 1L;
+        memento.merge(new MergeHint(task));
+        assertEquals(5, memento.size());
+
+        // 大量merge也是线性的
+        for (int i = 0; i < 10_000; i++) {
+            CheckTask t = new CheckTask();
+            t.taskNo = String.valueOf(i % 100);
+            memento.merge(new CheckTaskUpdateHint(t));
+        }
+        assertEquals(105, memento.size());
+        assertEquals(101, memento.dirtyHintsOf(CheckTaskUpdateHint.class).size());
+
+        memento.clear();
+        assertTrue(memento.dirtyHintsOf(IDirtyHint.class).isEmpty());
+        memento.merge(hint);
+        assertSame(hint, memento.firstHintOf(CheckTaskUpdateHint.class));
+    }
+
+    @Test
+    public void mutableDirtyHints() {
+        DirtyMemento memento = new DirtyMemento();
+        CheckTask task = new CheckTask();
+        task.taskNo = "CK-1";
+        CheckTaskUpdateHint hint = new CheckTaskUpdateHint(task);
+        memento.register(hint);
+        memento.register(new BindSoHint("1"));
+        assertEquals(1, memento.dirtyHintsOf(CheckTaskUpdateHint.class).size());
+
+        // 直接修改dirtyHints，索引随之更新
+        Iterator<IDirtyHint> iterator = memento.dirtyHints().iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals(1, memento.size());
+        assertTrue(memento.dirtyHintsOf(CheckTaskUpdateHint.class).isEmpty());
+        CheckTaskUpdateHint again = new CheckTaskUpdateHint(task);
+        memento.merge(again);
+        assertSame(again, memento.firstHintOf(CheckTaskUpdateHint.class));
+
+        memento.dirtyHints().add(0, new BindSoHint("0"));
+        assertEquals("0", memento.firstHintOf(BindSoHint.class).soNo);
+        memento.dirtyHints().add(new BindSoHint("2"));
+        assertEquals(3, memento.dirtyHintsOf(BindSoHint.class).size());
+        memento.dirtyHints().clear();
+        assertTrue(memento.isEmpty());
+        assertNull(memento.firstHintOf(BindSoHint.class));
+    }
+
     private static class CheckTaskPo {
         private String soNo;
         private Integer checkQty;
@@ -0,0 +1,190 @@
+package io.github.dddplus.model;
+
+import io.github.dddplus.model.spcification.Notification;
+import lombok.AllArgsConstructor;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindUnitOfWorkTest {
+
+    @Test
+    public void batchedAndOrdered() {
+        List<String> log = new ArrayList<>();
+        WriteBehindUnitOfWork uow = new WriteBehindUnitOfWork(Arrays.asList(
+                new Writer<>(OrderLineInserted.class, log, OrderInserted.class),
+                new Writer<>(OrderInserted.class, log),
+                new Writer<>(Changed.class, log)));
+
+        Order o1 = new Order("o1");
+        Order o2 = new Order("o2");
+        o1.dirty(new OrderLineInserted("o1-1"));
+        o1.dirty(new Changed("o1"));
+        o1.dirty(new OrderInserted("o1"));
+        o1.dirty(new OrderLineInserted("o1-2"));
+        o2.dirty(new OrderInserted("o2"));
+        o2.dirty(new OrderLineInserted("o2-1"));
+        o2.dirty(new PriorityChanged("o2"));
+        uow.track(o1).track(o2).track(o1);
+        assertEquals(7, uow.size());
+
+        uow.commit();
+        // 每种hint一批；订单行依赖订单头，其他批次保持首次出现的顺序；子类hint与父类同一批
+        assertEquals(Arrays.asList(
+                "Changed[o1, o2]",
+                "OrderInserted[o1, o2]",
+                "OrderLineInserted[o1-1, o1-2, o2-1]"), log);
+        assertTrue(o1.memento.isEmpty());
+        assertTrue(o2.memento.isEmpty());
+        assertEquals(0, uow.size());
+
+        // 不再跟踪
+        o1.dirty(new Changed("again"));
+        uow.commit();
+        assertEquals(3, log.size());
+    }
+
+    @Test
+    public void noWriter() {
+        List<String> log = new ArrayList<>();
+        WriteBehindUnitOfWork uow = new WriteBehindUnitOfWork(Collections.singletonList(new Writer<>(OrderInserted.class, log)));
+        Order order = new Order("o1");
+        order.dirty(new OrderInserted("o1"));
+        order.dirty(new Changed("o1"));
+        try {
+            uow.track(order).commit();
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("No IDirtyHintBatchWriter for " + Changed.class.getName(), expected.getMessage());
+        }
+        // 什么都没有落库，备忘录保持不变
+        assertTrue(log.isEmpty());
+        assertEquals(2, order.memento.size());
+    }
+
+    @Test
+    public void cyclic() {
+        List<String> log = new ArrayList<>();
+        WriteBehindUnitOfWork uow = new WriteBehindUnitOfWork(Arrays.asList(
+                new Writer<>(OrderInserted.class, log, OrderLineInserted.class),
+                new Writer<>(OrderLineInserted.class, log, OrderInserted.class)));
+        Order order = new Order("o1");
+        order.dirty(new OrderInserted("o1"));
+        order.dirty(new OrderLineInserted("o1-1"));
+        try {
+            uow.track(order).commit();
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("Cyclic dependencies among IDirtyHintBatchWriter: [OrderInserted, OrderLineInserted]", expected.getMessage());
+        }
+        assertTrue(log.isEmpty());
+
+        // 本次提交中没有依赖的类型，则忽略该依赖
+        order.memento.clear();
+        order.dirty(new OrderInserted("o2"));
+        uow.commit();
+        assertEquals(Collections.singletonList("OrderInserted[o2]"), log);
+    }
+
+    @Test
+    public void writerFails() {
+        WriteBehindUnitOfWork uow = new WriteBehindUnitOfWork(Collections.singletonList(new IDirtyHintBatchWriter<Changed>() {
+            @Override
+            public Class<Changed> hintClass() {
+                return Changed.class;
+            }
+
+            @Override
+            public void write(List<Changed> hints) {
+                throw new IllegalArgumentException("db down");
+            }
+        }));
+        Order order = new Order("o1");
+        order.dirty(new Changed("o1"));
+        try {
+            uow.track(order).commit();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        // 由外层事务回滚，备忘录还在
+        assertEquals(1, order.memento.size());
+        uow.discard();
+        assertEquals(0, uow.size());
+    }
+
+    static class Order extends BaseAggregateRoot<Order> {
+        final String orderNo;
+
+        Order(String orderNo) {
+            this.orderNo = orderNo;
+        }
+
+        @Override
+        protected void whenNotSatisfied(Notification notification) {
+        }
+    }
+
+    @AllArgsConstructor
+    static class Hint implements IDirtyHint {
+        final String key;
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    static class OrderInserted extends Hint {
+        OrderInserted(String key) {
+            super(key);
+        }
+    }
+
+    static class OrderLineInserted extends Hint {
+        OrderLineInserted(String key) {
+            super(key);
+        }
+    }
+
+    static class Changed extends Hint {
+        Changed(String key) {
+            super(key);
+        }
+    }
+
+    static class PriorityChanged extends Changed {
+        PriorityChanged(String key) {
+            super(key);
+        }
+    }
+
+    static class Writer<T extends IDirtyHint> implements IDirtyHintBatchWriter<T> {
+        final Class<T> hintClass;
+        final List<String> log;
+        final Set<Class<? extends IDirtyHint>> dependsOn;
+
+        @SafeVarargs
+        Writer(Class<T> hintClass, List<String> log, Class<? extends IDirtyHint>... dependsOn) {
+            this.hintClass = hintClass;
+            this.log = log;
+            this.dependsOn = new HashSet<>(Arrays.asList(dependsOn));
+        }
+
+        @Override
+        public Class<T> hintClass() {
+            return hintClass;
+        }
+
+        @Override
+        public Set<Class<? extends IDirtyHint>> dependsOn() {
+            return dependsOn;
+        }
+
+        @Override
+        public void write(List<T> hints) {
+            log.add(hintClass.getSimpleName() + hints);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.dddplus.runtime;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ContextPropagationTest {
+
+    @After
+    public void tearDown() {
+        MDC.clear();
+        TenantPropagator.TENANT.remove();
+        ContextPropagation.reset();
+    }
+
+    @Test
+    public void snapshotReusedWhenUnchanged() {
+        MDC.put("traceId", "1");
+        ContextPropagation.Snapshot s1 = ContextPropagation.capture();
+        ContextPropagation.Snapshot s2 = ContextPropagation.capture();
+        assertSame(s1, s2);
+
+        MDC.put("traceId", "2");
+        ContextPropagation.Snapshot s3 = ContextPropagation.capture();
+        assertNotSame(s1, s3);
+    }
+
+    @Test
+    public void copyOnWrite() throws Exception {
+        ContextPropagation.register(new TenantPropagator());
+        ContextPropagation.register(new TenantPropagator()); // registered only once
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MDC.put("traceId", "1");
+            TenantPropagator.TENANT.set("t1");
+            ContextPropagation.Snapshot s1 = ContextPropagation.capture();
+            assertEquals("1|t1", executor.submit(s1.wrap(ContextPropagationTest::current)).get());
+
+            TenantPropagator.TENANT.set("t2");
+            ContextPropagation.Snapshot s2 = ContextPropagation.capture();
+            assertNotSame(s1, s2);
+            assertEquals("1|t2", executor.submit(s2.wrap(ContextPropagationTest::current)).get());
+
+            // the snapshot itself is immutable
+            assertEquals("1|t1", executor.submit(s1.wrap(ContextPropagationTest::current)).get());
+
+            // worker thread context cleared after execution
+            assertEquals("null|null", executor.submit(ContextPropagationTest::current).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void callerRunsKeepsCallerContext() {
+        MDC.put("traceId", "1");
+        AtomicReference<String> seen = new AtomicReference<>();
+        ContextPropagation.capture().wrap(() -> seen.set(MDC.get("traceId"))).run();
+        assertEquals("1", seen.get());
+        assertEquals("1", MDC.get("traceId"));
+    }
+
+    @Test
+    public void workerContextRestored() throws Exception {
+        ContextPropagation.register(new TenantPropagator());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            TenantPropagator.TENANT.set("caller");
+            ContextPropagation.Snapshot callerContext = ContextPropagation.capture();
+            // 任务由worker提交给自己，但在worker的上下文变化之后才执行
+            Future<Future<String>> queued = executor.submit(() -> {
+                TenantPropagator.TENANT.set("worker");
+                Future<String> self = executor.submit(ContextPropagation.capture().wrap(ContextPropagationTest::current));
+                TenantPropagator.TENANT.set("changed");
+                return self;
+            });
+            assertEquals("null|worker", queued.get().get());
+            // worker自己的上下文在包装任务执行后被还原
+            assertEquals("null|changed", executor.submit(ContextPropagationTest::current).get());
+            assertEquals("null|caller", executor.submit(callerContext.wrap(ContextPropagationTest::current)).get());
+            assertEquals("null|changed", executor.submit(ContextPropagationTest::current).get());
+
+            // caller runs: 执行后还原调用方自己的上下文
+            ContextPropagation.Snapshot t1 = ContextPropagation.capture();
+            TenantPropagator.TENANT.set("t2");
+            AtomicReference<String> seen = new AtomicReference<>();
+            t1.wrap(() -> seen.set(TenantPropagator.TENANT.get())).run();
+            assertEquals("caller", seen.get());
+            assertEquals("t2", TenantPropagator.TENANT.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void emptyMdc() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> future = executor.submit(ContextPropagation.capture().wrap(() -> MDC.get("traceId")));
+            assertNull(future.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String current() {
+        return MDC.get("traceId") + "|" + TenantPropagator.TENANT.get();
+    }
+
+    private static class TenantPropagator implements IContextPropagator<String> {
+        static final ThreadLocal<String> TENANT = new ThreadLocal<>();
+
+        @Override
+        public String capture() {
+            return TENANT.get();
+        }
+
+        @Override
+        public void restore(String context) {
+            TENANT.set(context);
+        }
+
+        @Override
+        public void clear() {
+            TENANT.remove();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.dddplus.runtime;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketOf() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        assertEquals(2, LatencyHistogram.bucketOf(2));
+        assertEquals(2, LatencyHistogram.bucketOf(3));
+        assertEquals(11, LatencyHistogram.bucketOf(1024));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void snapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().percentileMicros(0.5));
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        histogram.record(-1); // ignored as 0
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(101, snapshot.getCount());
+        assertEquals(10_000, snapshot.getMaxMicros());
+        assertEquals(197, snapshot.getMeanMicros());
+        // 100μs所在桶: [64, 128)
+        assertEquals(127, snapshot.percentileMicros(0.5));
+        assertEquals(127, snapshot.percentileMicros(0.98));
+        assertEquals(10_000, snapshot.percentileMicros(1));
+
+        try {
+            snapshot.percentileMicros(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.dddplus.runtime;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RuntimeMetricsTest {
+
+    @Before
+    public void setUp() {
+        RuntimeMetrics.reset();
+    }
+
+    @Test
+    public void snapshot() {
+        RuntimeMetrics.increment("foo", RuntimeMetrics.ASYNC_STEP_SHED);
+        RuntimeMetrics.increment("foo", RuntimeMetrics.ASYNC_STEP_SHED);
+        RuntimeMetrics.increment("bar", RuntimeMetrics.ASYNC_STEP_REJECTED);
+
+        RuntimeMetrics.Snapshot snapshot = RuntimeMetrics.snapshot();
+        assertEquals(2, snapshot.counter("foo", RuntimeMetrics.ASYNC_STEP_SHED));
+        assertEquals(1, snapshot.counter("bar", RuntimeMetrics.ASYNC_STEP_REJECTED));
+        assertEquals(0, snapshot.counter("foo", RuntimeMetrics.ASYNC_STEP_CALLER_RUNS));
+        assertEquals("[bar.async.rejected, foo.async.shed]", snapshot.getCounters().keySet().toString());
+
+        // 快照是不可变的
+        RuntimeMetrics.increment("foo", RuntimeMetrics.ASYNC_STEP_SHED);
+        assertEquals(2, snapshot.counter("foo", RuntimeMetrics.ASYNC_STEP_SHED));
+        try {
+            snapshot.getCounters().clear();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void pluginCalls() {
+        RuntimeMetrics.PluginMetrics v1 = RuntimeMetrics.pluginMetrics("jd@v1");
+        v1.record(1000_000, false);
+        v1.record(3000_000, true);
+        RuntimeMetrics.pluginMetrics("jd@v2").record(2000_000, false);
+
+        RuntimeMetrics.Snapshot snapshot = RuntimeMetrics.snapshot();
+        assertEquals(2, snapshot.counter("jd@v1", RuntimeMetrics.PLUGIN_CALLS));
+        assertEquals(1, snapshot.counter("jd@v1", RuntimeMetrics.PLUGIN_ERRORS));
+        assertEquals(1, snapshot.counter("jd@v2", RuntimeMetrics.PLUGIN_CALLS));
+        assertEquals(0, snapshot.counter("jd@v2", RuntimeMetrics.PLUGIN_ERRORS));
+        assertEquals("[jd@v1, jd@v2]", snapshot.getPluginLatencies().keySet().toString());
+        assertEquals(2, snapshot.pluginLatency("jd@v1").getCount());
+        assertEquals(1, snapshot.pluginLatency("jd@v2").getCount());
+        assertNull(snapshot.pluginLatency("jd@v3"));
+
+        RuntimeMetrics.reset();
+        assertTrue(RuntimeMetrics.snapshot().getPluginLatencies().isEmpty());
+    }
+}
@@ -25,7 +25,6 @@ public class BadOnPurposeTest {
             applicationContext = null;
         }
 
-        RegistryFactory.validRegistryEntries.clear();
         InternalIndexer.domainDefMap.clear();
         InternalIndexer.domainStepDefMap.clear();
         InternalIndexer.routerDefMap.clear();
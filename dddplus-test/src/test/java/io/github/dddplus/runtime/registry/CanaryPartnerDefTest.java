@@ -0,0 +1,90 @@
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.ext.IIdentity;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CanaryPartnerDefTest {
+
+    @Test
+    public void weights() {
+        CanaryPartnerDef canary = new CanaryPartnerDef(new PartnerDef(), 0, false);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(canary.routes(new KeyedIdentity(i)));
+        }
+
+        canary.setWeight(100);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(canary.routes(new KeyedIdentity(i)));
+        }
+
+        try {
+            canary.setWeight(101);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("canary weight must be in [0, 100]: 101", expected.getMessage());
+        }
+        assertEquals(100, canary.getWeight());
+    }
+
+    @Test
+    public void sticky() {
+        CanaryPartnerDef canary = new CanaryPartnerDef(new PartnerDef(), 30, true);
+        int routed = 0;
+        for (int i = 0; i < 1000; i++) {
+            boolean first = canary.routes(new KeyedIdentity(i));
+            // 同一个业务身份总是路由到同一个版本
+            assertEquals(first, canary.routes(new KeyedIdentity(i)));
+            if (first) {
+                routed++;
+            }
+        }
+        assertEquals(300, routed);
+
+        // 负数hashCode
+        assertTrue(canary.routes(new KeyedIdentity(-71)));
+        assertFalse(canary.routes(new KeyedIdentity(-1)));
+    }
+
+    @Test
+    public void random() {
+        CanaryPartnerDef canary = new CanaryPartnerDef(new PartnerDef(), 50, false);
+        int routed = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (canary.routes(new KeyedIdentity(1))) {
+                routed++;
+            }
+        }
+        assertTrue(routed > 4000 && routed < 6000);
+    }
+
+    @Test
+    public void noCanary() {
+        assertNull(InternalIndexer.abortCanaryPartner("notExist"));
+        try {
+            InternalIndexer.setCanaryWeight("notExist", 10);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("No canary of partner:notExist", expected.getMessage());
+        }
+        try {
+            InternalIndexer.promoteCanaryPartner("notExist");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static final class KeyedIdentity implements IIdentity {
+        private final int key;
+
+        KeyedIdentity(int key) {
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.plugin.IPlugin;
+import io.github.dddplus.runtime.RuntimeMetrics;
+import io.github.dddplus.runtime.registry.mock.ext.IPartnerExt;
+import io.github.dddplus.runtime.registry.mock.extension.FooPartnerExt;
+import io.github.dddplus.runtime.registry.mock.model.FooModel;
+import io.github.dddplus.runtime.registry.mock.partner.FooPartner;
+import io.github.dddplus.testing.AloneRunner;
+import io.github.dddplus.testing.AloneWith;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// 独立的类加载器：InternalIndexer的静态索引不受其他测试影响
+@RunWith(AloneRunner.class)
+@AloneWith(JUnit4.class)
+public class CanaryPluginTest {
+    private static final String CODE = FooPartner.CODE;
+
+    @After
+    public void tearDown() {
+        Container container = Container.getInstance();
+        if (container.getCanaryPlugins().containsKey(CODE)) {
+            container.abortCanaryPlugin(CODE);
+        }
+        container.getActivePlugins().remove(CODE);
+    }
+
+    @Test
+    public void canaryLifecycle() throws Throwable {
+        Container container = Container.getInstance();
+        String jar = JarUtilsTest.jarOf(FooPartner.class, FooPartnerExt.class).getAbsolutePath();
+        try {
+            container.loadCanaryPartnerPlugin(CODE, "v2", jar, false, 100, false);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("No stable version of partner:" + CODE, expected.getMessage());
+        }
+
+        container.loadPartnerPlugin(CODE, "v1", jar, false);
+        FooModel model = new FooModel();
+        model.setPartnerCode(CODE);
+        assertEquals(CODE + "@v1", effectivePluginKey(model));
+
+        // 全部流量到灰度版本
+        container.loadCanaryPartnerPlugin(CODE, "v2", jar, false, 100, false);
+        assertEquals("v2", container.getCanaryPlugins().get(CODE).getVersion());
+        assertEquals("v1", container.getActivePlugins().get(CODE).getVersion());
+        assertEquals(CODE + "@v2", effectivePluginKey(model));
+        // 指标按版本，在commit时就解析好了
+        assertNotNull(RuntimeMetrics.snapshot().pluginLatency(CODE + "@v2"));
+
+        // 没有流量到灰度版本
+        container.setCanaryWeight(CODE, 0);
+        assertEquals(CODE + "@v1", effectivePluginKey(model));
+
+        // 全量：灰度版本成为稳定版本
+        IPlugin promoted = container.promoteCanaryPlugin(CODE);
+        assertEquals("v2", promoted.getVersion());
+        assertSame(promoted, container.getActivePlugins().get(CODE));
+        assertTrue(container.getCanaryPlugins().isEmpty());
+        assertTrue(InternalIndexer.canaryPartnerDefMap.isEmpty());
+        assertEquals(CODE + "@v2", effectivePluginKey(model));
+
+        // 放弃灰度：流量回到稳定版本
+        container.loadCanaryPartnerPlugin(CODE, "v3", jar, false, 100, true);
+        assertEquals(CODE + "@v3", effectivePluginKey(model));
+        container.abortCanaryPlugin(CODE);
+        assertTrue(container.getCanaryPlugins().isEmpty());
+        assertTrue(InternalIndexer.canaryPartnerDefMap.isEmpty());
+        assertSame(promoted, container.getActivePlugins().get(CODE));
+        assertEquals(CODE + "@v2", effectivePluginKey(model));
+
+        try {
+            container.abortCanaryPlugin(CODE);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("No canary of partner:" + CODE, expected.getMessage());
+        }
+    }
+
+    @Test
+    public void stickyRouting() throws Throwable {
+        Container container = Container.getInstance();
+        String jar = JarUtilsTest.jarOf(FooPartner.class, FooPartnerExt.class).getAbsolutePath();
+        container.loadPartnerPlugin(CODE, "v1", jar, false);
+        container.loadCanaryPartnerPlugin(CODE, "v2", jar, false, 50, true);
+
+        // 按业务身份的hashCode分流：同一个业务身份总是同一个版本
+        int canary = 0;
+        for (int i = 0; i < 100; i++) {
+            FooModel model = new StickyModel(i);
+            model.setPartnerCode(CODE);
+            String pluginKey = effectivePluginKey(model);
+            assertEquals(i < 50 ? CODE + "@v2" : CODE + "@v1", pluginKey);
+            for (int j = 0; j < 3; j++) {
+                assertEquals(pluginKey, effectivePluginKey(model));
+            }
+            if (pluginKey.endsWith("@v2")) {
+                canary++;
+            }
+        }
+        assertEquals(50, canary);
+    }
+
+    private static String effectivePluginKey(FooModel model) {
+        List<ExtensionDef> effective = InternalIndexer.findEffectiveExtensions(IPartnerExt.class, model, true);
+        assertEquals(1, effective.size());
+        return effective.get(0).pluginKey();
+    }
+
+    private static class StickyModel extends FooModel {
+        private final int hash;
+
+        StickyModel(int hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o;
+        }
+    }
+}
@@ -1,16 +1,34 @@
 package io.github.dddplus.runtime.registry;
 
+import io.github.dddplus.plugin.IContainerContext;
+import io.github.dddplus.plugin.IPluginListener;
+import io.github.dddplus.runtime.registry.mock.partner.FooPartner;
+import io.github.dddplus.testing.AloneRunner;
+import io.github.dddplus.testing.AloneWith;
 import io.github.dddplus.testing.LogAssert;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
+// 独立的类加载器：批量加载的Partner不会留在其他测试的InternalIndexer里
+@RunWith(AloneRunner.class)
+@AloneWith(JUnit4.class)
 @Slf4j
 public class ContainerTest {
 
@@ -45,19 +63,184 @@ public class ContainerTest {
     }
 
     @Test
-    public void createLocalFile() throws Exception {
-        URL jarUrl = new URL("https://github.com/funkygao/dddplus/blob/master/doc/assets/jar/order-center-bp-isv-0.0.1.jar");
-        File file = Container.getInstance().createLocalFile(jarUrl);
-        file.deleteOnExit();
-        log.info("{}", file.getCanonicalFile());
-        assertTrue(file.getCanonicalPath().endsWith(".jar"));
-        file.delete();
-
-        jarUrl = new URL("https://github.com/funkygao/dddplus/blob/master/doc/assets/jar/order-center-bp-isv-0.0.1.jar?raw=true");
-        file = Container.getInstance().createLocalFile(jarUrl);
-        file.deleteOnExit();
-        assertTrue(file.getCanonicalPath().endsWith(".jar"));
-        file.delete();
+    public void jarUrlNotExist() throws IOException {
+        URL jarUrl = new File("b.jar").toURI().toURL();
+        try {
+            Container.getInstance().loadPartnerPlugin("foo", "v1", jarUrl, false);
+            fail();
+        } catch (FileNotFoundException expected) {
+        } catch (Throwable unexpected) {
+            fail();
+        }
+
+        LogAssert.assertContains("Loading partner:" + jarUrl + " useSpring:false", "fails to load partner:" + jarUrl + ", cost");
+    }
+
+    @Test
+    public void bulkLoad() throws IOException {
+        List<Container.PartnerJar> jars = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            jars.add(new Container.PartnerJar("bulk" + i, "v1", "bulk" + i + ".jar"));
+        }
+        try {
+            Container.getInstance().loadPartnerPlugins(jars, false);
+            fail();
+        } catch (FileNotFoundException expected) {
+            // 每个jar包都尝试过
+            assertEquals(4, expected.getSuppressed().length);
+        } catch (Throwable unexpected) {
+            fail();
+        }
+
+        LogAssert.assertContains("fails to load partner:bulk0.jar", "fails to load partner:bulk4.jar");
+        assertFalse(Container.getInstance().getActivePlugins().containsKey("bulk0"));
+    }
+
+    @Test
+    public void bulkLoadConcurrently() throws Throwable {
+        Container container = Container.getInstance();
+        String jar = JarUtilsTest.jarOf(FooPartner.class, GatedListener.class).getAbsolutePath();
+        try {
+            // 不同code并行prepare：两个都到达后才放行，串行时第一个会等到超时
+            PrepareGate.reset(2, 5_000);
+            container.loadPartnerPlugins(Arrays.asList(
+                    new Container.PartnerJar("bulkA", "v1", jar),
+                    new Container.PartnerJar("bulkB", "v1", jar)), false, 2);
+            assertEquals(2, PrepareGate.maxPreparing.get());
+            assertTrue(container.getActivePlugins().containsKey("bulkA"));
+            assertTrue(container.getActivePlugins().containsKey("bulkB"));
+            // 热备预算按jar包大小加上已加载类的metaspace估算
+            Plugin bulkA = (Plugin) container.getActivePlugins().get("bulkA");
+            PluginClassLoader.Footprint classFootprint = ((PluginClassLoader) bulkA.getPluginClassLoader()).getFootprint();
+            assertEquals(new File(jar).length() + classFootprint.estimatedMetaspaceInBytes(), bulkA.getFootprintInBytes());
+
+            // 同一个code串行：第一个等不到第二个
+            PrepareGate.reset(2, 300);
+            container.loadPartnerPlugins(Arrays.asList(
+                    new Container.PartnerJar("bulkC", "v1", jar),
+                    new Container.PartnerJar("bulkC", "v2", jar)), false, 2);
+            assertEquals(1, PrepareGate.maxPreparing.get());
+            assertTrue(container.getActivePlugins().containsKey("bulkC"));
+        } finally {
+            container.getActivePlugins().remove("bulkA");
+            container.getActivePlugins().remove("bulkB");
+            container.getActivePlugins().remove("bulkC");
+        }
+    }
+
+    @Test
+    public void warmStandbyRollback() throws Throwable {
+        Container container = Container.getInstance();
+        List<String> events = new CopyOnWriteArrayList<>();
+        StubPlugin v1 = new StubPlugin("bar", "v1", 100, events);
+        StubPlugin v2 = new StubPlugin("bar", "v2", 100, events);
+        container.setStandbyBudgetInBytes(150);
+        try {
+            container.getActivePlugins().put("bar", v2);
+            container.retire(v1);
+            assertSame(v1, container.getStandbyPlugins().get("bar"));
+
+            assertSame(v1, container.rollbackPartnerPlugin("bar"));
+            assertSame(v1, container.getActivePlugins().get("bar"));
+            // 可以再roll forward
+            assertSame(v2, container.getStandbyPlugins().get("bar"));
+            assertEquals(Collections.singletonList("recommit:bar:v1"), events);
+
+            // 超出预算：最早的热备被销毁
+            StubPlugin baz = new StubPlugin("baz", "v1", 100, events);
+            container.retire(baz);
+            assertEquals(Collections.singleton("baz"), container.getStandbyPlugins().keySet());
+            // 销毁前先等待在途调用
+            awaitSize(events, 2);
+            assertEquals("destroy:bar:v2", events.get(1));
+
+            // 本身就超出预算的直接销毁
+            container.retire(new StubPlugin("qux", "v1", 200, events));
+            awaitSize(events, 3);
+            assertEquals("destroy:qux:v1", events.get(2));
+            assertFalse(container.getStandbyPlugins().containsKey("qux"));
+
+            try {
+                container.rollbackPartnerPlugin("qux");
+                fail();
+            } catch (IllegalStateException expected) {
+                assertEquals("No warm standby of partner:qux", expected.getMessage());
+            }
+
+            container.rollbackPartnerPlugin("baz");
+        } finally {
+            container.setStandbyBudgetInBytes(0);
+            container.getActivePlugins().remove("bar");
+            container.getActivePlugins().remove("baz");
+        }
+    }
+
+    private static void awaitSize(List<String> events, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && events.size() < size; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    // 不在插件jar包里：插件里的listener与测试共享
+    static class PrepareGate {
+        static final AtomicInteger preparing = new AtomicInteger();
+        static final AtomicInteger maxPreparing = new AtomicInteger();
+        static volatile CountDownLatch arrived;
+        static volatile long holdInMs;
+
+        static void reset(int parties, long holdInMs) {
+            maxPreparing.set(0);
+            arrived = new CountDownLatch(parties);
+            PrepareGate.holdInMs = holdInMs;
+        }
+
+        static void pass() throws InterruptedException {
+            maxPreparing.accumulateAndGet(preparing.incrementAndGet(), Math::max);
+            try {
+                arrived.countDown();
+                arrived.await(holdInMs, TimeUnit.MILLISECONDS);
+            } finally {
+                preparing.decrementAndGet();
+            }
+        }
+    }
+
+    // 打进插件jar包：在prepare阶段，持有该code的锁时执行
+    public static class GatedListener implements IPluginListener {
+        @Override
+        public void onPrepared(IContainerContext ctx) throws Exception {
+            PrepareGate.pass();
+        }
+
+        @Override
+        public void onCommitted(IContainerContext ctx) {
+        }
+    }
+
+    private static class StubPlugin extends Plugin {
+        private final long footprintInBytes;
+        private final List<String> events;
+
+        StubPlugin(String code, String version, long footprintInBytes, List<String> events) {
+            super(code, version, null, null, null);
+            this.footprintInBytes = footprintInBytes;
+            this.events = events;
+        }
+
+        @Override
+        public long getFootprintInBytes() {
+            return footprintInBytes;
+        }
+
+        @Override
+        void recommit() {
+            events.add("recommit:" + getCode() + ":" + getVersion());
+        }
+
+        @Override
+        void onDestroy() {
+            events.add("destroy:" + getCode() + ":" + getVersion());
+        }
     }
 
 }
\ No newline at end of file
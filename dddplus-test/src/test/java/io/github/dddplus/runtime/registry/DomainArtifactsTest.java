@@ -1,12 +1,26 @@
 package io.github.dddplus.runtime.registry;
 
+import io.github.dddplus.runtime.registry.mock.ext.IFooExt;
+import io.github.dddplus.runtime.registry.mock.ext.IPartnerExt;
+import io.github.dddplus.runtime.registry.mock.extension.B2CExt;
+import io.github.dddplus.runtime.registry.mock.extension.FooPartnerExt;
+import io.github.dddplus.runtime.registry.mock.partner.FooPartner;
+import io.github.dddplus.runtime.registry.mock.pattern.B2CPattern;
+import io.github.dddplus.testing.AloneRunner;
+import io.github.dddplus.testing.AloneWith;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
+@RunWith(AloneRunner.class)
+@AloneWith(JUnit4.class)
 public class DomainArtifactsTest {
 
     @Test
@@ -43,4 +57,54 @@ public class DomainArtifactsTest {
         assertFalse(partnerList.contains(partner3));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void incrementalExportOnPartnerCommit() {
+        RegistryBuilder.newBuilder().register(new B2CPattern(), new B2CExt()).build();
+        DomainArtifacts artifacts = DomainArtifacts.getInstance();
+        assertEquals(1, artifacts.getExtensions().size());
+        DomainArtifacts.Extension fooExt = artifacts.getExtensions().get(0);
+        assertSame(IFooExt.class, fooExt.getExt());
+
+        // partner with an extension
+        new PartnerDef().prepare(new FooPartner());
+        new ExtensionDef().prepare(new FooPartnerExt());
+        InternalIndexer.commitPartner();
+        List<DomainArtifacts.Extension> v1 = artifacts.getExtensions();
+        assertEquals(2, v1.size());
+        assertSame("unaffected extension reused", fooExt, v1.get(0));
+        assertSame(IPartnerExt.class, v1.get(1).getExt());
+        assertEquals(FooPartner.CODE, v1.get(1).getPartners().get(0).getCode());
+        assertEquals(summary(v1), summaryAfterFullExport());
+        fooExt = artifacts.getExtensions().get(0);
+
+        // reload the partner without any extension
+        new PartnerDef().prepare(new FooPartner());
+        InternalIndexer.commitPartner();
+        List<DomainArtifacts.Extension> v2 = artifacts.getExtensions();
+        assertEquals(1, v2.size());
+        assertSame(fooExt, v2.get(0));
+        assertEquals(summary(v2), summaryAfterFullExport());
+
+        // the previous snapshot is immutable
+        assertEquals(2, v1.size());
+        try {
+            v2.get(0).getPartners().add(new DomainArtifacts.Partner("a", "b"));
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    private static Map<Class, String> summary(List<DomainArtifacts.Extension> extensions) {
+        Map<Class, String> summary = new LinkedHashMap<>();
+        for (DomainArtifacts.Extension extension : extensions) {
+            summary.put(extension.getExt(), extension.getPatterns().size() + ":" + extension.getPartners());
+        }
+        return summary;
+    }
+
+    private static Map<Class, String> summaryAfterFullExport() {
+        DomainArtifacts.getInstance().export();
+        return summary(DomainArtifacts.getInstance().getExtensions());
+    }
+
+}
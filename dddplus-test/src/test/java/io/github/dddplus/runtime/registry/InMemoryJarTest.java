@@ -0,0 +1,87 @@
+package io.github.dddplus.runtime.registry;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.*;
+
+public class InMemoryJarTest {
+
+    @Test
+    public void readEntries() throws IOException {
+        byte[] large = new byte[100 << 10];
+        new Random(7).nextBytes(large);
+        File file = File.createTempFile("mem", ".jar");
+        file.deleteOnExit();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            out.setComment("comment at the end");
+            out.putNextEntry(new JarEntry("a/"));
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("a/deflated.txt"));
+            out.write("hello world".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("a/large.bin"));
+            out.write(large);
+            out.closeEntry();
+
+            JarEntry stored = new JarEntry("stored.txt");
+            byte[] content = "stored".getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(content);
+            out.closeEntry();
+        }
+
+        for (InMemoryJar jar : Arrays.asList(InMemoryJar.map(file), InMemoryJar.of("heap", Files.readAllBytes(file.toPath())))) {
+            // 目录被忽略
+            assertEquals(Arrays.asList("a/deflated.txt", "a/large.bin", "stored.txt"), Arrays.asList(jar.entryNames().toArray()));
+            assertTrue(jar.contains("stored.txt"));
+            assertFalse(jar.contains("a/"));
+            assertEquals("hello world", new String(jar.read("a/deflated.txt"), StandardCharsets.UTF_8));
+            assertEquals("stored", new String(jar.read("stored.txt"), StandardCharsets.UTF_8));
+            assertArrayEquals(large, jar.read("a/large.bin"));
+            assertNull(jar.read("notexist"));
+            assertNull(jar.url("notexist"));
+
+            URL url = jar.url("a/deflated.txt");
+            assertEquals(InMemoryJar.PROTOCOL, url.getProtocol());
+            assertTrue(url.toString().endsWith("!/a/deflated.txt"));
+            try (InputStream in = url.openStream()) {
+                assertEquals("hello world", new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).readLine());
+            }
+            assertEquals(11, url.openConnection().getContentLengthLong());
+        }
+
+        file.delete();
+    }
+
+    @Test
+    public void invalidJar() throws IOException {
+        try {
+            InMemoryJar.of("bad", "not a jar, not a jar, not a jar".getBytes(StandardCharsets.UTF_8));
+            fail();
+        } catch (IOException expected) {
+            assertEquals("not a jar file", expected.getMessage());
+        }
+
+        try {
+            InMemoryJar.map(new File("notexist.jar"));
+            fail();
+        } catch (FileNotFoundException expected) {
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package io.github.dddplus.runtime.registry;
 
 import io.github.dddplus.ext.IDecideStepsExt;
+import io.github.dddplus.ext.IIdentity;
+import io.github.dddplus.runtime.AsyncStepSubmitPolicy;
+import io.github.dddplus.runtime.AsyncStepsException;
 import io.github.dddplus.runtime.DDD;
 import io.github.dddplus.runtime.ExtTimeoutException;
+import io.github.dddplus.runtime.IWarmupIdentityProvider;
+import io.github.dddplus.runtime.LatencyHistogram;
+import io.github.dddplus.runtime.RuntimeMetrics;
 import io.github.dddplus.runtime.StepsExecTemplate;
 import io.github.dddplus.runtime.policy.ConsumableExtPolicy;
 import io.github.dddplus.runtime.policy.IConsumableExt;
@@ -21,9 +27,16 @@ import io.github.dddplus.runtime.registry.mock.policy.TriggerPolicy;
 import io.github.dddplus.runtime.registry.mock.router.*;
 import io.github.dddplus.runtime.registry.mock.service.FooDomainService;
 import io.github.dddplus.runtime.registry.mock.step.BarStep;
+import io.github.dddplus.runtime.registry.mock.step.BazStep;
 import io.github.dddplus.runtime.registry.mock.step.EggStep;
+import io.github.dddplus.runtime.registry.mock.step.FooStep;
+import io.github.dddplus.runtime.registry.mock.step.JoinedSubmitStepsExec;
 import io.github.dddplus.runtime.registry.mock.step.Steps;
 import io.github.dddplus.runtime.registry.mock.step.SubmitStep;
+import io.github.dddplus.runtime.saga.ISagaCodec;
+import io.github.dddplus.runtime.saga.MappedSagaJournal;
+import io.github.dddplus.runtime.saga.PendingSaga;
+import io.github.dddplus.runtime.saga.SagaSupport;
 import io.github.dddplus.testing.LogAssert;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Assert;
@@ -33,17 +46,28 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.scheduling.SchedulingTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import javax.annotation.Resource;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -67,6 +91,9 @@ public class IntegrationTest {
     @Autowired
     private StepsExecTemplate<SubmitStep, FooModel> submitStepsExec; // https://jira.springsource.org/browse/SPR-9965
 
+    @Autowired
+    private JoinedSubmitStepsExec joinedSubmitStepsExec;
+
     private FooModel fooModel;
 
     @Resource
@@ -89,6 +116,27 @@ public class IntegrationTest {
         assertTrue(startupListener.isCalled());
     }
 
+    @Test
+    public void warmup() {
+        FooModel b2b = new FooModel();
+        b2b.setPartnerCode(FooPartner.CODE);
+        List<IIdentity> identities = Arrays.asList(fooModel, b2b, new SaleOrder());
+        // SaleOrder不适用于大部分扩展点，只会尝试一次
+        int dispatched = ExtensionWarmup.warmup(new IWarmupIdentityProvider() {
+            @Override
+            public List<? extends IIdentity> warmupIdentities() {
+                return identities;
+            }
+
+            @Override
+            public int warmupRounds() {
+                return 2;
+            }
+        });
+        assertTrue(dispatched > 0);
+        assertEquals(0, ExtensionWarmup.warmup(Collections::emptyList));
+    }
+
     @Test
     public void findRouter() {
         FooRouter fooRouter = InternalIndexer.findRouter(FooRouter.class);
@@ -155,6 +203,19 @@ public class IntegrationTest {
         List<StepDef> stepDefs = InternalIndexer.findDomainSteps(Steps.Submit.Activity, codes);
         assertEquals(2, stepDefs.size());
         assertEquals("foo活动", stepDefs.get(0).getName());
+
+        // 执行计划被缓存，且不受调用方后续修改步骤列表的影响
+        StepsPlan plan = InternalIndexer.findStepsPlan(Steps.Submit.Activity, codes);
+        assertSame(stepDefs, plan.getStepDefs());
+        assertSame(plan, InternalIndexer.findStepsPlan(Steps.Submit.Activity, new ArrayList<>(codes)));
+        codes.remove(Steps.Submit.BarStep);
+        assertEquals(1, InternalIndexer.findStepsPlan(Steps.Submit.Activity, codes).getSteps().size());
+        assertEquals(2, plan.getSteps().size());
+        try {
+            plan.getSteps().clear();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
     }
 
     @Test
@@ -490,6 +551,164 @@ public class IntegrationTest {
         assertTrue(fooModel.isStepsRevised());
     }
 
+    @Test
+    public void stepsExecTemplateInParallel() {
+        fooModel.setB2c(false);
+        fooModel.setRedecide(true);
+        fooModel.setStepsRevised(false);
+        List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+        // Baz || Foo -> Bar(dependsOn Foo, revise: Baz, Ham) => Baz || Ham
+        submitStepsExec.executeInParallel(Steps.Submit.Activity, steps, fooModel, asyncStepsExecutor);
+        assertTrue(fooModel.isStepsRevised());
+
+        // empty steps case, will do nothing
+        fooModel.setStepsRevised(false);
+        submitStepsExec.executeInParallel(Steps.Submit.Activity, new ArrayList<>(), fooModel, asyncStepsExecutor);
+        assertFalse(fooModel.isStepsRevised());
+    }
+
+    @Test
+    public void stepsExecTemplateInParallelSaturated() throws InterruptedException {
+        fooModel.setB2c(false);
+        fooModel.setRedecide(true);
+        fooModel.setStepsRevised(false);
+        List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.initialize();
+        CountDownLatch busy = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                busy.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        try {
+            // 线程池满：所有步骤都在调用方线程执行，而不是整个活动失败
+            RuntimeMetrics.Snapshot before = RuntimeMetrics.snapshot();
+            submitStepsExec.executeInParallel(Steps.Submit.Activity, steps, fooModel, executor);
+            assertTrue(fooModel.isStepsRevised());
+            RuntimeMetrics.Snapshot after = RuntimeMetrics.snapshot();
+            assertTrue(after.counter(Steps.Submit.Activity, RuntimeMetrics.ASYNC_STEP_CALLER_RUNS) > before.counter(Steps.Submit.Activity, RuntimeMetrics.ASYNC_STEP_CALLER_RUNS));
+        } finally {
+            busy.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void stepsExecTemplateInParallelWithRollback() throws IOException {
+        fooModel.setB2c(false);
+        fooModel.setWillRollback(true);
+        List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+        try {
+            submitStepsExec.executeInParallel(Steps.Submit.Activity, steps, fooModel, asyncStepsExecutor);
+            fail();
+        } catch (FooException expected) {
+            assertEquals(BarStep.rollbackReason, expected.getMessage());
+        }
+
+        // BarStep依赖的FooStep已经完成，与之并行的BazStep也已经完成：都被回滚
+        LogAssert.assertContains("foo rollback, cause", "baz rollback for");
+    }
+
+    @Test
+    public void stepsExecTemplateBatch() throws IOException {
+        List<FooModel> models = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            FooModel model = new FooModel();
+            model.setB2c(false);
+            models.add(model);
+        }
+        models.get(1).setWillRollback(true);
+        models.get(2).setRedecide(true);
+        models.get(3).setLetFooThrowException(true);
+        models.get(4).setFoo(-1); // 第2块的批量执行失败，逐个执行
+        fooModel.setB2c(false);
+        List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+        // Baz(batch) -> Foo -> Bar
+        // 独立的线程池：避免与其他case共享线程池导致的RejectedExecutionException
+        ThreadPoolTaskExecutor chunkExecutor = new ThreadPoolTaskExecutor();
+        chunkExecutor.initialize();
+        SortedMap<Integer, RuntimeException> failures;
+        try {
+            failures = submitStepsExec.executeBatch(Steps.Submit.Activity, steps, models, 3, chunkExecutor);
+        } finally {
+            chunkExecutor.shutdown();
+        }
+        assertEquals(2, failures.size());
+        assertEquals(BarStep.rollbackReason, failures.get(1).getMessage());
+        assertEquals("foo on purpose", failures.get(3).getMessage());
+        LogAssert.assertContains("foo rollback, cause", "baz rollback for");
+
+        assertEquals(3, models.get(0).getFoo());
+        assertTrue(models.get(2).isStepsRevised());
+        assertEquals(0, models.get(3).getFoo());
+        assertEquals(-1, models.get(4).getFoo());
+
+        // 顺序执行
+        models.get(4).setFoo(0);
+        failures = submitStepsExec.executeBatch(Steps.Submit.Activity, steps, models.subList(4, 5), 3, null);
+        assertTrue(failures.isEmpty());
+        assertEquals(0, models.get(4).getFoo()); // 只有1个模型，不走批量执行
+    }
+
+    @Test
+    public void stepsExecTemplateBatchHooks() {
+        AtomicInteger before = new AtomicInteger();
+        AtomicInteger after = new AtomicInteger();
+        StepsExecTemplate<SubmitStep, FooModel> stepsExec = new StepsExecTemplate<SubmitStep, FooModel>() {
+            @Override
+            protected void beforeStep(SubmitStep step, FooModel model) {
+                if (step instanceof BazStep) {
+                    before.incrementAndGet();
+                }
+            }
+
+            @Override
+            protected void afterStep(SubmitStep step, FooModel model) {
+                if (step instanceof BazStep) {
+                    after.incrementAndGet();
+                }
+            }
+        };
+        fooModel.setB2c(false);
+        List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+
+        // 默认不逐个执行：这批模型都失败
+        BazStep.fallbackOnBatchFailure = false;
+        SortedMap<Integer, RuntimeException> failures;
+        try {
+            failures = stepsExec.executeBatch(Steps.Submit.Activity, steps, batchModels(), 3, null);
+        } finally {
+            BazStep.fallbackOnBatchFailure = true;
+        }
+        assertEquals(3, failures.size());
+        assertEquals("batch fails on purpose", failures.get(0).getMessage());
+        assertEquals(3, before.get());
+        assertEquals(0, after.get());
+
+        // 逐个执行时beforeStep不会再次被调用
+        before.set(0);
+        failures = stepsExec.executeBatch(Steps.Submit.Activity, steps, batchModels(), 3, null);
+        assertTrue(failures.isEmpty());
+        assertEquals(3, before.get());
+        assertEquals(3, after.get());
+    }
+
+    private static List<FooModel> batchModels() {
+        List<FooModel> models = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            FooModel model = new FooModel();
+            model.setB2c(false);
+            models.add(model);
+        }
+        models.get(2).setFoo(-1);
+        return models;
+    }
+
     @Test
     public void asyncStepThreadPoolFullCase() {
         fooModel.setB2c(false);
@@ -509,6 +728,184 @@ public class IntegrationTest {
         }
     }
 
+    @Test
+    public void asyncStepThreadPoolFullJoined() {
+        fooModel.setB2c(false);
+        fooModel.setWillSleepLong(true);
+        fooModel.setRedecide(false);
+        fooModel.setStepsRevised(false);
+        List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+        Set<String> asyncSteps = new HashSet<>();
+        asyncSteps.add(Steps.Submit.FooStep);
+        asyncSteps.add(Steps.Submit.BarStep);
+        asyncSteps.add(Steps.Submit.BazStep);
+        long t0 = System.nanoTime();
+        try {
+            joinedSubmitStepsExec.execute(Steps.Submit.Activity, steps, fooModel, asyncStepsExecutor, asyncSteps);
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        // 抛出之前等待已提交的异步步骤结束：FooStep睡眠1s
+        assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(900));
+    }
+
+    @Test
+    public void asyncStepSubmitPolicy() {
+        fooModel.setB2c(false);
+        fooModel.setWillSleepLong(true);
+        fooModel.setRedecide(false);
+        List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+        // Baz, Foo, Bar: 同一时刻最多1个异步步骤，BazStep执行时FooStep必然过载
+        Set<String> asyncSteps = new HashSet<>();
+        asyncSteps.add(Steps.Submit.BazStep);
+        asyncSteps.add(Steps.Submit.FooStep);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.initialize();
+        try {
+            RuntimeMetrics.Snapshot before = RuntimeMetrics.snapshot();
+            limitedStepsExec(AsyncStepSubmitPolicy.SHED).execute(Steps.Submit.Activity, steps, fooModel, executor, asyncSteps);
+            limitedStepsExec(AsyncStepSubmitPolicy.CALLER_RUNS).execute(Steps.Submit.Activity, steps, fooModel, executor, asyncSteps);
+            RuntimeMetrics.Snapshot after = RuntimeMetrics.snapshot();
+            assertEquals(1, after.counter(Steps.Submit.Activity, RuntimeMetrics.ASYNC_STEP_SHED) - before.counter(Steps.Submit.Activity, RuntimeMetrics.ASYNC_STEP_SHED));
+            assertEquals(1, after.counter(Steps.Submit.Activity, RuntimeMetrics.ASYNC_STEP_CALLER_RUNS) - before.counter(Steps.Submit.Activity, RuntimeMetrics.ASYNC_STEP_CALLER_RUNS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void stepsProfiling() {
+        fooModel.setB2c(false);
+        fooModel.setWillSleepLong(true);
+        fooModel.setRedecide(true);
+        List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+        List<StackTraceElement[]> slowStacks = new CopyOnWriteArrayList<>();
+        StepsExecTemplate<SubmitStep, FooModel> stepsExec = new StepsExecTemplate<SubmitStep, FooModel>() {
+            @Override
+            protected long slowStepThresholdInMs() {
+                return 200;
+            }
+
+            @Override
+            protected void onSlowStep(SubmitStep step, FooModel model, long elapsedInMs, StackTraceElement[] stackTrace) {
+                super.onSlowStep(step, model, elapsedInMs, stackTrace);
+                if (step instanceof FooStep) {
+                    slowStacks.add(stackTrace);
+                }
+            }
+        };
+
+        RuntimeMetrics.Snapshot before = RuntimeMetrics.snapshot();
+        // Baz, Foo, Bar(revise: Baz, Ham) => Baz, Ham
+        stepsExec.execute(Steps.Submit.Activity, steps, fooModel);
+        RuntimeMetrics.Snapshot after = RuntimeMetrics.snapshot();
+
+        assertEquals(1, after.counter(Steps.Submit.Activity, RuntimeMetrics.STEP_REVISIONS) - before.counter(Steps.Submit.Activity, RuntimeMetrics.STEP_REVISIONS));
+        // Baz x2, Foo, Bar 都超过了阈值
+        assertEquals(4, after.counter(Steps.Submit.Activity, RuntimeMetrics.SLOW_STEPS) - before.counter(Steps.Submit.Activity, RuntimeMetrics.SLOW_STEPS));
+        LatencyHistogram.Snapshot fooLatency = after.stepLatency(Steps.Submit.Activity, Steps.Submit.FooStep);
+        assertTrue(fooLatency.getCount() > 0);
+        assertTrue(fooLatency.getMaxMicros() >= 1000_000);
+        assertNotNull(after.stepLatency(Steps.Submit.Activity, Steps.Submit.HamStep));
+
+        // 采样到了正在sleep的FooStep
+        assertEquals(1, slowStacks.size());
+        boolean sampled = false;
+        for (StackTraceElement element : slowStacks.get(0)) {
+            if (element.getClassName().startsWith(FooStep.class.getName())) {
+                sampled = true;
+            }
+        }
+        assertTrue(sampled);
+    }
+
+    @Test
+    public void sagaJournal() throws IOException {
+        File dir = Files.createTempDirectory("saga").toFile();
+        AtomicReference<MappedSagaJournal> journal = new AtomicReference<>(new MappedSagaJournal(dir, 4096, 0));
+        StepsExecTemplate<SubmitStep, FooModel> stepsExec = new StepsExecTemplate<SubmitStep, FooModel>() {
+            @Override
+            protected SagaSupport<FooModel> sagaSupport() {
+                return new SagaSupport<>(journal.get(), new ISagaCodec<FooModel>() {
+                    @Override
+                    public byte[] encode(FooModel model) {
+                        return String.valueOf(model.getPartnerCode()).getBytes(StandardCharsets.UTF_8);
+                    }
+
+                    @Override
+                    public FooModel decode(String activityCode, byte[] payload) {
+                        FooModel model = new FooModel();
+                        model.setPartnerCode(new String(payload, StandardCharsets.UTF_8));
+                        return model;
+                    }
+
+                    @Override
+                    public RuntimeException recoveryCause(PendingSaga saga) {
+                        return new FooException(BarStep.rollbackReason);
+                    }
+                });
+            }
+        };
+
+        try {
+            fooModel.setB2c(false);
+            fooModel.setWillRollback(true);
+            List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+            try {
+                stepsExec.execute(Steps.Submit.Activity, steps, fooModel);
+                fail();
+            } catch (FooException expected) {
+            }
+            assertEquals(0, stepsExec.recoverSagas(Steps.Submit.Activity));
+
+            // 模拟进程在执行BarStep时崩溃
+            long sagaId = journal.get().begin(Steps.Submit.Activity, "jd".getBytes(StandardCharsets.UTF_8));
+            journal.get().stepStarted(sagaId, Steps.Submit.BazStep);
+            journal.get().stepExecuted(sagaId, Steps.Submit.BazStep);
+            journal.get().stepStarted(sagaId, Steps.Submit.FooStep);
+            journal.get().stepExecuted(sagaId, Steps.Submit.FooStep);
+            journal.get().stepStarted(sagaId, Steps.Submit.BarStep);
+            journal.get().close();
+            journal.set(new MappedSagaJournal(dir, 4096, 0));
+            assertEquals(1, journal.get().pendingSagas().size());
+            assertEquals(0, stepsExec.recoverSagas(Steps.Cancel.Activity));
+            assertEquals(1, stepsExec.recoverSagas(Steps.Submit.Activity));
+            assertTrue(journal.get().pendingSagas().isEmpty());
+            LogAssert.assertContains("foo rollback, cause", "baz rollback for FooModel(partnerCode=jd",
+                    "steps started but not completed, NOT rolled back: [" + Steps.Submit.BarStep + "]");
+        } finally {
+            journal.get().close();
+        }
+    }
+
+    @Test
+    public void sagaSupportRequiresCodec() throws IOException {
+        File dir = Files.createTempDirectory("saga").toFile();
+        MappedSagaJournal journal = new MappedSagaJournal(dir, 4096, 0);
+        try {
+            // 启用saga日志时必须同时提供编解码，而不是等到恢复时才发现无法恢复
+            new SagaSupport<FooModel>(journal, null);
+            fail();
+        } catch (NullPointerException expected) {
+        } finally {
+            journal.close();
+        }
+    }
+
+    private static StepsExecTemplate<SubmitStep, FooModel> limitedStepsExec(AsyncStepSubmitPolicy policy) {
+        return new StepsExecTemplate<SubmitStep, FooModel>() {
+            @Override
+            protected AsyncStepSubmitPolicy asyncStepSubmitPolicy() {
+                return policy;
+            }
+
+            @Override
+            protected int asyncStepsMaxInFlight(String activityCode) {
+                return 1;
+            }
+        };
+    }
+
     @Test
     public void asyncStepThreadPoolFullDiscardPolicyCase() {
         fooModel.setB2c(false);
@@ -541,6 +938,31 @@ public class IntegrationTest {
         Thread.sleep(1000);
     }
 
+    @Test
+    public void asyncStepsJoined() {
+        fooModel.setB2c(false);
+        fooModel.setWillSleepLong(false);
+        fooModel.setRedecide(false);
+        fooModel.setStepsRevised(false);
+        List<String> steps = DDD.useRouter(DecideStepsRouter.class).decideSteps(fooModel, Steps.Submit.Activity);
+        Set<String> asyncSteps = new HashSet<>();
+        asyncSteps.add(Steps.Submit.FooStep);
+        asyncSteps.add(Steps.Submit.BazStep);
+        joinedSubmitStepsExec.execute(Steps.Submit.Activity, steps, fooModel, asyncStepsExecutor, asyncSteps);
+
+        // FooStep的异常不再被忽略
+        fooModel.setLetFooThrowException(true);
+        try {
+            joinedSubmitStepsExec.execute(Steps.Submit.Activity, steps, fooModel, asyncStepsExecutor, asyncSteps);
+            fail();
+        } catch (AsyncStepsException expected) {
+            assertEquals(1, expected.getFailures().size());
+            assertEquals("foo on purpose", expected.getFailures().get(Steps.Submit.FooStep).getMessage());
+            assertSame(expected.getFailures().get(Steps.Submit.FooStep), expected.getCause());
+            assertTrue(expected.getTimedOutSteps().isEmpty());
+        }
+    }
+
     @Test
     public void stepsRevisionDeadLoop() {
         fooModel.setB2c(false);
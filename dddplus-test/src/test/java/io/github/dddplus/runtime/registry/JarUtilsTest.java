@@ -0,0 +1,160 @@
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.annotation.Extension;
+import io.github.dddplus.plugin.IContainerContext;
+import io.github.dddplus.plugin.IPluginListener;
+import io.github.dddplus.plugin.PluginIndex;
+import io.github.dddplus.runtime.registry.mock.extension.B2CExt;
+import io.github.dddplus.runtime.registry.mock.partner.FooPartner;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+public class JarUtilsTest {
+
+    @Test
+    public void scanClasses() throws Throwable {
+        File jar = jarOf(B2CExt.class, FooPartner.class, InheritedExt.class, AbstractListener.class, FooListener.class, JarUtilsTest.class);
+        Map<String, ClassFileHeader> classes = JarUtils.scanClasses(InMemoryJar.map(jar));
+        assertEquals(6, classes.size());
+
+        ClassFileHeader header = classes.get(InheritedExt.class.getName());
+        assertEquals(B2CExt.class.getName(), header.getSuperClassName());
+        assertTrue(header.getAnnotationNames().isEmpty());
+        assertTrue(classes.get(B2CExt.class.getName()).getAnnotationNames().contains(Extension.class.getName()));
+        assertTrue(classes.get(AbstractListener.class.getName()).isAbstract());
+        assertEquals(Collections.singletonList(IPluginListener.class.getName()), classes.get(AbstractListener.class.getName()).getInterfaceNames());
+
+        jar.delete();
+    }
+
+    @Test
+    public void scanPluginIndex() throws Throwable {
+        File jar = jarOf(B2CExt.class, FooPartner.class, InheritedExt.class, AbstractListener.class, FooListener.class, JarUtilsTest.class);
+        assertNull(JarUtils.readPluginIndex(InMemoryJar.map(jar)));
+
+        RecordingClassLoader classLoader = new RecordingClassLoader();
+        PluginIndex index = JarUtils.scanPluginIndex(InMemoryJar.map(jar), classLoader);
+        assertEquals(Collections.singletonList(FooPartner.class.getName()), index.getPartners());
+        assertTrue(index.getPatterns().isEmpty());
+        // @Extension is @Inherited
+        assertEquals(Arrays.asList(B2CExt.class.getName(), InheritedExt.class.getName()), index.getExtensions());
+        assertEquals(FooListener.class.getName(), index.getListener());
+
+        // 扫描时不会加载jar包里的类
+        for (String className : JarUtils.scanClasses(InMemoryJar.map(jar)).keySet()) {
+            assertFalse(className, classLoader.loaded.contains(className));
+        }
+
+        jar.delete();
+    }
+
+    @Test
+    public void readPluginIndex() throws IOException {
+        PluginIndex index = new PluginIndex()
+                .addPartner(FooPartner.class.getName())
+                .addExtension(B2CExt.class.getName())
+                .addListener(FooListener.class.getName())
+                .addListener(AbstractListener.class.getName());
+        File jar = File.createTempFile("indexed", ".jar");
+        jar.deleteOnExit();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry(PluginIndex.LOCATION));
+            index.write(out);
+            out.closeEntry();
+        }
+
+        PluginIndex read = JarUtils.readPluginIndex(InMemoryJar.map(jar));
+        assertEquals(index.toString(), read.toString());
+        assertEquals(Collections.singletonList(FooPartner.class.getName()), read.getPartners());
+        assertEquals(Collections.singletonList(B2CExt.class.getName()), read.getExtensions());
+        assertEquals(FooListener.class.getName(), read.getListener());
+
+        try {
+            PluginIndex.read(new ByteArrayInputStream("partner=a\nfoo=b".getBytes(StandardCharsets.UTF_8)));
+            fail();
+        } catch (IOException expected) {
+            assertEquals("invalid plugin index line 2: foo=b", expected.getMessage());
+        }
+
+        jar.delete();
+    }
+
+    @Test
+    public void invalidClassFile() throws IOException {
+        File jar = File.createTempFile("invalid", ".jar");
+        jar.deleteOnExit();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("a/B.class"));
+            out.write(new byte[]{1, 2, 3, 4});
+            out.closeEntry();
+        }
+
+        try {
+            JarUtils.scanClasses(InMemoryJar.map(jar));
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("invalid class file a/B.class in "));
+        }
+
+        jar.delete();
+    }
+
+    static File jarOf(Class... classes) throws IOException {
+        File jar = File.createTempFile("plugin", ".jar");
+        jar.deleteOnExit();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("META-INF/plugin.txt"));
+            out.closeEntry();
+            for (Class clazz : classes) {
+                String name = clazz.getName().replace('.', '/') + ".class";
+                out.putNextEntry(new JarEntry(name));
+                try (InputStream in = clazz.getClassLoader().getResourceAsStream(name)) {
+                    byte[] buffer = new byte[4 << 10];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static class RecordingClassLoader extends ClassLoader {
+        final Set<String> loaded = new HashSet<>();
+
+        RecordingClassLoader() {
+            super(JarUtilsTest.class.getClassLoader());
+        }
+
+        @Override
+        public Class<?> loadClass(String name) throws ClassNotFoundException {
+            loaded.add(name);
+            return super.loadClass(name);
+        }
+    }
+
+    public static class InheritedExt extends B2CExt {
+    }
+
+    public static abstract class AbstractListener implements IPluginListener {
+    }
+
+    public static class FooListener extends AbstractListener {
+        @Override
+        public void onPrepared(IContainerContext ctx) {
+        }
+
+        @Override
+        public void onCommitted(IContainerContext ctx) {
+        }
+    }
+}
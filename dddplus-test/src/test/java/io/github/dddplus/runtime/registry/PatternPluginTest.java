@@ -0,0 +1,145 @@
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.annotation.Extension;
+import io.github.dddplus.annotation.Pattern;
+import io.github.dddplus.ext.IDomainExtension;
+import io.github.dddplus.runtime.ExtTimeoutException;
+import io.github.dddplus.runtime.registry.mock.ext.IFooExt;
+import io.github.dddplus.runtime.registry.mock.extension.B2BExt;
+import io.github.dddplus.runtime.registry.mock.extension.B2CExt;
+import io.github.dddplus.runtime.registry.mock.model.FooModel;
+import io.github.dddplus.runtime.registry.mock.pattern.B2BPattern;
+import io.github.dddplus.runtime.registry.mock.pattern.B2CPattern;
+import io.github.dddplus.runtime.registry.mock.router.FooRouter;
+import io.github.dddplus.testing.AloneRunner;
+import io.github.dddplus.testing.AloneWith;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+// 独立的类加载器：InternalIndexer的静态索引不受其他测试影响
+@RunWith(AloneRunner.class)
+@AloneWith(JUnit4.class)
+public class PatternPluginTest {
+
+    @After
+    public void tearDown() {
+        InternalIndexer.clearPrepared();
+    }
+
+    @Test
+    public void commitThenReplace() {
+        RegistryFactory.preparePlugins(Pattern.class, new B2BPattern());
+        RegistryFactory.preparePlugins(Pattern.class, new B2CPattern());
+        RegistryFactory.preparePlugins(Extension.class, new B2BExt());
+        RegistryFactory.preparePlugins(Extension.class, new B2CExt());
+        for (PatternDef patternDef : InternalIndexer.patternDefsPrepared.get().values()) {
+            patternDef.setVersion("1.0");
+        }
+        List<PatternDef> v1 = InternalIndexer.commitPatterns(Collections.emptyList());
+        assertEquals(2, v1.size());
+        assertTrue(InternalIndexer.patternDefsPrepared.get().isEmpty());
+
+        // 按优先级排序：B2B的priority=90，B2C是默认优先级
+        Map<Class<? extends IDomainExtension>, List<PatternDef>> sorted = InternalIndexer.sortedPatternMap;
+        assertEquals(2, sorted.get(IFooExt.class).size());
+        assertEquals(B2BPattern.CODE, sorted.get(IFooExt.class).get(0).getCode());
+        assertEquals(B2CPattern.CODE, sorted.get(IFooExt.class).get(1).getCode());
+
+        FooModel model = new FooModel();
+        model.setB2c(true);
+        List<ExtensionDef> effective = InternalIndexer.findEffectiveExtensions(IFooExt.class, model, true);
+        assertEquals(1, effective.size());
+        assertEquals(B2CPattern.CODE + "@1.0", effective.get(0).pluginKey());
+
+        // 动态加载的扩展点跟踪在途调用
+        effective.get(0).beginInvocation();
+        assertEquals(1, v1.get(1).getInFlight().sum());
+        effective.get(0).endInvocation();
+
+        // 新版本只有B2C：替换旧版本的全部Pattern
+        RegistryFactory.preparePlugins(Pattern.class, new B2CPattern());
+        RegistryFactory.preparePlugins(Extension.class, new B2CExt());
+        for (PatternDef patternDef : InternalIndexer.patternDefsPrepared.get().values()) {
+            patternDef.setVersion("2.0");
+        }
+        InternalIndexer.commitPatterns(v1);
+        assertNotSame(sorted, InternalIndexer.sortedPatternMap);
+        assertEquals(1, InternalIndexer.sortedPatternMap.get(IFooExt.class).size());
+        assertEquals(B2CPattern.CODE + "@2.0", InternalIndexer.findEffectiveExtensions(IFooExt.class, model, true).get(0).pluginKey());
+        model.setB2c(false);
+        assertTrue(InternalIndexer.findEffectiveExtensions(IFooExt.class, model, true).isEmpty());
+
+        // 旧的索引不受影响：正在使用它的调用看到的仍然是一致的旧版本
+        assertEquals(2, sorted.get(IFooExt.class).size());
+        try {
+            InternalIndexer.sortedPatternMap.get(IFooExt.class).clear();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void inFlightUntilReturned() throws InterruptedException {
+        FooRouter router = new FooRouter();
+        new RouterDef().registerBean(router);
+        RegistryFactory.preparePlugins(Pattern.class, new B2BPattern());
+        RegistryFactory.preparePlugins(Pattern.class, new B2CPattern());
+        RegistryFactory.preparePlugins(Extension.class, new B2BExt());
+        RegistryFactory.preparePlugins(Extension.class, new B2CExt());
+        for (PatternDef patternDef : InternalIndexer.patternDefsPrepared.get().values()) {
+            patternDef.setVersion("1.0");
+        }
+        List<PatternDef> patternDefs = InternalIndexer.commitPatterns(Collections.emptyList());
+        PatternDef b2b = patternDefs.get(0).getCode().equals(B2BPattern.CODE) ? patternDefs.get(0) : patternDefs.get(1);
+        PatternDef b2c = patternDefs.get(0) == b2b ? patternDefs.get(1) : patternDefs.get(0);
+
+        FooModel model = new FooModel();
+        model.setB2c(true);
+        assertTrue(router.submit(model).endsWith("firstExt got: " + B2CExt.RESULT));
+        assertEquals(0, b2c.getInFlight().sum());
+
+        // 超时后扩展点被取消：它真正结束后在途调用才归零，不会泄漏
+        model = new FooModel();
+        model.setWillSleepLong(true);
+        try {
+            router.submit(model);
+            fail();
+        } catch (ExtTimeoutException expected) {
+        }
+        for (int i = 0; i < 100 && b2b.getInFlight().sum() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, b2b.getInFlight().sum());
+    }
+
+    @Test
+    public void extensionOfUnknownPattern() {
+        RegistryFactory.preparePlugins(Pattern.class, new B2BPattern());
+        try {
+            RegistryFactory.preparePlugins(Extension.class, new B2CExt());
+            fail();
+        } catch (BootstrapException expected) {
+            assertEquals("Pattern must reside in Plugin Jar with its extensions: " + B2CPattern.CODE, expected.getMessage());
+        }
+    }
+
+    @Test
+    public void duplicatedPattern() {
+        RegistryFactory.preparePlugins(Pattern.class, new B2BPattern());
+        try {
+            RegistryFactory.preparePlugins(Pattern.class, new B2BPattern());
+            fail();
+        } catch (BootstrapException expected) {
+            assertEquals("duplicated pattern code: " + B2BPattern.CODE, expected.getMessage());
+        }
+    }
+
+}
@@ -1,13 +1,23 @@
 package io.github.dddplus.runtime.registry;
 
+import io.github.badcase.ext.NotExtButAnnotatedWithExtension;
+import io.github.dddplus.annotation.Extension;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
 import io.github.dddplus.runtime.DDD;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -22,6 +32,128 @@ public class PluginClassLoaderTest {
         assertFalse(loader.containerFirstClass("com.ddd.bp.oms.doo.j.extension.JAntiConcurrentLockExt"));
     }
 
+    @Test
+    public void localPackages() throws Exception {
+        File jar = JarUtilsTest.jarOf(NotExtButAnnotatedWithExtension.class);
+        PluginClassLoader loader = new PluginClassLoader(new URL[]{jar.toURI().toURL()}, ClassLoader.getSystemClassLoader().getParent(), getClass().getClassLoader());
+        assertTrue(loader.isLocalClass(NotExtButAnnotatedWithExtension.class.getName()));
+        assertFalse(loader.isLocalClass(List.class.getName()));
+        assertFalse(loader.isLocalClass(DDD.class.getName()));
+        assertTrue(loader.jdkFirstClass("javax.xml.Foo"));
+        assertFalse(loader.jdkFirstClass(NotExtButAnnotatedWithExtension.class.getName()));
+
+        // 插件包里的类由插件加载器自己加载
+        Class<?> clazz = loader.loadClass(NotExtButAnnotatedWithExtension.class.getName());
+        assertSame(loader, clazz.getClassLoader());
+        assertNotSame(NotExtButAnnotatedWithExtension.class, clazz);
+        assertSame(List.class, loader.loadClass(List.class.getName()));
+        assertSame(DDD.class, loader.loadClass(DDD.class.getName()));
+
+        // negative cache
+        for (int i = 0; i < 2; i++) {
+            try {
+                loader.loadClass("io.github.badcase.ext.NotExist");
+                fail();
+            } catch (ClassNotFoundException expected) {
+            }
+        }
+
+        loader.close();
+        jar.delete();
+    }
+
+    @Test
+    public void inMemoryJar() throws Exception {
+        File jar = JarUtilsTest.jarOf(NotExtButAnnotatedWithExtension.class);
+        PluginClassLoader loader = new PluginClassLoader(InMemoryJar.map(jar), ClassLoader.getSystemClassLoader().getParent(), getClass().getClassLoader());
+        assertTrue(loader.isLocalClass(NotExtButAnnotatedWithExtension.class.getName()));
+        assertEquals(0, loader.getURLs().length);
+
+        Class<?> clazz = loader.loadClass(NotExtButAnnotatedWithExtension.class.getName());
+        assertSame(loader, clazz.getClassLoader());
+        assertEquals("io.github.badcase.ext", clazz.getPackage().getName());
+        assertNotNull(clazz.getAnnotation(Extension.class));
+
+        // resources are served from memory too
+        URL url = loader.findResource("io/github/badcase/ext/NotExtButAnnotatedWithExtension.class");
+        assertEquals(InMemoryJar.PROTOCOL, url.getProtocol());
+        assertTrue(loader.findResources("META-INF/plugin.txt").hasMoreElements());
+        assertFalse(loader.findResources("notexist.xml").hasMoreElements());
+
+        try {
+            loader.loadClass("io.github.badcase.ext.NotExist");
+            fail();
+        } catch (ClassNotFoundException expected) {
+        }
+        jar.delete();
+    }
+
+    @Test
+    public void springScanInMemoryJar() throws Exception {
+        String className = NotExtButAnnotatedWithExtension.class.getName();
+        String classEntry = className.replace('.', '/') + ".class";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            out.putNextEntry(new JarEntry(classEntry));
+            try (InputStream in = getClass().getClassLoader().getResourceAsStream(classEntry)) {
+                byte[] buffer = new byte[4 << 10];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("plugin-mem.xml"));
+            out.write(("<beans xmlns=\"http://www.springframework.org/schema/beans\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" +
+                    " xmlns:context=\"http://www.springframework.org/schema/context\"" +
+                    " xsi:schemaLocation=\"http://www.springframework.org/schema/beans http://www.springframework.org/schema/beans/spring-beans.xsd" +
+                    " http://www.springframework.org/schema/context http://www.springframework.org/schema/context/spring-context.xsd\">" +
+                    "<context:component-scan base-package=\"io.github.badcase.ext\"/></beans>").getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        PluginClassLoader loader = new PluginClassLoader(InMemoryJar.of("mem", bytes.toByteArray()), ClassLoader.getSystemClassLoader().getParent(), getClass().getClassLoader());
+        PluginApplicationContext ctx = new PluginApplicationContext(new String[]{"/plugin-mem.xml"}, null, loader);
+        ctx.refresh();
+        // 组件扫描到的是内存jar包里的类
+        Object bean = ctx.getBean(loader.loadClass(className));
+        assertSame(loader, bean.getClass().getClassLoader());
+        boolean scannedFromMemory = false;
+        for (Resource resource : ctx.getResources("classpath*:io/github/badcase/ext/**/*.class")) {
+            scannedFromMemory |= InMemoryJar.PROTOCOL.equals(resource.getURL().getProtocol());
+        }
+        assertTrue(scannedFromMemory);
+        ctx.close();
+    }
+
+    @Test
+    public void parallelCapable() throws Exception {
+        File jar = JarUtilsTest.jarOf(NotExtButAnnotatedWithExtension.class);
+        PluginClassLoader loader = new PluginClassLoader(new URL[]{jar.toURI().toURL()}, ClassLoader.getSystemClassLoader().getParent(), getClass().getClassLoader());
+
+        final int threads = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Class<?>>> futures = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            futures.add(executorService.submit(() -> {
+                start.await();
+                return loader.loadClass(NotExtButAnnotatedWithExtension.class.getName());
+            }));
+        }
+        start.countDown();
+
+        // 并发加载同一个类，只会定义一次
+        Class<?> clazz = futures.get(0).get();
+        for (Future<Class<?>> future : futures) {
+            assertSame(clazz, future.get());
+        }
+
+        executorService.shutdown();
+        loader.close();
+        jar.delete();
+    }
+
     @Test
     public void containerClassLoader() {
         assertSame(this.getClass().getClassLoader(), Container.class.getClassLoader());
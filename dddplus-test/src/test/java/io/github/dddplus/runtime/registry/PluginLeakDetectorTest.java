@@ -0,0 +1,74 @@
+package io.github.dddplus.runtime.registry;
+
+import io.github.badcase.ext.NotExtButAnnotatedWithExtension;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PluginLeakDetectorTest {
+
+    @Test
+    public void leakedThenUnloaded() throws Exception {
+        PluginLeakDetector detector = new PluginLeakDetector(1);
+        File jar = JarUtilsTest.jarOf(NotExtButAnnotatedWithExtension.class);
+        PluginClassLoader loader = new PluginClassLoader(InMemoryJar.map(jar), ClassLoader.getSystemClassLoader().getParent(), getClass().getClassLoader());
+        assertSame(loader, loader.loadClass(NotExtButAnnotatedWithExtension.class.getName()).getClassLoader());
+        Plugin plugin = pluginOf(loader);
+        detector.track(plugin);
+
+        List<PluginClassLoaderStats> stats = detector.stats();
+        assertEquals(1, stats.size());
+        assertEquals("foo", stats.get(0).getCode());
+        assertEquals(1, stats.get(0).getLoadedClasses());
+        assertTrue(stats.get(0).getEstimatedMetaspaceInBytes() > PluginClassLoader.Footprint.METASPACE_PER_CLASS_BYTES);
+        assertFalse(stats.get(0).isDestroyed());
+        // 未销毁的不算泄漏
+        System.gc();
+        assertTrue(detector.check().isEmpty());
+
+        detector.destroyed(plugin, loader);
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(loader);
+        try {
+            System.gc();
+            List<PluginClassLoaderStats> leaked = detector.check();
+            assertEquals(1, leaked.size());
+            assertTrue(leaked.get(0).isDestroyed());
+            assertTrue(leaked.get(0).getGcCyclesSinceDestroy() >= 1);
+            assertTrue(leaked.get(0).getSuspectedGcRoots().contains("Thread[" + Thread.currentThread().getName() + "].contextClassLoader"));
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+
+        // 没有引用了，应该被回收
+        loader = null;
+        plugin = null;
+        for (int i = 0; i < 20 && !detector.stats().isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertTrue(detector.stats().isEmpty());
+        assertTrue(detector.check().isEmpty());
+    }
+
+    @Test
+    public void notLoaded() {
+        PluginLeakDetector detector = new PluginLeakDetector(1);
+        Plugin plugin = new Plugin("foo", "v1", null, null, null);
+        detector.track(plugin);
+        detector.destroyed(plugin, null);
+        assertTrue(detector.stats().isEmpty());
+    }
+
+    private static Plugin pluginOf(ClassLoader loader) {
+        return new Plugin("foo", "v1", null, null, null) {
+            @Override
+            ClassLoader getPluginClassLoader() {
+                return loader;
+            }
+        };
+    }
+}
@@ -3,7 +3,12 @@ package io.github.dddplus.runtime.registry;
 import io.github.dddplus.plugin.IPlugin;
 import org.junit.Test;
 
-import static org.junit.Assert.assertEquals;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
 
 public class PluginTest {
 
@@ -13,4 +18,69 @@ public class PluginTest {
         assertEquals("Plugin:foo:v1", plugin.toString());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void extensionInFlight() {
+        PartnerDef partnerDef = new PartnerDef();
+        ExtensionDef tracked = new ExtensionDef();
+        tracked.pluggedInto(partnerDef);
+        ExtensionDef untracked = new ExtensionDef();
+
+        tracked.beginInvocation();
+        tracked.beginInvocation();
+        untracked.beginInvocation();
+        assertEquals(2, partnerDef.getInFlight().sum());
+        tracked.endInvocation();
+        untracked.endInvocation();
+        assertEquals(1, partnerDef.getInFlight().sum());
+        tracked.endInvocation();
+        assertEquals(0, partnerDef.getInFlight().sum());
+    }
+
+    @Test
+    public void destroyWhenDrained() throws InterruptedException {
+        AtomicLong inFlight = new AtomicLong(1);
+        AtomicInteger destroyed = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        Plugin plugin = new Plugin("foo", "v1", null, null, null) {
+            @Override
+            long inFlight() {
+                return inFlight.get();
+            }
+
+            @Override
+            void onDestroy() {
+                destroyed.incrementAndGet();
+                latch.countDown();
+            }
+        };
+
+        Container.getInstance().destroyWhenDrained(plugin, 10_000);
+        // 还有在途调用，不能销毁
+        assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+        inFlight.set(0);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(1, destroyed.get());
+    }
+
+    @Test
+    public void destroyAfterDrainTimeout() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        Plugin plugin = new Plugin("foo", "v1", null, null, null) {
+            @Override
+            long inFlight() {
+                return 1; // never drains
+            }
+
+            @Override
+            void onDestroy() {
+                latch.countDown();
+            }
+        };
+
+        long t0 = System.nanoTime();
+        Container.getInstance().destroyWhenDrained(plugin, 100);
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+}
@@ -0,0 +1,73 @@
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.runtime.DDD;
+import io.github.dddplus.runtime.registry.mock.domain.FooDomain;
+import io.github.dddplus.runtime.registry.mock.extension.B2CExt;
+import io.github.dddplus.runtime.registry.mock.model.FooModel;
+import io.github.dddplus.runtime.registry.mock.pattern.B2BPattern;
+import io.github.dddplus.runtime.registry.mock.pattern.B2CPattern;
+import io.github.dddplus.runtime.registry.mock.router.FooRouter;
+import io.github.dddplus.testing.AloneRunner;
+import io.github.dddplus.testing.AloneWith;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+// 注册表是静态的：独立的类加载器，每个case之后清空
+@RunWith(AloneRunner.class)
+@AloneWith(JUnit4.class)
+public class RegistryBuilderTest {
+
+    @After
+    public void tearDown() {
+        RegistryBuilder.reset();
+    }
+
+    @Test
+    public void notRegistrable() {
+        try {
+            RegistryBuilder.newBuilder().register(new Date());
+            fail();
+        } catch (BootstrapException expected) {
+            assertEquals("java.util.Date has no DDD annotation", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void buildWithoutSpring() {
+        // 扩展点先于Pattern传入也没关系
+        RegistryBuilder.newBuilder()
+                .register(new B2CExt(), new FooRouter())
+                .register(new B2CPattern(), new B2BPattern(), new FooDomain())
+                .warmup(() -> Collections.singletonList(new FooModel()))
+                .build();
+
+        assertTrue(InternalIndexer.domainDefMap.containsKey(FooDomain.CODE));
+        FooModel model = new FooModel();
+        model.setB2c(true);
+        assertEquals("submit received: null, firstExt got: 2", DDD.useRouter(FooRouter.class).submit(model));
+    }
+
+    @Test
+    public void buildOnlyOnce() {
+        RegistryBuilder.newBuilder().register(new FooDomain()).build();
+        try {
+            RegistryBuilder.newBuilder().build();
+            fail();
+        } catch (BootstrapException expected) {
+            assertEquals("registry can be built only once", expected.getMessage());
+        }
+
+        // reset之后可以重新build
+        RegistryBuilder.reset();
+        assertTrue(InternalIndexer.domainDefMap.isEmpty());
+        RegistryBuilder.newBuilder().register(new FooDomain()).build();
+        assertEquals(1, InternalIndexer.domainDefMap.size());
+    }
+}
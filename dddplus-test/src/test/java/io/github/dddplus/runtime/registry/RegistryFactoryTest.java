@@ -14,6 +14,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -23,7 +24,7 @@ public class RegistryFactoryTest {
 
     @Before
     public void setUp() {
-        InternalIndexer.partnerDefPrepared = null;
+        InternalIndexer.partnerDefPrepared.remove();
     }
 
     @Test
@@ -31,15 +32,30 @@ public class RegistryFactoryTest {
         Object fooPartner = DDDBootstrap.applicationContext().getBean(FooPartner.class);
         RegistryFactory.preparePlugins(Partner.class, fooPartner);
         assertEquals(1, InternalIndexer.partnerDefMap.size());
-        assertEquals(FooPartner.CODE, InternalIndexer.partnerDefPrepared.getCode());
-        assertEquals(0, InternalIndexer.partnerDefPrepared.getExtensionDefMap().size());
+        assertEquals(FooPartner.CODE, InternalIndexer.partnerDefPrepared.get().getCode());
+        assertEquals(0, InternalIndexer.partnerDefPrepared.get().getExtensionDefMap().size());
 
         Object fooPartnerExt = DDDBootstrap.applicationContext().getBean(FooPartnerExt.class);
         RegistryFactory.preparePlugins(Extension.class, fooPartnerExt);
-        assertEquals(1, InternalIndexer.partnerDefPrepared.getExtensionDefMap().size());
+        assertEquals(1, InternalIndexer.partnerDefPrepared.get().getExtensionDefMap().size());
 
         InternalIndexer.commitPartner();
-        assertNull(InternalIndexer.partnerDefPrepared);
+        assertNull(InternalIndexer.partnerDefPrepared.get());
+    }
+
+    @Test
+    public void preparePartnerPerThread() throws InterruptedException {
+        Object fooPartner = DDDBootstrap.applicationContext().getBean(FooPartner.class);
+        RegistryFactory.preparePlugins(Partner.class, fooPartner);
+
+        // 其他线程上的prepare互不干扰：不同Partner可以并行加载
+        AtomicReference<PartnerDef> prepared = new AtomicReference<>(new PartnerDef());
+        Thread thread = new Thread(() -> prepared.set(InternalIndexer.partnerDefPrepared.get()));
+        thread.start();
+        thread.join();
+        assertNull(prepared.get());
+        assertEquals(FooPartner.CODE, InternalIndexer.partnerDefPrepared.get().getCode());
+        InternalIndexer.partnerDefPrepared.remove();
     }
 
     @Test
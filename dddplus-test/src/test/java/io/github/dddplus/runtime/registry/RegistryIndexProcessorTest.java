@@ -0,0 +1,104 @@
+package io.github.dddplus.runtime.registry;
+
+import org.junit.Test;
+
+import javax.tools.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RegistryIndexProcessorTest {
+
+    @Test
+    public void entryFormatAndParse() {
+        RegistryIndex.Entry entry = new RegistryIndex.Entry("Extension", "a.B", "a.IExt");
+        RegistryIndex.Entry parsed = RegistryIndex.Entry.parse(entry.format());
+        assertEquals("Extension", parsed.getAnnotation());
+        assertEquals("a.B", parsed.getClassName());
+        assertEquals("a.IExt", parsed.getExtClassName());
+
+        parsed = RegistryIndex.Entry.parse(new RegistryIndex.Entry("Step", "a.C", null).format());
+        assertNull(parsed.getExtClassName());
+
+        // 以前的索引里多余的列被忽略
+        assertEquals("a.IExt", RegistryIndex.Entry.parse("Extension\ta.B\ta.IExt\tx").getExtClassName());
+        assertNull(RegistryIndex.Entry.parse(RegistryIndex.HEADER));
+        assertNull(RegistryIndex.Entry.parse(""));
+        assertNull(RegistryIndex.Entry.parse("invalid"));
+
+        RegistryIndex index = RegistryIndex.of(Arrays.asList(
+                new RegistryIndex.Entry("Pattern", "a.B", null),
+                new RegistryIndex.Entry("Extension", "a.B", "a.IExt")));
+        assertEquals(1, index.size());
+        assertEquals(2, index.entriesOf("a.B").size());
+        assertTrue(index.entriesOf("a.C").isEmpty());
+    }
+
+    @Test
+    public void generateIndex() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            // running on JRE
+            return;
+        }
+
+        Path output = Files.createTempDirectory("registry-idx");
+        List<JavaFileObject> sources = Arrays.asList(
+                source("idx.IdxRouter", "package idx;\n" +
+                        "@io.github.dddplus.annotation.Router\n" +
+                        "public class IdxRouter extends io.github.dddplus.runtime.BaseRouter<io.github.dddplus.runtime.registry.mock.ext.IFooExt, io.github.dddplus.runtime.registry.mock.model.FooModel> {\n" +
+                        "    public io.github.dddplus.runtime.registry.mock.ext.IFooExt defaultExtension(io.github.dddplus.runtime.registry.mock.model.FooModel model) { return null; }\n" +
+                        "}\n"),
+                source("idx.IdxExt", "package idx;\n" +
+                        "@io.github.dddplus.annotation.Extension(code = \"idx\")\n" +
+                        "public class IdxExt implements io.github.dddplus.runtime.registry.mock.ext.IFooExt {\n" +
+                        "    public Integer execute(io.github.dddplus.runtime.registry.mock.model.FooModel model) { return 0; }\n" +
+                        "}\n"),
+                source("idx.SubIdxExt", "package idx;\n" +
+                        "@io.github.dddplus.annotation.Extension(code = \"sub\")\n" +
+                        "public class SubIdxExt extends IdxExt {\n" +
+                        "}\n"),
+                source("idx.IdxStep", "package idx;\n" +
+                        "@io.github.dddplus.annotation.Step\n" +
+                        "public abstract class IdxStep {\n" +
+                        "}\n"));
+
+        String classpath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, null,
+                Arrays.asList("-proc:only", "-classpath", classpath, "-d", output.toString()),
+                null, sources);
+        task.setProcessors(Collections.singletonList(new RegistryIndexProcessor()));
+        assertTrue(task.call());
+
+        List<String> lines = Files.readAllLines(output.resolve(RegistryIndex.LOCATION), StandardCharsets.UTF_8);
+        assertEquals(RegistryIndex.HEADER, lines.get(0));
+
+        Map<String, RegistryIndex.Entry> entries = new HashMap<>();
+        for (String line : lines) {
+            RegistryIndex.Entry entry = RegistryIndex.Entry.parse(line);
+            if (entry != null) {
+                entries.put(entry.getClassName(), entry);
+            }
+        }
+
+        // abstract class skipped
+        assertEquals(3, entries.size());
+        assertEquals("io.github.dddplus.runtime.registry.mock.ext.IFooExt", entries.get("idx.IdxRouter").getExtClassName());
+        assertEquals("io.github.dddplus.runtime.registry.mock.ext.IFooExt", entries.get("idx.IdxExt").getExtClassName());
+        assertEquals("io.github.dddplus.runtime.registry.mock.ext.IFooExt", entries.get("idx.SubIdxExt").getExtClassName());
+    }
+
+    private static JavaFileObject source(String className, String code) {
+        URI uri = URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension);
+        return new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.dddplus.runtime.registry;
+
+import io.github.dddplus.runtime.registry.mock.domain.FooDomain;
+import io.github.dddplus.runtime.registry.mock.ext.IFooExt;
+import io.github.dddplus.runtime.registry.mock.router.BarRouter;
+import io.github.dddplus.runtime.registry.mock.router.FooRouter;
+import io.github.dddplus.testing.AloneRunner;
+import io.github.dddplus.testing.AloneWith;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import static org.junit.Assert.*;
+
+@RunWith(AloneRunner.class)
+@AloneWith(JUnit4.class)
+public class RegistryIndexTest {
+
+    @Test
+    public void registerWithIndex() throws Exception {
+        Path idx = Files.createTempFile("registry", ".idx");
+        Files.write(idx, Arrays.asList(
+                RegistryIndex.HEADER,
+                new RegistryIndex.Entry("Domain", FooDomain.class.getName(), null).format(),
+                new RegistryIndex.Entry("Router", FooRouter.class.getName(), IFooExt.class.getName()).format()),
+                StandardCharsets.UTF_8);
+
+        // 没有索引的模块：jar里的BarRouter
+        File jar = JarUtilsTest.jarOf(BarRouter.class);
+        ClassLoader moduleClassLoader = new ChildFirstClassLoader(jar, BarRouter.class.getName(), getClass().getClassLoader());
+        Class<?> moduleRouterClazz = moduleClassLoader.loadClass(BarRouter.class.getName());
+        assertNotSame(BarRouter.class, moduleRouterClazz);
+
+        ClassPathXmlApplicationContext applicationContext = new ClassPathXmlApplicationContext(new String[]{"spring-test.xml"}, false);
+        // 有索引的模块：test-classes
+        applicationContext.setClassLoader(new IndexedClassLoader(Thread.currentThread().getContextClassLoader(), indexUrlOf(FooDomain.class, idx)));
+        applicationContext.addBeanFactoryPostProcessor(beanFactory -> {
+            try {
+                beanFactory.registerSingleton("moduleRouter", moduleRouterClazz.newInstance());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        applicationContext.refresh();
+        try {
+            // 有索引的模块只注册了索引里的类
+            assertEquals(1, InternalIndexer.domainDefMap.size());
+            assertTrue(InternalIndexer.domainDefMap.containsKey(FooDomain.CODE));
+            assertFalse(InternalIndexer.routerDefMap.containsKey(BarRouter.class));
+            assertSame(IFooExt.class, InternalIndexer.routerDefMap.get(FooRouter.class).getExtClazz());
+
+            // 没有索引的模块通过注解查找注册
+            assertEquals(2, InternalIndexer.routerDefMap.size());
+            assertSame(IFooExt.class, InternalIndexer.routerDefMap.get(moduleRouterClazz).getExtClazz());
+        } finally {
+            applicationContext.close();
+        }
+    }
+
+    @Test
+    public void covers() throws Exception {
+        RegistryIndex index = RegistryIndex.of(Collections.emptyList());
+        assertFalse(index.covers(FooDomain.class));
+        index.addRoot(indexUrlOf(FooDomain.class, Files.createTempFile("registry", ".idx")));
+        assertTrue(index.covers(FooDomain.class));
+        assertTrue(index.covers(BarRouter.class));
+        // jdk的类没有code source
+        assertFalse(index.covers(String.class));
+
+        File jar = JarUtilsTest.jarOf(BarRouter.class);
+        Class<?> moduleRouterClazz = new ChildFirstClassLoader(jar, BarRouter.class.getName(), getClass().getClassLoader())
+                .loadClass(BarRouter.class.getName());
+        assertFalse(index.covers(moduleRouterClazz));
+        index.addRoot(new URL("jar:" + jar.toURI().toURL() + "!/" + RegistryIndex.LOCATION));
+        assertTrue(index.covers(moduleRouterClazz));
+    }
+
+    // 与clazz在同一个code source下的索引文件，内容来自idx
+    private static URL indexUrlOf(Class<?> clazz, Path idx) throws MalformedURLException {
+        URL root = clazz.getProtectionDomain().getCodeSource().getLocation();
+        return new URL(null, root.toExternalForm() + RegistryIndex.LOCATION, new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                return idx.toUri().toURL().openConnection();
+            }
+        });
+    }
+
+    private static class ChildFirstClassLoader extends URLClassLoader {
+        private final String className;
+
+        ChildFirstClassLoader(File jar, String className, ClassLoader parent) throws MalformedURLException {
+            super(new URL[]{jar.toURI().toURL()}, parent);
+            this.className = className;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!className.equals(name)) {
+                return super.loadClass(name, resolve);
+            }
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                return clazz != null ? clazz : findClass(name);
+            }
+        }
+    }
+
+    private static class IndexedClassLoader extends ClassLoader {
+        private final URL index;
+
+        IndexedClassLoader(ClassLoader parent, URL index) {
+            super(parent);
+            this.index = index;
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            if (RegistryIndex.LOCATION.equals(name)) {
+                return Collections.enumeration(Collections.singletonList(index));
+            }
+
+            return super.getResources(name);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package io.github.dddplus.runtime.registry;
+
+import io.github.badcase.ext.NotExtButAnnotatedWithExtension;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+public class SharedLibrariesTest {
+    private static final ClassLoader jdkClassLoader = ClassLoader.getSystemClassLoader().getParent();
+    // 容器里没有三方库的类
+    private final ClassLoader containerClassLoader = new ClassLoader(getClass().getClassLoader()) {
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("io.github.badcase.")) {
+                throw new ClassNotFoundException(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+    };
+
+    @Test
+    public void shared() throws Exception {
+        SharedLibraries sharedLibraries = new SharedLibraries(true);
+        byte[] lib = libraryJar("1.0");
+        InMemoryJar plugin1 = pluginJar("p1", lib);
+        InMemoryJar plugin2 = pluginJar("p2", lib);
+
+        List<SharedLibraries.Library> libraries1 = sharedLibraries.acquire(plugin1, jdkClassLoader, containerClassLoader);
+        List<SharedLibraries.Library> libraries2 = sharedLibraries.acquire(plugin2, jdkClassLoader, containerClassLoader);
+        assertEquals(1, libraries1.size());
+        assertSame(libraries1.get(0), libraries2.get(0));
+        String key = "org.example:foo:1.0@" + SharedLibraries.sha256(lib);
+        assertEquals(Collections.singletonMap(key, 2), sharedLibraries.snapshot());
+
+        // 两个插件看到的是同一个类
+        Class<?> clazz1 = pluginClassLoader(plugin1, libraries1).loadClass(NotExtButAnnotatedWithExtension.class.getName());
+        Class<?> clazz2 = pluginClassLoader(plugin2, libraries2).loadClass(NotExtButAnnotatedWithExtension.class.getName());
+        assertSame(clazz1, clazz2);
+        assertSame(libraries1.get(0).classLoader, clazz1.getClassLoader());
+        assertNotSame(NotExtButAnnotatedWithExtension.class, clazz1);
+        assertNotNull(pluginClassLoader(plugin1, libraries1).getResource("META-INF/maven/org.example/foo/pom.properties"));
+
+        sharedLibraries.release(libraries1);
+        assertEquals(Collections.singletonMap(key, 1), sharedLibraries.snapshot());
+        sharedLibraries.release(libraries2);
+        assertTrue(sharedLibraries.snapshot().isEmpty());
+    }
+
+    @Test
+    public void differentHash() throws Exception {
+        SharedLibraries sharedLibraries = new SharedLibraries(true);
+        List<SharedLibraries.Library> libraries1 = sharedLibraries.acquire(pluginJar("p1", libraryJar("1.0")), jdkClassLoader, containerClassLoader);
+        // 坐标相同，内容不同
+        List<SharedLibraries.Library> libraries2 = sharedLibraries.acquire(pluginJar("p2", libraryJar("1.0", "patched")), jdkClassLoader, containerClassLoader);
+        assertNotSame(libraries1.get(0), libraries2.get(0));
+        assertEquals(2, sharedLibraries.snapshot().size());
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        SharedLibraries sharedLibraries = new SharedLibraries(false);
+        // 不处理lib/：与不支持共享时一样
+        assertTrue(sharedLibraries.acquire(pluginJar("p1", libraryJar("1.0")), jdkClassLoader, containerClassLoader).isEmpty());
+        assertTrue(sharedLibraries.snapshot().isEmpty());
+    }
+
+    @Test
+    public void containerFirst() throws Exception {
+        SharedLibraries sharedLibraries = new SharedLibraries(true);
+        InMemoryJar plugin = pluginJar("p1", libraryJar("1.0"));
+        ClassLoader container = getClass().getClassLoader();
+        List<SharedLibraries.Library> libraries = sharedLibraries.acquire(plugin, jdkClassLoader, container);
+        PluginClassLoader loader = new PluginClassLoader(plugin, jdkClassLoader, container);
+        loader.setLibraries(Collections.singletonList(libraries.get(0).classLoader));
+        // 容器里有的类，库里的副本被忽略
+        assertSame(NotExtButAnnotatedWithExtension.class, loader.loadClass(NotExtButAnnotatedWithExtension.class.getName()));
+        sharedLibraries.release(libraries);
+    }
+
+    @Test
+    public void dependencyConflict() throws Exception {
+        SharedLibraries sharedLibraries = new SharedLibraries(true);
+        byte[] bar = jarBytes("groupId=org.example\nartifactId=bar\nversion=1.0\n");
+        List<SharedLibraries.Library> libraries1 = sharedLibraries.acquire(pluginJar("p1", libraryJar("1.0"), bar), jdkClassLoader, containerClassLoader);
+        assertEquals(2, libraries1.size());
+        try {
+            // 共享的bar依赖的是foo-1.0
+            sharedLibraries.acquire(pluginJar("p2", libraryJar("2.0"), bar), jdkClassLoader, containerClassLoader);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().startsWith("shared library org.example:bar:1.0@"));
+        }
+        // 没有泄漏
+        for (int refCount : sharedLibraries.snapshot().values()) {
+            assertEquals(1, refCount);
+        }
+        assertEquals(2, sharedLibraries.snapshot().size());
+
+        // 同样的依赖可以共享
+        List<SharedLibraries.Library> libraries2 = sharedLibraries.acquire(pluginJar("p3", libraryJar("1.0"), bar), jdkClassLoader, containerClassLoader);
+        assertSame(libraries1.get(1), libraries2.get(1));
+    }
+
+    @Test
+    public void corruptedLibrary() throws Exception {
+        SharedLibraries sharedLibraries = new SharedLibraries(true);
+        byte[] lib = libraryJar("1.0");
+        try {
+            sharedLibraries.acquire(pluginJar("p1", lib, "not a jar".getBytes("UTF-8")), jdkClassLoader, containerClassLoader);
+            fail();
+        } catch (IOException expected) {
+        }
+        // 没有获取任何库
+        assertTrue(sharedLibraries.snapshot().isEmpty());
+
+        List<SharedLibraries.Library> libraries = sharedLibraries.acquire(pluginJar("p2", lib), jdkClassLoader, containerClassLoader);
+        assertEquals(Collections.singletonMap(libraries.get(0).key, 1), sharedLibraries.snapshot());
+    }
+
+    @Test
+    public void coordinatesFallbackToFileName() throws IOException {
+        InMemoryJar jar = InMemoryJar.of("bar", jarBytes(null, "bar"));
+        assertEquals("bar-2.1.jar", SharedLibraries.coordinatesOf(jar, "lib/bar-2.1.jar"));
+    }
+
+    private PluginClassLoader pluginClassLoader(InMemoryJar jar, List<SharedLibraries.Library> libraries) {
+        PluginClassLoader loader = new PluginClassLoader(jar, jdkClassLoader, containerClassLoader);
+        loader.setLibraries(Collections.singletonList(libraries.get(0).classLoader));
+        return loader;
+    }
+
+    private static InMemoryJar pluginJar(String name, byte[]... libs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            out.putNextEntry(new JarEntry("META-INF/plugin.txt"));
+            out.closeEntry();
+            for (int i = 0; i < libs.length; i++) {
+                out.putNextEntry(new JarEntry(SharedLibraries.LIBRARY_PREFIX + (i == 0 ? "foo-1.0.jar" : "lib" + i + ".jar")));
+                out.write(libs[i]);
+                out.closeEntry();
+            }
+        }
+        return InMemoryJar.of(name, bytes.toByteArray());
+    }
+
+    private static byte[] libraryJar(String version, String... extraEntries) throws IOException {
+        return jarBytes("groupId=org.example\nartifactId=foo\nversion=" + version + "\n", extraEntries);
+    }
+
+    private static byte[] jarBytes(String pomProperties, String... extraEntries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            if (pomProperties != null) {
+                out.putNextEntry(new JarEntry("META-INF/maven/org.example/foo/pom.properties"));
+                out.write(pomProperties.getBytes("UTF-8"));
+                out.closeEntry();
+            }
+            for (String extra : extraEntries) {
+                out.putNextEntry(new JarEntry(extra));
+                out.closeEntry();
+            }
+            String name = NotExtButAnnotatedWithExtension.class.getName().replace('.', '/') + ".class";
+            out.putNextEntry(new JarEntry(name));
+            try (InputStream in = SharedLibrariesTest.class.getClassLoader().getResourceAsStream(name)) {
+                byte[] buffer = new byte[4 << 10];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            out.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+}
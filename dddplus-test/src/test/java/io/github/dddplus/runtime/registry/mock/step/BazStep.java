@@ -4,12 +4,17 @@ import io.github.dddplus.annotation.Step;
 import io.github.dddplus.runtime.registry.mock.exception.FooException;
 import io.github.dddplus.runtime.registry.mock.interceptor.DomainProfiler;
 import io.github.dddplus.runtime.registry.mock.model.FooModel;
+import io.github.dddplus.step.IBatchDomainStep;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.List;
+
 @Step
 @Slf4j
-public class BazStep extends SubmitStep {
+public class BazStep extends SubmitStep implements IBatchDomainStep<FooModel, FooException> {
+    // 批量执行失败时不改变任何模型
+    public static volatile boolean fallbackOnBatchFailure = true;
 
     @DomainProfiler
     @Override
@@ -24,6 +29,25 @@ public class BazStep extends SubmitStep {
         }
     }
 
+    @Override
+    public void executeBatch(@NonNull List<FooModel> models) throws FooException {
+        for (FooModel model : models) {
+            if (model.getFoo() < 0) {
+                throw new FooException("batch fails on purpose");
+            }
+        }
+
+        // 为了assert走的是批量执行
+        for (FooModel model : models) {
+            model.setFoo(models.size());
+        }
+    }
+
+    @Override
+    public boolean fallbackOnBatchFailure() {
+        return fallbackOnBatchFailure;
+    }
+
     @Override
     public void rollback(@NonNull FooModel model, @NonNull FooException cause) {
         log.info("baz rollback for {}", model);
@@ -0,0 +1,14 @@
+package io.github.dddplus.runtime.registry.mock.step;
+
+import io.github.dddplus.runtime.StepsExecTemplate;
+import io.github.dddplus.runtime.registry.mock.model.FooModel;
+import org.springframework.stereotype.Component;
+
+@Component
+public class JoinedSubmitStepsExec extends StepsExecTemplate<SubmitStep, FooModel> {
+
+    @Override
+    protected long asyncStepsJoinTimeoutInMs() {
+        return 2000;
+    }
+}
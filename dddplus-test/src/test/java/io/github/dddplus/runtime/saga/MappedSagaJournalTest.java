@@ -0,0 +1,150 @@
+package io.github.dddplus.runtime.saga;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedSagaJournalTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("saga").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void recoverPendingSagas() throws IOException {
+        MappedSagaJournal journal = new MappedSagaJournal(dir);
+        long done = journal.begin("submit", "order-1".getBytes(StandardCharsets.UTF_8));
+        long pending = journal.begin("submit", "order-2".getBytes(StandardCharsets.UTF_8));
+        journal.stepExecuted(done, "a");
+        journal.stepStarted(pending, "a");
+        journal.stepExecuted(pending, "a");
+        journal.stepStarted(pending, "b");
+        journal.stepExecuted(pending, "b");
+        journal.stepStarted(pending, "c");
+        journal.stepExecuted(pending, "c");
+        journal.stepCompensated(pending, "c");
+        journal.stepStarted(pending, "d");
+        journal.end(done);
+        assertTrue(journal.pendingSagas().isEmpty()); // 只包括打开时恢复的
+        // 模拟进程崩溃：不close
+        journal.flush();
+
+        MappedSagaJournal reopened = new MappedSagaJournal(dir);
+        try {
+            List<PendingSaga> sagas = reopened.pendingSagas();
+            assertEquals(1, sagas.size());
+            PendingSaga saga = sagas.get(0);
+            assertEquals(pending, saga.getSagaId());
+            assertEquals("submit", saga.getActivityCode());
+            assertEquals("order-2", new String(saga.getPayload(), StandardCharsets.UTF_8));
+            assertEquals(Arrays.asList("a", "b"), saga.getExecutedSteps());
+            // 崩溃时正在执行
+            assertEquals(Collections.singletonList("d"), saga.getInDoubtSteps());
+
+            assertTrue(reopened.begin("cancel", new byte[0]) > pending);
+            reopened.end(pending);
+            assertTrue(reopened.pendingSagas().isEmpty());
+        } finally {
+            reopened.close();
+            journal.close();
+        }
+    }
+
+    @Test
+    public void tornRecordDiscarded() throws IOException {
+        MappedSagaJournal journal = new MappedSagaJournal(dir, 1024, 0);
+        long sagaId = journal.begin("submit", new byte[0]);
+        journal.stepExecuted(sagaId, "a");
+        journal.stepExecuted(sagaId, "b");
+        journal.close();
+
+        // 最后一条记录只写了一半
+        File segment = dir.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            long pos = file.length() - 1;
+            while (pos > 0) {
+                file.seek(pos);
+                if (file.read() != 0) {
+                    break;
+                }
+                pos--;
+            }
+            file.seek(pos);
+            file.write('x');
+        }
+
+        MappedSagaJournal reopened = new MappedSagaJournal(dir, 1024, 0);
+        try {
+            assertEquals(Arrays.asList("a"), reopened.pendingSagas().get(0).getExecutedSteps());
+            // 从写了一半的记录处继续写
+            reopened.stepExecuted(sagaId, "c");
+        } finally {
+            reopened.close();
+        }
+
+        reopened = new MappedSagaJournal(dir, 1024, 0);
+        try {
+            assertEquals(Arrays.asList("a", "c"), reopened.pendingSagas().get(0).getExecutedSteps());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void obsoleteSegmentsDeleted() throws IOException {
+        MappedSagaJournal journal = new MappedSagaJournal(dir, 1024, 1);
+        try {
+            long longRunning = journal.begin("submit", new byte[0]);
+            for (int i = 0; i < 100; i++) {
+                long sagaId = journal.begin("submit", new byte[16]);
+                journal.stepExecuted(sagaId, "step");
+                journal.end(sagaId);
+            }
+            // 未结束的saga所在的分段，及其之后的分段都保留
+            assertTrue(journal.segmentCount() > 2);
+
+            journal.end(longRunning);
+            for (int i = 0; i < 30; i++) {
+                journal.end(journal.begin("submit", new byte[16]));
+            }
+            assertEquals(1, journal.segmentCount());
+            assertEquals(1, dir.listFiles().length);
+        } finally {
+            journal.close();
+        }
+
+        journal = new MappedSagaJournal(dir, 1024, 0);
+        try {
+            journal.begin("submit", new byte[1024]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("saga record too large: 1045", expected.getMessage());
+        } finally {
+            journal.close();
+        }
+    }
+}